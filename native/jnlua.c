@@ -3,6 +3,7 @@
  * See LICENSE.txt for license terms.
  */
 
+#include <limits.h>
 #include <stdlib.h>
 #include <string.h>
 #include <setjmp.h>
@@ -56,6 +57,63 @@
 #define AS_STR(x) AS_STR_INNER(x)
 #define AS_STR_INNER(x) # x
 
+/* Allocators. These must match LuaState.Allocator. */
+#define JNLUA_ALLOCATOR_SYSTEM 0
+#define JNLUA_ALLOCATOR_ARENA 1
+
+/* Memory counters shared with the Java state. These must match LuaState. */
+#define JNLUA_MEMORY_TOTAL 0
+#define JNLUA_MEMORY_USED 1
+#define JNLUA_MEMORY_RESERVED 2
+#define JNLUA_MEMORY_ALLOCATIONS 3
+#define JNLUA_MEMORY_COUNT 4
+
+/* Arena allocator. Blocks up to the maximum size are taken from chunks. */
+#define JNLUA_ARENA_ALIGN 16
+#define JNLUA_ARENA_CLASSES 32
+#define JNLUA_ARENA_MAXSIZE (JNLUA_ARENA_ALIGN * JNLUA_ARENA_CLASSES)
+#define JNLUA_ARENA_CHUNKSIZE 65536
+#define arenaclass(size) (((size) - 1) / JNLUA_ARENA_ALIGN)
+
+/* Initial capacity of the Java object table. */
+#define JNLUA_OBJECTS_CAPACITY 64
+
+/* Flag marking Java functions and objects in type codes. This must match LuaState. */
+#define JNLUA_JAVATYPE 0x10
+
+/* Batch operation codes and result tags. These must match LuaBatch. */
+#define JNLUA_BATCH_PUSHNIL 1
+#define JNLUA_BATCH_PUSHBOOLEAN 2
+#define JNLUA_BATCH_PUSHINTEGER 3
+#define JNLUA_BATCH_PUSHNUMBER 4
+#define JNLUA_BATCH_PUSHSTRING 5
+#define JNLUA_BATCH_PUSHVALUE 6
+#define JNLUA_BATCH_POP 7
+#define JNLUA_BATCH_SETTOP 8
+#define JNLUA_BATCH_NEWTABLE 9
+#define JNLUA_BATCH_GETGLOBAL 10
+#define JNLUA_BATCH_SETGLOBAL 11
+#define JNLUA_BATCH_GETFIELD 12
+#define JNLUA_BATCH_SETFIELD 13
+#define JNLUA_BATCH_GETTABLE 14
+#define JNLUA_BATCH_SETTABLE 15
+#define JNLUA_BATCH_RAWGET 16
+#define JNLUA_BATCH_RAWGETI 17
+#define JNLUA_BATCH_RAWSET 18
+#define JNLUA_BATCH_RAWSETI 19
+#define JNLUA_BATCH_CALL 20
+#define JNLUA_BATCH_GETTOP 21
+#define JNLUA_BATCH_TYPE 22
+#define JNLUA_BATCH_TOBOOLEAN 23
+#define JNLUA_BATCH_TOINTEGER 24
+#define JNLUA_BATCH_TONUMBER 25
+#define JNLUA_BATCH_TOSTRING 26
+#define JNLUA_BATCH_RESULTNIL 0
+#define JNLUA_BATCH_RESULTBOOLEAN 1
+#define JNLUA_BATCH_RESULTINTEGER 2
+#define JNLUA_BATCH_RESULTNUMBER 3
+#define JNLUA_BATCH_RESULTSTRING 4
+
 /* ---- Types ---- */
 /* Structure for reading and writing Java streams. */
 typedef struct StreamStruct  {
@@ -65,6 +123,44 @@ typedef struct StreamStruct  {
 	jboolean is_copy;
 } Stream;
 
+/* Growable native buffer for dumping functions. */
+typedef struct DumpBufferStruct {
+	char *data;
+	size_t size;
+	size_t capacity;
+	int failed;
+} DumpBuffer;
+
+/* Arena of small memory blocks, grouped by size class. */
+typedef struct ArenaStruct {
+	void *free[JNLUA_ARENA_CLASSES]; /* free blocks per size class */
+	char *top; /* unused space of the current chunk */
+	char *end;
+	void *chunks; /* chunks, linked through their first word */
+	size_t strays; /* large blocks kept when shrinking into the arena */
+	int closing; /* blocks are released with their chunks */
+} Arena;
+
+/* Native data of Lua states created by JNLua, held as allocator userdata. */
+typedef struct JavaStateStruct {
+	jobject object; /* weak global reference to the Java state */
+	int checked; /* enforce memory use */
+	Arena *arena; /* NULL for the system allocator */
+	jlong memory[JNLUA_MEMORY_COUNT]; /* counters, shared with the Java state */
+	int handles; /* push Java objects as handles */
+	jobjectArray objects; /* global reference to the Java object table */
+	jint *freeobjects; /* free handles of the Java object table */
+	jint freecount;
+	jint objectcount; /* capacity of the Java object table */
+} JavaState;
+
+/* Java object referenced by a handle into the Java object table. The
+   structure is larger than a global reference, which tells them apart. */
+typedef struct JavaHandleStruct {
+	jobject unused;
+	jint handle;
+} JavaHandle;
+
 /* ---- JNI helpers ---- */
 static jclass referenceclass(JNIEnv *env, const char *className);
 static jbyteArray newbytearray(jsize length);
@@ -78,15 +174,17 @@ static lua_State *getluathread(jobject javastate);
 static void setluathread(jobject javastate, lua_State *L);
 static int getyield(jobject javastate);
 static void setyield(jobject javastate, int yield);
+static int getstacktracedepth(jobject javastate);
 static lua_Debug *getluadebug(jobject javadebug);
-static void setluadebug(jobject javadebug, lua_Debug *ar);
 
 /* ---- Memory use control ---- */
-static void getluamemory(jobject obj, jint *total, jint *used);
-static void setluamemoryused(jobject obj, jint used);
+static JavaState *getjavastatedata(lua_State *L);
+static jint getluamemorytotal(jobject obj);
+static jint getluaallocator(jobject obj);
 
 /* ---- Checks ---- */
 static int validindex(lua_State *L, int index);
+static int israwtable(lua_State *L, int index);
 static int checkstack(lua_State *L, int space);
 static int checkindex(lua_State *L, int index);
 static int checkrealindex(lua_State *L, int index);
@@ -99,27 +197,37 @@ static int check(int cond, jthrowable throwable_class, const char *msg);
 
 /* ---- Java objects and functions ---- */
 static void pushjavaobject(lua_State *L, jobject object);
+static int growjavaobjects(JavaState *S);
 static jobject tojavaobject(lua_State *L, int index, jclass class);
+static int isjavaobject(lua_State *L, int index);
 static jstring tostring(lua_State *L, int index);
 static int gcjavaobject(lua_State *L);
 static int calljavafunction(lua_State *L);
+static void setclassmetatable(lua_State *L, int metatable);
+static int classindex(lua_State *L);
 
 /* ---- Error handling ---- */
 static int messagehandler(lua_State *L);
 static int isrelevant(lua_Debug *ar);
+static void addframe(luaL_Buffer *b, lua_Debug *ar);
+static void addframestring(luaL_Buffer *b, const char *s);
 static void throw(lua_State *L, int status);
 
 /* ---- Stream adapters ---- */
 static const char *readhandler(lua_State *L, void *ud, size_t *size);
 static int writehandler(lua_State *L, const void *data, size_t size, void *ud);
+static int bufferwritehandler(lua_State *L, const void *data, size_t size, void *ud);
 
 /* ---- Variables ---- */
+static char objectkey; /* registry key of the Java object metatable, and marker of Java object metatables */
+static char objectcachekey; /* registry key of the Java object cache */
 static jclass luastate_class = NULL;
 static jfieldID luastate_id = 0;
 static jfieldID luathread_id = 0;
 static jfieldID luamemorytotal_id = 0;
-static jfieldID luamemoryused_id = 0;
+static jfieldID luaallocator_id = 0;
 static jfieldID yield_id = 0;
+static jfieldID stacktracedepth_id = 0;
 static jclass luadebug_class = NULL;
 static jclass luadebug_local_class = NULL;
 static jmethodID luadebug_init_id = 0;
@@ -137,8 +245,6 @@ static jclass luagcmetamethodexception_class = NULL;
 static jmethodID luagcmetamethodexception_id = 0;
 static jclass luamessagehandlerexception_class = NULL;
 static jmethodID luamessagehandlerexception_id = 0;
-static jclass luastacktraceelement_class = NULL;
-static jmethodID luastacktraceelement_id = 0;
 static jclass luaerror_class = NULL;
 static jmethodID luaerror_id = 0;
 static jmethodID setluastacktrace_id = 0;
@@ -155,6 +261,9 @@ static jmethodID read_id = 0;
 static jclass outputstream_class = NULL;
 static jmethodID write_id = 0;
 static jclass ioexception_class = NULL;
+static jclass object_class = NULL;
+static jclass arrays_class = NULL;
+static jmethodID copyof_id = 0;
 static int initialized = 0;
 JNLUA_THREADLOCAL JNIEnv *thread_env;
 
@@ -197,8 +306,10 @@ JNIEXPORT jint JNICALL JNI_LUASTATE_METHOD(lua_1versionnum)(JNIEnv *env, jobject
  */
 static int newstate_protected (lua_State *L) {
 	jobject *ref;
+	JavaState *S;
 	jobject newstate_obj = (jobject)lua_touserdata(L, 1);
-	lua_pop(L, 1);
+	int owned = lua_toboolean(L, 2);
+	lua_pop(L, 2);
 	
 	/* Set the Java state in the Lua state. */
 	ref = lua_newuserdata(L, sizeof(jobject));
@@ -214,13 +325,27 @@ static int newstate_protected (lua_State *L) {
 	lua_setmetatable(L, -2);
 	lua_setfield(L, LUA_REGISTRYINDEX, JNLUA_JAVASTATE);
 	
+	/* Cache the Java state in the native data of owned states. */
+	if (owned) {
+		S = getjavastatedata(L);
+		S->object = *ref;
+	}
+	
 	/*
 	 * Create the meta table for Java objects and return it. Population will
 	 * be finished on the Java side.
 	 */
 	luaL_newmetatable(L, JNLUA_OBJECT);
+	lua_pushvalue(L, -1);
+	lua_rawsetp(L, LUA_REGISTRYINDEX, &objectkey);
+	lua_pushboolean(L, 1); /* marker, copied into class metatables */
+	lua_rawsetp(L, -2, &objectkey);
 	lua_pushboolean(L, 0);
 	lua_setfield(L, -2, "__metatable");
+#ifdef JNLUA_USE_ERIS
+	lua_pushboolean(L, 0); /* Java objects cannot be persisted */
+	lua_setfield(L, -2, "__persist");
+#endif
 	lua_pushboolean(L, 0); /* non-weak global reference */
 	lua_pushcclosure(L, gcjavaobject, 1);
 	lua_setfield(L, -2, "__gc");
@@ -230,57 +355,179 @@ static int newstate_protected (lua_State *L) {
 /* Get Java state from Lua state. */
 static jobject getjavastate(lua_State* L) {
 	jobject obj = NULL;
+	JavaState *S = getjavastatedata(L);
+	if (S && S->object) {
+		return S->object;
+	}
+	
+	/* Attached state, or owned state being closed. */
 	lua_getfield(L, LUA_REGISTRYINDEX, JNLUA_JAVASTATE);
 	if (lua_isuserdata(L, -1)) {
 		obj = *(jobject *) lua_touserdata(L, -1);
 	} /* else: Java state has been cleared as the Java VM was destroyed. */
 	lua_pop(L, 1);
+	
+	/* The Java state of an attached state may have been collected. */
+	if (obj && (*thread_env)->IsSameObject(thread_env, obj, NULL)) {
+		obj = NULL;
+	}
 	return obj;
 }
 
-/* This default allocator is set while inside the controlled allocator to
-   avoid recursion when looking up the Java state from the Lua state. */
-static void* l_alloc_unchecked (void *ud, void *ptr, size_t osize, size_t nsize) {
-	if (nsize == 0) {
-		free(ptr);
+/* Allocates a small block from the arena. */
+static void *arenaalloc (JavaState *S, size_t size) {
+	Arena *A = S->arena;
+	int c = arenaclass(size);
+	size_t classsize;
+	char *chunk;
+	void *block;
+	
+	/* Reuse a free block. */
+	block = A->free[c];
+	if (block) {
+		A->free[c] = *(void **) block;
+		return block;
+	}
+	
+	/* Take the block from the current chunk, adding a chunk as needed. */
+	classsize = (c + 1) * JNLUA_ARENA_ALIGN;
+	if ((size_t) (A->end - A->top) < classsize) {
+		chunk = malloc(JNLUA_ARENA_CHUNKSIZE);
+		if (!chunk) {
+			return NULL;
+		}
+		*(void **) chunk = A->chunks;
+		A->chunks = chunk;
+		A->top = chunk + JNLUA_ARENA_ALIGN;
+		A->end = chunk + JNLUA_ARENA_CHUNKSIZE;
+		S->memory[JNLUA_MEMORY_RESERVED] += JNLUA_ARENA_CHUNKSIZE;
+	}
+	block = A->top;
+	A->top += classsize;
+	return block;
+}
+
+/* Returns whether a block lies within a chunk of the arena. */
+static int arenacontains (Arena *A, void *block) {
+	char *chunk;
+	
+	for (chunk = A->chunks; chunk; chunk = *(char **) chunk) {
+		if ((char *) block >= chunk && (char *) block < chunk + JNLUA_ARENA_CHUNKSIZE) {
+			return 1;
+		}
+	}
+	return 0;
+}
+
+/* Frees a block allocated with the arena allocator. */
+static void arenafree (Arena *A, void *block, size_t size) {
+	int c;
+	
+	if (size > JNLUA_ARENA_MAXSIZE) {
+		free(block);
+		return;
+	}
+	if (A->strays && !arenacontains(A, block)) {
+		/* Large block kept when shrinking. */
+		A->strays--;
+		free(block);
+		return;
+	}
+	if (A->closing) {
+		return;
+	}
+	c = arenaclass(size);
+	*(void **) block = A->free[c];
+	A->free[c] = block;
+}
+
+/*
+ * Reallocates a block with the arena allocator. Large blocks use malloc. Lua
+ * expects reduction to not fail, so a block that cannot be moved when shrinking
+ * is kept. A large block kept with a small size is counted as a stray; while
+ * there are strays, small blocks outside the chunks are freed with free.
+ */
+static void *arenarealloc (JavaState *S, void *ptr, size_t osize, size_t nsize) {
+	void *block;
+	
+	if (osize > JNLUA_ARENA_MAXSIZE && nsize > JNLUA_ARENA_MAXSIZE) {
+		block = realloc(ptr, nsize);
+		return block || nsize > osize ? block : ptr;
+	}
+	if (ptr && osize <= JNLUA_ARENA_MAXSIZE && nsize <= JNLUA_ARENA_MAXSIZE
+			&& arenaclass(osize) == arenaclass(nsize)) {
+		return ptr;
+	}
+	block = nsize > JNLUA_ARENA_MAXSIZE ? malloc(nsize) : arenaalloc(S, nsize);
+	if (!block) {
+		if (ptr && nsize <= osize) {
+			if (osize > JNLUA_ARENA_MAXSIZE) {
+				S->arena->strays++;
+			}
+			return ptr;
+		}
 		return NULL;
-	} else {
-		return realloc(ptr, nsize);
 	}
+	if (ptr) {
+		memcpy(block, ptr, osize < nsize ? osize : nsize);
+		arenafree(S->arena, ptr, osize);
+	}
+	return block;
 }
 
-/* This custom allocator ensures a VM won't exceed its allowed memory use. */
-static void* l_alloc_checked (void *ud, void *ptr, size_t osize, size_t nsize) {
-	lua_State *L = (lua_State*)ud;
-	jobject obj;
-	lua_setallocf(L, l_alloc_unchecked, NULL);
-	obj = getjavastate(L);
-	lua_setallocf(L, l_alloc_checked, L);
-	if (obj) {
-		/* We have a Java state, enforce memory control. */
-		jint total, used;
-		getluamemory(obj, &total, &used);
-		if (nsize == 0) {
-			/* Free a block of memory. */
-			free(ptr);
-			setluamemoryused(obj, used - osize);
-			return NULL;
-		} else {
-			int delta = ptr != NULL ? (nsize - osize) : nsize;
+/* Releases all chunks of an arena. */
+static void arenaclose (Arena *A) {
+	void *chunk, *next;
+	
+	for (chunk = A->chunks; chunk; chunk = next) {
+		next = *(void **) chunk;
+		free(chunk);
+	}
+	free(A);
+}
 
-			/* Lua expects reduction to not fail, so we must allow
-			   that even if it exceeds our current memory cap. */
-			if (total <= 0 || delta <= 0 || total - used >= delta) {
-				setluamemoryused(obj, used + delta);
-				return realloc(ptr, nsize);
+/* This allocator is used for all Lua states created by JNLua. It has the
+   native data of the state as its userdata and ensures a VM won't exceed its
+   allowed memory use if memory use is enforced. The counters are kept in the
+   native data, so no JNI calls are made. */
+static void* l_alloc (void *ud, void *ptr, size_t osize, size_t nsize) {
+	JavaState *S = (JavaState *) ud;
+	jlong *memory = S->memory;
+	size_t size = ptr ? osize : 0;
+	
+	if (nsize == 0) {
+		/* Free a block of memory. */
+		if (ptr) {
+			if (S->arena) {
+				arenafree(S->arena, ptr, osize);
 			} else {
-				return NULL;
+				free(ptr);
 			}
+			memory[JNLUA_MEMORY_USED] -= (jlong) osize;
 		}
-	} else {
-		/* State was cleaned up on the Java side, fall back to default. */
-		return l_alloc_unchecked(ud, ptr, osize, nsize);
+		return NULL;
 	}
+	
+	/* Lua expects reduction to not fail, so we must allow
+	   that even if it exceeds our current memory cap. */
+	if (S->checked && nsize > size && memory[JNLUA_MEMORY_TOTAL]
+			- memory[JNLUA_MEMORY_USED] < (jlong) (nsize - size)) {
+		return NULL;
+	}
+	ptr = S->arena ? arenarealloc(S, ptr, size, nsize) : realloc(ptr, nsize);
+	if (ptr) {
+		memory[JNLUA_MEMORY_USED] += (jlong) nsize - (jlong) size;
+		if (!size) {
+			memory[JNLUA_MEMORY_ALLOCATIONS]++;
+		}
+	}
+	return ptr;
+}
+
+/* Get the native data of a Lua state, or NULL if JNLua did not create it. */
+static JavaState *getjavastatedata(lua_State *L) {
+	void *ud;
+	return lua_getallocf(L, &ud) == l_alloc ? (JavaState *) ud : NULL;
 }
 
 static int panic (lua_State *L) {
@@ -291,18 +538,65 @@ static int panic (lua_State *L) {
 }
 
 static lua_State *controlled_newstate (jobject obj) {
-	lua_State *L = luaL_newstate();
-	if (L) {
-		jint total, used;
-		getluamemory(obj, &total, &used);
-		if (total > 0) {
-			lua_setallocf(L, l_alloc_checked, L);
+	lua_State *L;
+	JavaState *S;
+	jint total;
+	
+	S = malloc(sizeof(JavaState));
+	if (!S) {
+		return NULL;
+	}
+	total = getluamemorytotal(obj);
+	S->object = NULL;
+	S->checked = total > 0;
+	S->arena = NULL;
+	memset(S->memory, 0, sizeof(S->memory));
+	S->handles = 0;
+	S->objects = NULL;
+	S->freeobjects = NULL;
+	S->freecount = 0;
+	S->objectcount = 0;
+	S->memory[JNLUA_MEMORY_TOTAL] = total;
+	if (getluaallocator(obj) == JNLUA_ALLOCATOR_ARENA) {
+		S->arena = calloc(1, sizeof(Arena));
+		if (!S->arena) {
+			free(S);
+			return NULL;
 		}
-		lua_atpanic(L, &panic);
 	}
+	L = lua_newstate(l_alloc, S);
+	if (!L) {
+		if (S->arena) {
+			arenaclose(S->arena);
+		}
+		free(S);
+		return NULL;
+	}
+	lua_atpanic(L, &panic);
 	return L;
 }
 
+static void controlled_close (lua_State *L) {
+	JavaState *S = getjavastatedata(L);
+	
+	/* The weak reference is deleted while closing; stop using it. */
+	S->object = NULL;
+	
+	/* Arena blocks are released in bulk after closing. */
+	if (S->arena) {
+		S->arena->closing = 1;
+	}
+	lua_close(L);
+	if (S->arena) {
+		arenaclose(S->arena);
+	}
+	if (S->objects) {
+		(*thread_env)->DeleteGlobalRef(thread_env, S->objects);
+	}
+	free(S->freeobjects);
+	free(S);
+}
+
 JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1newstate) (JNIEnv *env, jobject obj, int apiversion, jlong existing) {
 	lua_State *L;
 	
@@ -327,13 +621,12 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1newstate) (JNIEnv *env, jobject
 	if (checkstack(L, JNLUA_MINSTACK)) {
 		lua_pushcfunction(L, newstate_protected);
 		lua_pushlightuserdata(L, (void*)obj);
-		JNLUA_PCALL(L, 1, 1);
+		lua_pushboolean(L, !existing);
+		JNLUA_PCALL(L, 2, 1);
 	}
 	if ((*env)->ExceptionCheck(env)) {
 		if (!existing) {
-			lua_setallocf(L, l_alloc_unchecked, NULL);
-			setluamemoryused(obj, 0);
-			lua_close(L);
+			controlled_close(L);
 		}
 		return;
 	}
@@ -369,9 +662,7 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1close) (JNIEnv *env, jobject obj
 		setluathread(obj, NULL);
 		
 		/* Close Lua state. */
-		lua_setallocf(L, l_alloc_unchecked, NULL);
-		setluamemoryused(obj, 0);
-		lua_close(L);
+		controlled_close(L);
 	} else {
 		/* Can close? */
 		if (!lua_checkstack(L, JNLUA_MINSTACK)) {
@@ -394,6 +685,51 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1close) (JNIEnv *env, jobject obj
 	}
 }
 
+/* lua_freestate() */
+JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1freestate) (JNIEnv *env, jclass cls, jlong luaState) {
+	lua_State *L = (lua_State *) (uintptr_t) luaState;
+	
+	/* The Java state has been collected; the Lua state is idle. */
+	JNLUA_ENV(env);
+	
+	/* Unset the cleared Java state in the Lua state before closing. */
+	getjavastatedata(L)->object = NULL;
+	if (lua_checkstack(L, JNLUA_MINSTACK)) {
+		lua_pushcfunction(L, close_protected);
+		if (lua_pcall(L, 0, 0, 0) != LUA_OK) {
+			lua_pop(L, 1);
+		}
+	}
+	controlled_close(L);
+}
+
+/* lua_memory() */
+JNIEXPORT jobject JNICALL JNI_LUASTATE_METHOD(lua_1memory) (JNIEnv *env, jobject obj) {
+	lua_State *L;
+	JavaState *S;
+	
+	JNLUA_ENV(env);
+	L = getluastate(obj);
+	S = getjavastatedata(L);
+	if (!S) {
+		return NULL;
+	}
+	return (*env)->NewDirectByteBuffer(env, S->memory, sizeof(S->memory));
+}
+
+/* lua_sethandlejavaobjects() */
+JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1sethandlejavaobjects) (JNIEnv *env, jobject obj, jboolean handles) {
+	lua_State *L;
+	JavaState *S;
+	
+	JNLUA_ENV(env);
+	L = getluastate(obj);
+	S = getjavastatedata(L);
+	if (checkstate(S != NULL, "attached Lua state")) {
+		S->handles = (int) handles;
+	}
+}
+
 /* lua_gc() */
 static int gc_protected (lua_State *L) {
 	lua_pushinteger(L, lua_gc(L, lua_tointeger(L, 1), lua_tointeger(L, 2)));
@@ -542,6 +878,60 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1load) (JNIEnv *env, jobject obj,
 	}
 }
 
+/* lua_loadbuffer() */
+JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1loadbuffer) (JNIEnv *env, jobject obj, jobject buffer, jint position, jint length, jstring chunkname, jstring mode) {
+	lua_State *L;
+	const char *chunkname_utf = NULL, *mode_utf = NULL;
+	char *loadbuffer_b = NULL;
+	int status;
+
+	JNLUA_ENV(env);
+	L = getluathread(obj);
+	if (checkstack(L, JNLUA_MINSTACK)
+			&& checknotnull(buffer)
+			&& checkarg((loadbuffer_b = (char*)(*env)->GetDirectBufferAddress(env, buffer)) != NULL, "illegal buffer")
+			&& checkarg(position >= 0 && length >= 0 && (jlong)position + length <= (*env)->GetDirectBufferCapacity(env, buffer), "illegal range")
+			&& (chunkname_utf = getstringchars(chunkname))
+			&& (mode_utf = getstringchars(mode))) {
+		status = luaL_loadbufferx(L, loadbuffer_b + position, (size_t) length, chunkname_utf, mode_utf);
+		if (status != LUA_OK) {
+			throw(L, status);
+		}
+	}
+	if (chunkname_utf) {
+		releasestringchars(chunkname, chunkname_utf);
+	}
+	if (mode_utf) {
+		releasestringchars(mode, mode_utf);
+	}
+}
+
+/* lua_dumpbuffer() */
+JNIEXPORT jbyteArray JNICALL JNI_LUASTATE_METHOD(lua_1dumpbuffer) (JNIEnv *env, jobject obj, jboolean strip) {
+	lua_State *L;
+	DumpBuffer buffer = { NULL, 0, 0, 0 };
+	int status;
+	jbyteArray dumpbuffer_result = NULL;
+
+	JNLUA_ENV(env);
+	L = getluathread(obj);
+	if (checkstack(L, JNLUA_MINSTACK)
+			&& checknelems(L, 1)) {
+#if LUA_VERSION_NUM >= 503
+		status = lua_dump(L, bufferwritehandler, &buffer, strip);
+#else
+		status = lua_dump(L, bufferwritehandler, &buffer);
+#endif
+		if (check(!buffer.failed, luamemoryallocationexception_class, "out of memory dumping function")
+				&& checkarg(status == 0, "function cannot be dumped")
+				&& (dumpbuffer_result = newbytearray((jsize) buffer.size))) {
+			(*env)->SetByteArrayRegion(env, dumpbuffer_result, 0, (jsize) buffer.size, (jbyte *) buffer.data);
+		}
+	}
+	free(buffer.data);
+	return dumpbuffer_result;
+}
+
 /* lua_dump() */
 JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1dump) (JNIEnv *env, jobject obj, jobject outputStream, jboolean strip) {
 	lua_State *L;
@@ -566,6 +956,146 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1dump) (JNIEnv *env, jobject obj,
 	}
 }
 
+/* ---- Snapshot ---- */
+#ifdef JNLUA_USE_ERIS
+/*
+ * Names the C functions reachable from a table. When persisting, the names are
+ * stored by function, and when unpersisting, the functions are stored by name.
+ */
+static void snapshotperms (lua_State *L, int perms, int t, int name, int persist, int depth) {
+	luaL_checkstack(L, 6, NULL);
+	lua_pushnil(L);
+	while (lua_next(L, t)) {
+		if ((lua_type(L, -2) == LUA_TSTRING || lua_type(L, -2) == LUA_TNUMBER)
+				&& (lua_iscfunction(L, -1) || (depth > 0 && lua_istable(L, -1)))) {
+			lua_pushvalue(L, name);
+			lua_pushliteral(L, ".");
+			lua_pushvalue(L, -4);
+			lua_concat(L, 3);
+			if (lua_istable(L, -2)) {
+				snapshotperms(L, perms, lua_gettop(L) - 1, lua_gettop(L), persist, depth - 1);
+			} else if (persist) {
+				lua_pushvalue(L, -2);
+				lua_rawget(L, perms);
+				if (lua_isnil(L, -1)) {
+					lua_pushvalue(L, -3);
+					lua_pushvalue(L, -3);
+					lua_rawset(L, perms);
+				}
+				lua_pop(L, 1);
+			} else {
+				lua_pushvalue(L, -1);
+				lua_pushvalue(L, -3);
+				lua_rawset(L, perms);
+			}
+			lua_pop(L, 1);
+		}
+		lua_pop(L, 1);
+	}
+}
+
+/* Pushes the permanents table of a snapshot. */
+static void snapshotpermanents (lua_State *L, int persist) {
+	int perms;
+
+	lua_newtable(L);
+	perms = lua_gettop(L);
+	lua_getfield(L, LUA_REGISTRYINDEX, "_LOADED");
+	if (lua_istable(L, -1)) {
+		lua_pushliteral(L, "");
+		snapshotperms(L, perms, perms + 1, perms + 2, persist, 2);
+		lua_pop(L, 1);
+	}
+	lua_pop(L, 1);
+}
+#endif
+
+/* lua_snapshot() */
+#ifdef JNLUA_USE_ERIS
+static int snapshot_protected (lua_State *L) {
+	DumpBuffer *buffer = (DumpBuffer *) lua_touserdata(L, 1);
+	
+	snapshotpermanents(L, 1);
+	lua_createtable(L, 0, 2);
+	lua_rawgeti(L, LUA_REGISTRYINDEX, LUA_RIDX_GLOBALS);
+	lua_setfield(L, -2, "globals");
+	lua_getfield(L, LUA_REGISTRYINDEX, "_LOADED");
+	lua_setfield(L, -2, "loaded");
+	eris_dump(L, bufferwritehandler, buffer);
+	return 0;
+}
+#endif
+JNIEXPORT jbyteArray JNICALL JNI_LUASTATE_METHOD(lua_1snapshot) (JNIEnv *env, jobject obj) {
+	jbyteArray snapshot_result = NULL;
+#ifdef JNLUA_USE_ERIS
+	lua_State *L;
+	DumpBuffer buffer = { NULL, 0, 0, 0 };
+
+	JNLUA_ENV(env);
+	L = getluathread(obj);
+	if (checkstack(L, JNLUA_MINSTACK)) {
+		lua_pushcfunction(L, snapshot_protected);
+		lua_pushlightuserdata(L, (void*)&buffer);
+		JNLUA_PCALL(L, 1, 0);
+		if (buffer.failed) {
+			(*env)->ExceptionClear(env);
+			check(0, luamemoryallocationexception_class, "out of memory creating snapshot");
+		} else if (!(*env)->ExceptionCheck(env)
+				&& (snapshot_result = newbytearray((jsize) buffer.size))) {
+			(*env)->SetByteArrayRegion(env, snapshot_result, 0, (jsize) buffer.size, (jbyte *) buffer.data);
+		}
+	}
+	free(buffer.data);
+#else
+	JNLUA_ENV(env);
+	checkstate(0, "snapshots require Eris");
+#endif
+	return snapshot_result;
+}
+
+/* lua_restoresnapshot() */
+#ifdef JNLUA_USE_ERIS
+static int restoresnapshot_protected (lua_State *L) {
+	lua_pushlstring(L, (const char *) lua_touserdata(L, 1), (size_t) lua_tounsigned(L, 2));
+	snapshotpermanents(L, 0);
+	eris_unpersist(L, 4, 3);
+	if (lua_istable(L, 5)) {
+		lua_getfield(L, 5, "globals");
+		lua_getfield(L, 5, "loaded");
+	}
+	if (!lua_istable(L, 6) || !lua_istable(L, 7)) {
+		return luaL_error(L, "illegal snapshot");
+	}
+	lua_pushvalue(L, 6);
+	lua_rawseti(L, LUA_REGISTRYINDEX, LUA_RIDX_GLOBALS);
+	lua_pushvalue(L, 7);
+	lua_setfield(L, LUA_REGISTRYINDEX, "_LOADED");
+	return 0;
+}
+#endif
+JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1restoresnapshot) (JNIEnv *env, jobject obj, jbyteArray image) {
+#ifdef JNLUA_USE_ERIS
+	lua_State *L;
+	jbyte *restoresnapshot_b = NULL;
+
+	JNLUA_ENV(env);
+	L = getluathread(obj);
+	if (checkstack(L, JNLUA_MINSTACK)
+			&& (restoresnapshot_b = (*env)->GetByteArrayElements(env, image, NULL))) {
+		lua_pushcfunction(L, restoresnapshot_protected);
+		lua_pushlightuserdata(L, (void*)restoresnapshot_b);
+		lua_pushunsigned(L, (*env)->GetArrayLength(env, image));
+		JNLUA_PCALL(L, 2, 0);
+	}
+	if (restoresnapshot_b) {
+		(*env)->ReleaseByteArrayElements(env, image, restoresnapshot_b, JNI_ABORT);
+	}
+#else
+	JNLUA_ENV(env);
+	checkstate(0, "snapshots require Eris");
+#endif
+}
+
 /* ---- Call ---- */
 /* lua_pcall() */
 JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1pcall) (JNIEnv *env, jobject obj, jint nargs, jint nresults) {
@@ -674,6 +1204,24 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1pushbytearray) (JNIEnv *env, job
 	}
 }
 
+/* lua_pushbuffer() */
+JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1pushbuffer) (JNIEnv *env, jobject obj, jobject buffer, jint position, jint length) {
+	lua_State *L;
+	char *pushbuffer_b = NULL;
+	
+	JNLUA_ENV(env);
+	L = getluathread(obj);
+	if (checkstack(L, JNLUA_MINSTACK)
+			&& checknotnull(buffer)
+			&& checkarg((pushbuffer_b = (char*)(*env)->GetDirectBufferAddress(env, buffer)) != NULL, "illegal buffer")
+			&& checkarg(position >= 0 && length >= 0 && (jlong)position + length <= (*env)->GetDirectBufferCapacity(env, buffer), "illegal range")) {
+		lua_pushcfunction(L, pushbytearray_protected);
+		lua_pushlightuserdata(L, (void*)(pushbuffer_b + position));
+		lua_pushunsigned(L, length);
+		JNLUA_PCALL(L, 2, 1);
+	}
+}
+
 /* lua_pushinteger() */
 JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1pushinteger) (JNIEnv *env, jobject obj, jlong n) {
 	lua_State *L;
@@ -707,9 +1255,10 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1pushjavafunction) (JNIEnv *env,
 /* lua_pushjavaobject() */
 static int pushjavaobject_protected (lua_State *L) {
 	pushjavaobject(L, (jobject)lua_touserdata(L, 1));
+	setclassmetatable(L, (int) lua_tointeger(L, 2));
 	return 1;
 }
-JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1pushjavaobject) (JNIEnv *env, jobject obj, jobject object) {
+JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1pushjavaobject) (JNIEnv *env, jobject obj, jobject object, jint metatable) {
 	lua_State *L;
 	
 	JNLUA_ENV(env);
@@ -718,8 +1267,99 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1pushjavaobject) (JNIEnv *env, jo
 			&& checknotnull(object)) {
 		lua_pushcfunction(L, pushjavaobject_protected);
 		lua_pushlightuserdata(L, (void*)object);
+		lua_pushinteger(L, metatable);
+		JNLUA_PCALL(L, 2, 1);
+	}
+}
+
+/* lua_pushjavaobjectcached() */
+static int pushjavaobjectcached_protected (lua_State *L) {
+	jobject object = (jobject)lua_touserdata(L, 1);
+	jint hash = (jint) lua_tointeger(L, 2);
+	int metatable = (int) lua_tointeger(L, 3);
+	jobject cached;
+	
+	/* Get or create the cache, a weak-valued table keyed by identity hash. */
+	lua_rawgetp(L, LUA_REGISTRYINDEX, &objectcachekey);
+	if (!lua_istable(L, -1)) {
+		lua_pop(L, 1);
+		lua_newtable(L);
+		lua_createtable(L, 0, 1);
+		lua_pushliteral(L, "v");
+		lua_setfield(L, -2, "__mode");
+		lua_setmetatable(L, -2);
+		lua_pushvalue(L, -1);
+		lua_rawsetp(L, LUA_REGISTRYINDEX, &objectcachekey);
+	}
+	
+	/* Return the cached value if it holds the same object. */
+	lua_rawgeti(L, -1, hash);
+	if (!lua_isnil(L, -1)) {
+		cached = tojavaobject(L, -1, NULL);
+		if (cached && (*thread_env)->IsSameObject(thread_env, cached, object)) {
+			return 1;
+		}
+	}
+	lua_pop(L, 1);
+	
+	/* Push and cache, replacing any object with the same identity hash. */
+	pushjavaobject(L, object);
+	setclassmetatable(L, metatable);
+	lua_pushvalue(L, -1);
+	lua_rawseti(L, -3, hash);
+	return 1;
+}
+JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1pushjavaobjectcached) (JNIEnv *env, jobject obj, jobject object, jint hash, jint metatable) {
+	lua_State *L;
+	
+	JNLUA_ENV(env);
+	L = getluathread(obj);
+	if (checkstack(L, JNLUA_MINSTACK)
+			&& checknotnull(object)) {
+		lua_pushcfunction(L, pushjavaobjectcached_protected);
+		lua_pushlightuserdata(L, (void*)object);
+		lua_pushinteger(L, hash);
+		lua_pushinteger(L, metatable);
+		JNLUA_PCALL(L, 3, 1);
+	}
+}
+
+/* lua_newclassmetatable() */
+static int newclassmetatable_protected (lua_State *L) {
+	/* Copy the Java object metatable, including its marker. */
+	lua_newtable(L);
+	lua_rawgetp(L, LUA_REGISTRYINDEX, &objectkey);
+	lua_pushnil(L);
+	while (lua_next(L, -2)) {
+		lua_pushvalue(L, -2);
+		lua_insert(L, -2);
+		lua_rawset(L, -5);
+	}
+	
+	/* Resolve methods in Lua, and other keys by the Java object __index metamethod. */
+	lua_pushvalue(L, 1);
+	lua_getfield(L, -2, "__index");
+	lua_pushcclosure(L, classindex, 2);
+	lua_setfield(L, -3, "__index");
+	lua_pop(L, 1);
+	lua_pushinteger(L, luaL_ref(L, LUA_REGISTRYINDEX));
+	return 1;
+}
+JNIEXPORT jint JNICALL JNI_LUASTATE_METHOD(lua_1newclassmetatable) (JNIEnv *env, jobject obj) {
+	lua_State *L;
+	jint newclassmetatable_result = 0;
+	
+	JNLUA_ENV(env);
+	L = getluathread(obj);
+	if (checkstack(L, JNLUA_MINSTACK)
+			&& checktype(L, -1, LUA_TTABLE)) {
+		lua_pushcfunction(L, newclassmetatable_protected);
+		lua_insert(L, -2);
 		JNLUA_PCALL(L, 1, 1);
+		newclassmetatable_result = (jint) lua_tointeger(L, -1);
+		lua_pop(L, 1);
 	}
+	return newclassmetatable_result;
 }
 
 /* lua_pushnil() */
@@ -796,10 +1436,6 @@ JNIEXPORT jboolean JNICALL JNI_LUASTATE_METHOD(lua_1isjavafunction) (JNIEnv *env
 }
 
 /* lua_isjavaobject() */
-static int isjavaobject_protected (lua_State *L) {
-	lua_pushboolean(L, tojavaobject(L, 1, NULL) != NULL);
-	return 1;
-}
 JNIEXPORT jboolean JNICALL JNI_LUASTATE_METHOD(lua_1isjavaobject) (JNIEnv *env, jobject obj, jint index) {
 	lua_State *L;
 	jboolean isjavaobject_result = 0;
@@ -810,12 +1446,7 @@ JNIEXPORT jboolean JNICALL JNI_LUASTATE_METHOD(lua_1isjavaobject) (JNIEnv *env,
 		return 0;
 	}
 	if (checkstack(L, JNLUA_MINSTACK)) {
-		index = lua_absindex(L, index);
-		lua_pushcfunction(L, isjavaobject_protected);
-		lua_pushvalue(L, index);
-		JNLUA_PCALL(L, 1, 1);
-		isjavaobject_result = (jboolean) (lua_toboolean(L, -1) ? 1 : 0);
-		lua_pop(L, 1);
+		isjavaobject_result = (jboolean) (tojavaobject(L, index, NULL) != NULL ? 1 : 0);
 	}
 	return isjavaobject_result;
 }
@@ -917,6 +1548,11 @@ JNIEXPORT jint JNICALL JNI_LUASTATE_METHOD(lua_1compare) (JNIEnv *env, jobject o
 	if (!validindex(L, index1) || !validindex(L, index2)) {
 		return (jint) 0;
 	}
+	if ((lua_type(L, index1) == LUA_TNUMBER && lua_type(L, index2) == LUA_TNUMBER)
+			|| (lua_type(L, index1) == LUA_TSTRING && lua_type(L, index2) == LUA_TSTRING)) {
+		/* No metamethods and no allocation; the comparison cannot raise errors */
+		return (jint) lua_compare(L, index1, index2, op);
+	}
 	if (checkstack(L, JNLUA_MINSTACK)) {
 		index1 = lua_absindex(L, index1);
 		index2 = lua_absindex(L, index2);
@@ -976,6 +1612,32 @@ static int tobytearray_protected (lua_State *L) {
 	lua_pushunsigned(L, tobytearray_length);
 	return 2;
 }
+/*
+ * Returns the bytes of a string or number value, or NULL if the value is neither.
+ * Only numbers need to be converted in protected mode. On error, a Java exception
+ * is pending and NULL is returned.
+ */
+static const char *tobytearray (lua_State *L, int index, size_t *length) {
+	const char *tobytearray_result = NULL;
+	
+	switch (lua_type(L, index)) {
+	case LUA_TSTRING:
+		return lua_tolstring(L, index, length);
+	case LUA_TNUMBER:
+		index = lua_absindex(L, index);
+		lua_pushcfunction(L, tobytearray_protected);
+		lua_pushvalue(L, index);
+		JNLUA_PCALL(L, 1, 2);
+		if (!(*thread_env)->ExceptionCheck(thread_env)) {
+			tobytearray_result = (const char*)lua_touserdata(L, -2);
+			*length = lua_tounsigned(L, -1);
+			lua_pop(L, 2);
+		}
+		return tobytearray_result;
+	default:
+		return NULL;
+	}
+}
 JNIEXPORT jbyteArray JNICALL JNI_LUASTATE_METHOD(lua_1tobytearray) (JNIEnv *env, jobject obj, jint index) {
 	lua_State *L;
 	jbyteArray ba;
@@ -987,13 +1649,7 @@ JNIEXPORT jbyteArray JNICALL JNI_LUASTATE_METHOD(lua_1tobytearray) (JNIEnv *env,
 	L = getluathread(obj);
 	if (checkstack(L, JNLUA_MINSTACK)
 			&& checkindex(L, index)) {
-		index = lua_absindex(L, index);
-		lua_pushcfunction(L, tobytearray_protected);
-		lua_pushvalue(L, index);
-		JNLUA_PCALL(L, 1, 2);
-		tobytearray_result = (const char*)lua_touserdata(L, -2);
-		tobytearray_length = lua_tounsigned(L, -1);
-		lua_pop(L, 2);
+		tobytearray_result = tobytearray(L, index, &tobytearray_length);
 	}
 	if (!tobytearray_result) {
 		return NULL;
@@ -1011,6 +1667,31 @@ JNIEXPORT jbyteArray JNICALL JNI_LUASTATE_METHOD(lua_1tobytearray) (JNIEnv *env,
 	return ba;
 }
 
+/* lua_tobuffer() */
+JNIEXPORT jint JNICALL JNI_LUASTATE_METHOD(lua_1tobuffer) (JNIEnv *env, jobject obj, jint index, jobject buffer, jint position, jint capacity) {
+	lua_State *L;
+	char *tobuffer_b = NULL;
+	size_t tobuffer_length = 0;
+	const char *tobuffer_result = NULL;
+
+	JNLUA_ENV(env);
+	L = getluathread(obj);
+	if (checkstack(L, JNLUA_MINSTACK)
+			&& checkindex(L, index)
+			&& checknotnull(buffer)
+			&& checkarg((tobuffer_b = (char*)(*env)->GetDirectBufferAddress(env, buffer)) != NULL, "illegal buffer")
+			&& checkarg(position >= 0 && capacity >= 0 && (jlong)position + capacity <= (*env)->GetDirectBufferCapacity(env, buffer), "illegal range")) {
+		tobuffer_result = tobytearray(L, index, &tobuffer_length);
+	}
+	if (!tobuffer_result) {
+		return -1;
+	}
+	if (tobuffer_length <= (size_t)capacity) {
+		memcpy(tobuffer_b + position, tobuffer_result, tobuffer_length);
+	}
+	return (jint)tobuffer_length;
+}
+
 /* lua_tointeger() */
 JNIEXPORT jlong JNICALL JNI_LUASTATE_METHOD(lua_1tointeger) (JNIEnv *env, jobject obj, jint index) {
 	lua_State *L;
@@ -1039,15 +1720,6 @@ JNIEXPORT jobject JNICALL JNI_LUASTATE_METHOD(lua_1tointegerx) (JNIEnv *env, job
 }
 
 /* lua_tojavafunction() */
-static int tojavafunction_protected (lua_State *L) {
-	if (lua_tocfunction(L, 1) == calljavafunction) {
-		if (lua_getupvalue(L, 1, 1)) {
-			lua_pushlightuserdata(L, (void*)tojavaobject(L, -1, javafunction_interface));
-			return 1;
-		}
-	}
-	return 0;
-}
 JNIEXPORT jobject JNICALL JNI_LUASTATE_METHOD(lua_1tojavafunction) (JNIEnv *env, jobject obj, jint index) {
 	lua_State *L;
 	jobject tojavafunction_result = NULL;
@@ -1056,21 +1728,16 @@ JNIEXPORT jobject JNICALL JNI_LUASTATE_METHOD(lua_1tojavafunction) (JNIEnv *env,
 	L = getluathread(obj);
 	if (checkstack(L, JNLUA_MINSTACK)
 			&& checkindex(L, index)) {
-		index = lua_absindex(L, index);
-		lua_pushcfunction(L, tojavafunction_protected);
-		lua_pushvalue(L, index);
-		JNLUA_PCALL(L, 1, 1);
-		tojavafunction_result = (jobject)lua_touserdata(L, -1);
-		lua_pop(L, 1);
+		if (lua_tocfunction(L, index) == calljavafunction
+				&& lua_getupvalue(L, index, 1)) {
+			tojavafunction_result = tojavaobject(L, -1, javafunction_interface);
+			lua_pop(L, 1);
+		}
 	}
 	return tojavafunction_result;
 }
 
 /* lua_tojavaobject() */
-static int tojavaobject_protected (lua_State *L) {
-	lua_pushlightuserdata(L, (void*)tojavaobject(L, 1, NULL));
-	return 1;
-}
 JNIEXPORT jobject JNICALL JNI_LUASTATE_METHOD(lua_1tojavaobject) (JNIEnv *env, jobject obj, jint index) {
 	lua_State *L;
 	jobject tojavaobject_result = NULL;
@@ -1079,12 +1746,7 @@ JNIEXPORT jobject JNICALL JNI_LUASTATE_METHOD(lua_1tojavaobject) (JNIEnv *env, j
 	L = getluathread(obj);
 	if (checkstack(L, JNLUA_MINSTACK)
 			&& checkindex(L, index)) {
-		index = lua_absindex(L, index);
-		lua_pushcfunction(L, tojavaobject_protected);
-		lua_pushvalue(L, index);
-		JNLUA_PCALL(L, 1, 1);
-		tojavaobject_result = (jobject)lua_touserdata(L, -1);
-		lua_pop(L, 1);
+		tojavaobject_result = tojavaobject(L, index, NULL);
 	}
 	return tojavaobject_result;
 }
@@ -1141,6 +1803,40 @@ JNIEXPORT jint JNICALL JNI_LUASTATE_METHOD(lua_1type) (JNIEnv *env, jobject obj,
 	return (jint) lua_type(L, index);
 }
 
+/* lua_types() */
+JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1types) (JNIEnv *env, jobject obj, jint from, jint to, jintArray types) {
+	lua_State *L;
+	jint *types_b;
+	jsize i, n;
+	int index, type;
+	
+	JNLUA_ENV(env);
+	L = getluathread(obj);
+	if (!checknotnull(types)
+			|| !checkarg(to < from || (jlong) to - from < (*env)->GetArrayLength(env, types), "array too short")
+			|| !checkstack(L, JNLUA_MINSTACK)
+			|| to < from) {
+		return;
+	}
+	
+	/* The loop neither calls back into Java nor allocates. */
+	types_b = (*env)->GetPrimitiveArrayCritical(env, types, NULL);
+	if (!types_b) {
+		return;
+	}
+	n = (jsize) ((jlong) to - from + 1);
+	for (i = 0; i < n; i++) {
+		index = from + i;
+		type = validindex(L, index) ? lua_type(L, index) : LUA_TNONE;
+		if ((type == LUA_TFUNCTION && lua_tocfunction(L, index) == calljavafunction)
+				|| (type == LUA_TUSERDATA && isjavaobject(L, index))) {
+			type |= JNLUA_JAVATYPE;
+		}
+		types_b[i] = type;
+	}
+	(*env)->ReleasePrimitiveArrayCritical(env, types, types_b, 0);
+}
+
 /* ---- Stack operations ---- */
 /* lua_absindex() */
 JNIEXPORT jint JNICALL JNI_LUASTATE_METHOD(lua_1absindex) (JNIEnv *env, jobject obj, jint index) {
@@ -1231,6 +1927,11 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1len) (JNIEnv *env, jobject obj,
 	L = getluathread(obj);
 	if (checkstack(L, JNLUA_MINSTACK)
 			&& checkindex(L, index)) {
+		if (lua_type(L, index) == LUA_TSTRING || israwtable(L, index)) {
+			/* No metamethods; the length operation cannot raise errors */
+			lua_len(L, index);
+			return;
+		}
 		index = lua_absindex(L, index);
 		lua_pushcfunction(L, len_protected);
 		lua_pushvalue(L, index);
@@ -1394,6 +2095,10 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1gettable) (JNIEnv *env, jobject
 	L = getluathread(obj);
 	if (checkstack(L, JNLUA_MINSTACK)
 			&& checktype(L, index, LUA_TTABLE)) {
+		if (israwtable(L, index)) {
+			lua_rawget(L, index);
+			return;
+		}
 		index = lua_absindex(L, index);
 		lua_pushcfunction(L, gettable_protected);
 		lua_insert(L, -2);
@@ -1788,17 +2493,6 @@ JNIEXPORT jint JNICALL JNI_LUASTATE_METHOD(lua_1getinfo) (JNIEnv *env, jobject o
 
 /* ---- Optimization ---- */
 /* lua_tablesize() */
-static int tablesize_protected (lua_State *L) {
-	int count = 0;
-	
-	lua_pushnil(L);
-	while (lua_next(L, -2)) {
-		lua_pop(L, 1);
-		count++;
-	}
-	lua_pushinteger(L, count);
-	return 1;
-}
 JNIEXPORT jint JNICALL JNI_LUASTATE_METHOD(lua_1tablesize) (JNIEnv *env, jobject obj, jint index) {
 	lua_State *L;
 	jint tablesize_result = 0;
@@ -1807,12 +2501,13 @@ JNIEXPORT jint JNICALL JNI_LUASTATE_METHOD(lua_1tablesize) (JNIEnv *env, jobject
 	L = getluathread(obj);
 	if (checkstack(L, JNLUA_MINSTACK)
 			&& checktype(L, index, LUA_TTABLE)) {
+		/* A traversal from nil with unmodified keys cannot raise errors */
 		index = lua_absindex(L, index);
-		lua_pushcfunction(L, tablesize_protected);
-		lua_pushvalue(L, index);
-		JNLUA_PCALL(L, 1, 1);
-		tablesize_result = (jint)lua_tointeger(L, -1);
-		lua_pop(L, 1);
+		lua_pushnil(L);
+		while (lua_next(L, index)) {
+			lua_pop(L, 1);
+			tablesize_result++;
+		}
 	}
 	return tablesize_result;
 }
@@ -1853,15 +2548,368 @@ JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(lua_1tablemove) (JNIEnv *env, jobject
 	}
 }
 
-/* ---- Debug structure ---- */
-/* lua_debugfree() */
-JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(00024LuaDebug_lua_1debugfree) (JNIEnv *env, jobject obj) {
-	lua_Debug *ar;
+/* lua_batch() */
+static jint batchint (const char *p) {
+	jint i;
+	
+	memcpy(&i, p, sizeof(jint));
+	return i;
+}
+static jlong batchlong (const char *p) {
+	jlong l;
 	
+	memcpy(&l, p, sizeof(jlong));
+	return l;
+}
+static jdouble batchdouble (const char *p) {
+	jdouble d;
+	
+	memcpy(&d, p, sizeof(jdouble));
+	return d;
+}
+static int batchgetfield_protected (lua_State *L) {
+	lua_pushlstring(L, (const char*)lua_touserdata(L, 2), (size_t)lua_tointeger(L, 3));
+	lua_gettable(L, 1);
+	return 1;
+}
+static int batchsetfield_protected (lua_State *L) {
+	lua_pushlstring(L, (const char*)lua_touserdata(L, 3), (size_t)lua_tointeger(L, 4));
+	lua_pushvalue(L, 1);
+	lua_settable(L, 2);
+	return 0;
+}
+JNIEXPORT jlong JNICALL JNI_LUASTATE_METHOD(lua_1batch) (JNIEnv *env, jobject obj, jobject program, jint position, jint limit, jobject results, jint result_position) {
+	lua_State *L;
+	const char *code;
+	char *out;
+	jlong out_capacity, l;
+	jdouble d;
+	jint op_position, index, n, nresults, length;
+	size_t tostring_length;
+	const char *tostring_result;
+	int global, status;
+
 	JNLUA_ENV(env);
-	ar = getluadebug(obj);
-	setluadebug(obj, NULL);
-	free(ar);
+	L = getluathread(obj);
+	code = (const char*)(*env)->GetDirectBufferAddress(env, program);
+	out = (char*)(*env)->GetDirectBufferAddress(env, results);
+	out_capacity = (*env)->GetDirectBufferCapacity(env, results);
+	if (!checkarg(code != NULL && out != NULL, "illegal buffer")) {
+		return 0;
+	}
+	while (position < limit) {
+		op_position = position;
+		if (out_capacity - result_position < (jlong)(1 + sizeof(jlong))) {
+			/* Possibly no room for a result; let the caller grow the buffer */
+			switch (code[op_position]) {
+			case JNLUA_BATCH_GETTOP:
+			case JNLUA_BATCH_TYPE:
+			case JNLUA_BATCH_TOBOOLEAN:
+			case JNLUA_BATCH_TOINTEGER:
+			case JNLUA_BATCH_TONUMBER:
+			case JNLUA_BATCH_TOSTRING:
+				return ((jlong)op_position << 32) | result_position;
+			}
+		}
+		switch (code[position++]) {
+		case JNLUA_BATCH_PUSHNIL:
+			if (checkstack(L, JNLUA_MINSTACK)) {
+				lua_pushnil(L);
+			}
+			break;
+		case JNLUA_BATCH_PUSHBOOLEAN:
+			if (checkstack(L, JNLUA_MINSTACK)) {
+				lua_pushboolean(L, code[position]);
+			}
+			position += 1;
+			break;
+		case JNLUA_BATCH_PUSHINTEGER:
+			if (checkstack(L, JNLUA_MINSTACK)) {
+				lua_pushinteger(L, (lua_Integer)batchlong(code + position));
+			}
+			position += sizeof(jlong);
+			break;
+		case JNLUA_BATCH_PUSHNUMBER:
+			if (checkstack(L, JNLUA_MINSTACK)) {
+				lua_pushnumber(L, batchdouble(code + position));
+			}
+			position += sizeof(jdouble);
+			break;
+		case JNLUA_BATCH_PUSHSTRING:
+			length = batchint(code + position);
+			position += sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)) {
+				lua_pushcfunction(L, pushbytearray_protected);
+				lua_pushlightuserdata(L, (void*)(code + position));
+				lua_pushunsigned(L, length);
+				JNLUA_PCALL(L, 2, 1);
+			}
+			position += length;
+			break;
+		case JNLUA_BATCH_PUSHVALUE:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)
+					&& checkindex(L, index)) {
+				lua_pushvalue(L, index);
+			}
+			break;
+		case JNLUA_BATCH_POP:
+			n = batchint(code + position);
+			position += sizeof(jint);
+			if (checkarg(n >= 0 && n <= lua_gettop(L), "illegal count")) {
+				lua_pop(L, n);
+			}
+			break;
+		case JNLUA_BATCH_SETTOP:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			if ((index >= 0 && (index <= lua_gettop(L) || checkstack(L, index - lua_gettop(L))))
+					|| (index < 0 && checkrealindex(L, index))) {
+				lua_settop(L, index);
+			}
+			break;
+		case JNLUA_BATCH_NEWTABLE:
+			n = batchint(code + position);
+			nresults = batchint(code + position + sizeof(jint));
+			position += 2 * sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)
+					&& checkarg(n >= 0, "illegal array count")
+					&& checkarg(nresults >= 0, "illegal record count")) {
+				lua_pushcfunction(L, createtable_protected);
+				lua_pushinteger(L, n);
+				lua_pushinteger(L, nresults);
+				JNLUA_PCALL(L, 2, 1);
+			}
+			break;
+		case JNLUA_BATCH_GETGLOBAL:
+		case JNLUA_BATCH_GETFIELD:
+			global = code[op_position] == JNLUA_BATCH_GETGLOBAL;
+			if (!global) {
+				index = batchint(code + position);
+				position += sizeof(jint);
+			}
+			length = batchint(code + position);
+			position += sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)
+					&& (global || checktype(L, index, LUA_TTABLE))) {
+				if (!global) {
+					index = lua_absindex(L, index);
+				}
+				lua_pushcfunction(L, batchgetfield_protected);
+				if (global) {
+					lua_rawgeti(L, LUA_REGISTRYINDEX, LUA_RIDX_GLOBALS);
+				} else {
+					lua_pushvalue(L, index);
+				}
+				lua_pushlightuserdata(L, (void*)(code + position));
+				lua_pushinteger(L, length);
+				JNLUA_PCALL(L, 3, 1);
+			}
+			position += length;
+			break;
+		case JNLUA_BATCH_SETGLOBAL:
+		case JNLUA_BATCH_SETFIELD:
+			global = code[op_position] == JNLUA_BATCH_SETGLOBAL;
+			if (!global) {
+				index = batchint(code + position);
+				position += sizeof(jint);
+			}
+			length = batchint(code + position);
+			position += sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)
+					&& (global || checktype(L, index, LUA_TTABLE))
+					&& checknelems(L, 1)) {
+				if (!global) {
+					index = lua_absindex(L, index);
+				}
+				lua_pushcfunction(L, batchsetfield_protected);
+				lua_insert(L, -2);
+				if (global) {
+					lua_rawgeti(L, LUA_REGISTRYINDEX, LUA_RIDX_GLOBALS);
+				} else {
+					lua_pushvalue(L, index);
+				}
+				lua_pushlightuserdata(L, (void*)(code + position));
+				lua_pushinteger(L, length);
+				JNLUA_PCALL(L, 4, 0);
+			}
+			position += length;
+			break;
+		case JNLUA_BATCH_GETTABLE:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)
+					&& checktype(L, index, LUA_TTABLE)
+					&& checknelems(L, 1)) {
+				if (israwtable(L, index)) {
+					lua_rawget(L, index);
+					break;
+				}
+				index = lua_absindex(L, index);
+				lua_pushcfunction(L, gettable_protected);
+				lua_insert(L, -2);
+				lua_pushvalue(L, index);
+				lua_insert(L, -2);
+				JNLUA_PCALL(L, 2, 1);
+			}
+			break;
+		case JNLUA_BATCH_SETTABLE:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)
+					&& checktype(L, index, LUA_TTABLE)
+					&& checknelems(L, 2)) {
+				index = lua_absindex(L, index);
+				lua_pushcfunction(L, settable_protected);
+				lua_insert(L, -3);
+				lua_pushvalue(L, index);
+				lua_insert(L, -3);
+				JNLUA_PCALL(L, 3, 0);
+			}
+			break;
+		case JNLUA_BATCH_RAWGET:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			if (checktype(L, index, LUA_TTABLE)
+					&& checknelems(L, 1)) {
+				lua_rawget(L, index);
+			}
+			break;
+		case JNLUA_BATCH_RAWGETI:
+			index = batchint(code + position);
+			n = batchint(code + position + sizeof(jint));
+			position += 2 * sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)
+					&& checktype(L, index, LUA_TTABLE)) {
+				lua_rawgeti(L, index, n);
+			}
+			break;
+		case JNLUA_BATCH_RAWSET:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)
+					&& checktype(L, index, LUA_TTABLE)
+					&& checknelems(L, 2)) {
+				index = lua_absindex(L, index);
+				lua_pushcfunction(L, rawset_protected);
+				lua_insert(L, -3);
+				lua_pushvalue(L, index);
+				lua_insert(L, -3);
+				JNLUA_PCALL(L, 3, 0);
+			}
+			break;
+		case JNLUA_BATCH_RAWSETI:
+			index = batchint(code + position);
+			n = batchint(code + position + sizeof(jint));
+			position += 2 * sizeof(jint);
+			if (checkstack(L, JNLUA_MINSTACK)
+					&& checktype(L, index, LUA_TTABLE)
+					&& checknelems(L, 1)) {
+				index = lua_absindex(L, index);
+				lua_pushcfunction(L, rawseti_protected);
+				lua_insert(L, -2);
+				lua_pushinteger(L, n);
+				lua_insert(L, -2);
+				lua_pushvalue(L, index);
+				lua_insert(L, -2);
+				JNLUA_PCALL(L, 3, 0);
+			}
+			break;
+		case JNLUA_BATCH_CALL:
+			n = batchint(code + position);
+			nresults = batchint(code + position + sizeof(jint));
+			position += 2 * sizeof(jint);
+			if (checkarg(n >= 0, "illegal argument count")
+					&& checknelems(L, n + 1)
+					&& checkarg(nresults >= 0 || nresults == LUA_MULTRET, "illegal return count")
+					&& (nresults == LUA_MULTRET || checkstack(L, nresults - (n + 1)))) {
+				index = lua_absindex(L, -n - 1);
+				lua_pushcfunction(L, messagehandler);
+				lua_insert(L, index);
+				status = lua_pcall(L, n, nresults, index);
+				lua_remove(L, index);
+				if (status != LUA_OK) {
+					throw(L, status);
+				}
+			}
+			break;
+		case JNLUA_BATCH_GETTOP:
+			out[result_position++] = JNLUA_BATCH_RESULTINTEGER;
+			l = (jlong)lua_gettop(L);
+			memcpy(out + result_position, &l, sizeof(jlong));
+			result_position += sizeof(jlong);
+			break;
+		case JNLUA_BATCH_TYPE:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			out[result_position++] = JNLUA_BATCH_RESULTINTEGER;
+			l = validindex(L, index) ? (jlong)lua_type(L, index) : (jlong)LUA_TNONE;
+			memcpy(out + result_position, &l, sizeof(jlong));
+			result_position += sizeof(jlong);
+			break;
+		case JNLUA_BATCH_TOBOOLEAN:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			out[result_position++] = JNLUA_BATCH_RESULTBOOLEAN;
+			out[result_position++] = validindex(L, index) ? (char)lua_toboolean(L, index) : 0;
+			break;
+		case JNLUA_BATCH_TOINTEGER:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			out[result_position++] = JNLUA_BATCH_RESULTINTEGER;
+			l = validindex(L, index) ? (jlong)lua_tointeger(L, index) : 0;
+			memcpy(out + result_position, &l, sizeof(jlong));
+			result_position += sizeof(jlong);
+			break;
+		case JNLUA_BATCH_TONUMBER:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			out[result_position++] = JNLUA_BATCH_RESULTNUMBER;
+			d = validindex(L, index) ? (jdouble)lua_tonumber(L, index) : 0.0;
+			memcpy(out + result_position, &d, sizeof(jdouble));
+			result_position += sizeof(jdouble);
+			break;
+		case JNLUA_BATCH_TOSTRING:
+			index = batchint(code + position);
+			position += sizeof(jint);
+			if (!checkstack(L, JNLUA_MINSTACK)
+					|| !checkindex(L, index)) {
+				break;
+			}
+			tostring_result = tobytearray(L, index, &tostring_length);
+			if ((*env)->ExceptionCheck(env)) {
+				break;
+			}
+			if (!tostring_result) {
+				out[result_position++] = JNLUA_BATCH_RESULTNIL;
+				break;
+			}
+			if ((size_t)(out_capacity - result_position) < 1 + sizeof(jint) + tostring_length) {
+				return ((jlong)op_position << 32) | result_position;
+			}
+			out[result_position++] = JNLUA_BATCH_RESULTSTRING;
+			length = (jint)tostring_length;
+			memcpy(out + result_position, &length, sizeof(jint));
+			result_position += sizeof(jint);
+			memcpy(out + result_position, tostring_result, tostring_length);
+			result_position += length;
+			break;
+		default:
+			checkarg(0, "illegal batch operation");
+			break;
+		}
+		if ((*env)->ExceptionCheck(env)) {
+			return 0;
+		}
+	}
+	return ((jlong)position << 32) | result_position;
+}
+
+/* ---- Debug structure ---- */
+/* lua_debugfree() */
+JNIEXPORT void JNICALL JNI_LUASTATE_METHOD(00024LuaDebug_lua_1debugfree) (JNIEnv *env, jclass cls, jlong luaDebug) {
+	free((lua_Debug *) (uintptr_t) luaDebug);
 }
 
 /* lua_debugname() */
@@ -1897,8 +2945,9 @@ JNIEXPORT jint JNICALL JNI_OnLoad (JavaVM *vm, void *reserved) {
 			|| !(luastate_id = (*env)->GetFieldID(env, luastate_class, "luaState", "J"))
 			|| !(luathread_id = (*env)->GetFieldID(env, luastate_class, "luaThread", "J"))
 			|| !(luamemorytotal_id = (*env)->GetFieldID(env, luastate_class, "luaMemoryTotal", "I"))
-			|| !(luamemoryused_id = (*env)->GetFieldID(env, luastate_class, "luaMemoryUsed", "I"))
-			|| !(yield_id = (*env)->GetFieldID(env, luastate_class, "yield", "Z"))) {
+			|| !(luaallocator_id = (*env)->GetFieldID(env, luastate_class, "luaAllocator", "I"))
+			|| !(yield_id = (*env)->GetFieldID(env, luastate_class, "yield", "Z"))
+			|| !(stacktracedepth_id = (*env)->GetFieldID(env, luastate_class, "stackTraceDepth", "I"))) {
 		return JNLUA_JNIVERSION;
 	}
 	if (!(luadebug_class = referenceclass(env, "org/terasology/jnlua/LuaState$LuaDebug"))
@@ -1932,13 +2981,9 @@ JNIEXPORT jint JNICALL JNI_OnLoad (JavaVM *vm, void *reserved) {
 			|| !(luamessagehandlerexception_id = (*env)->GetMethodID(env, luamessagehandlerexception_class, "<init>", "(Ljava/lang/String;)V"))) {
 		return JNLUA_JNIVERSION;
 	}
-	if (!(luastacktraceelement_class = referenceclass(env, "org/terasology/jnlua/LuaStackTraceElement"))
-			|| !(luastacktraceelement_id = (*env)->GetMethodID(env, luastacktraceelement_class, "<init>", "(Ljava/lang/String;Ljava/lang/String;I)V"))) {
-		return JNLUA_JNIVERSION;
-	}
 	if (!(luaerror_class = referenceclass(env, "org/terasology/jnlua/LuaError"))
 			|| !(luaerror_id = (*env)->GetMethodID(env, luaerror_class, "<init>", "(Ljava/lang/String;Ljava/lang/Throwable;)V"))
-			|| !(setluastacktrace_id = (*env)->GetMethodID(env, luaerror_class, "setLuaStackTrace", "([Lorg/terasology/jnlua/LuaStackTraceElement;)V"))) {
+			|| !(setluastacktrace_id = (*env)->GetMethodID(env, luaerror_class, "setLuaStackTrace", "([B)V"))) {
 		return JNLUA_JNIVERSION;
 	}
 	if (!(nullpointerexception_class = referenceclass(env, "java/lang/NullPointerException"))) {
@@ -1972,6 +3017,13 @@ JNIEXPORT jint JNICALL JNI_OnLoad (JavaVM *vm, void *reserved) {
 	if (!(ioexception_class = referenceclass(env, "java/io/IOException"))) {
 		return JNLUA_JNIVERSION;
 	}
+	if (!(object_class = referenceclass(env, "java/lang/Object"))) {
+		return JNLUA_JNIVERSION;
+	}
+	if (!(arrays_class = referenceclass(env, "java/util/Arrays"))
+			|| !(copyof_id = (*env)->GetStaticMethodID(env, arrays_class, "copyOf", "([Ljava/lang/Object;I)[Ljava/lang/Object;"))) {
+		return JNLUA_JNIVERSION;
+	}
 
 	/* OK */
 	initialized = 1;
@@ -2009,9 +3061,6 @@ JNIEXPORT void JNICALL JNI_OnUnload (JavaVM *vm, void *reserved) {
 	if (luamessagehandlerexception_class) {
 		(*env)->DeleteGlobalRef(env, luamessagehandlerexception_class);
 	}
-	if (luastacktraceelement_class) {
-		(*env)->DeleteGlobalRef(env, luastacktraceelement_class);
-	}
 	if (luaerror_class) {
 		(*env)->DeleteGlobalRef(env, luaerror_class);
 	}
@@ -2042,6 +3091,12 @@ JNIEXPORT void JNICALL JNI_OnUnload (JavaVM *vm, void *reserved) {
 	if (ioexception_class) {
 		(*env)->DeleteGlobalRef(env, ioexception_class);
 	}
+	if (object_class) {
+		(*env)->DeleteGlobalRef(env, object_class);
+	}
+	if (arrays_class) {
+		(*env)->DeleteGlobalRef(env, arrays_class);
+	}
 }
 
 /* ---- JNI helpers ---- */
@@ -2107,14 +3162,18 @@ static void setluathread (jobject javastate, lua_State *L) {
 	(*thread_env)->SetLongField(thread_env, javastate, luathread_id, (jlong) (uintptr_t) L);
 }
 
-/* Gets the amount of ram available and used for and by the current Lua state. */
-static void getluamemory (jobject obj, jint *total, jint *used) {
-	*total = (*thread_env)->GetIntField(thread_env, obj, luamemorytotal_id);
-	*used = (*thread_env)->GetIntField(thread_env, obj, luamemoryused_id);
+/* Gets the amount of ram available for a new Lua state. */
+static jint getluamemorytotal (jobject obj) {
+	return (*thread_env)->GetIntField(thread_env, obj, luamemorytotal_id);
+}
+/* Gets the allocator for a new Lua state. */
+static jint getluaallocator (jobject obj) {
+	return (*thread_env)->GetIntField(thread_env, obj, luaallocator_id);
 }
-/* Sets the amount of ram used by the current Lua state (called by allocator). */
-static void setluamemoryused (jobject obj, jint used) {
-	(*thread_env)->SetIntField(thread_env, obj, luamemoryused_id, used);
+
+/* Returns the maximum stack trace depth from the Java state */
+static int getstacktracedepth (jobject javastate) {
+	return (int) (*thread_env)->GetIntField(thread_env, javastate, stacktracedepth_id);
 }
 
 /* Returns the yield flag from the Java state */
@@ -2132,11 +3191,6 @@ static lua_Debug *getluadebug (jobject javadebug) {
 	return (lua_Debug *) (uintptr_t) (*thread_env)->GetLongField(thread_env, javadebug, luadebug_field_id);
 }
 
-/* Sets the Lua debug structure in a Java debug object. */
-static void setluadebug (jobject javadebug, lua_Debug *ar) {
-	(*thread_env)->SetLongField(thread_env, javadebug, luadebug_field_id, (jlong) (uintptr_t) ar);
-}
-
 /* ---- Checks ---- */
 /* Returns whether an index is valid. */
 static int validindex (lua_State *L, int index) {
@@ -2158,6 +3212,21 @@ static int validindex (lua_State *L, int index) {
 	return index >= 1 && index <= top;
 }
 
+/*
+ * Returns whether a value is a table without a metatable. Such a table has no
+ * metamethods, and raw access has the same result as regular access.
+ */
+static int israwtable (lua_State *L, int index) {
+	if (!lua_istable(L, index)) {
+		return 0;
+	}
+	if (lua_getmetatable(L, index)) {
+		lua_pop(L, 1);
+		return 0;
+	}
+	return 1;
+}
+
 /* Checks stack space. */
 static int checkstack (lua_State *L, int space) {
 	return check(lua_checkstack(L, space), illegalstateexception_class, "stack overflow");
@@ -2218,9 +3287,29 @@ static int check (int cond, jthrowable throwable_class, const char *msg) {
 /* Pushes a Java object on the stack. */
 static void pushjavaobject (lua_State *L, jobject object) {
 	jobject *user_data;
+	JavaHandle *handle_data;
+	JavaState *S;
+	
+	/* Handle into the Java object table. */
+	S = getjavastatedata(L);
+	if (S && S->handles) {
+		handle_data = (JavaHandle *) lua_newuserdata(L, sizeof(JavaHandle));
+		lua_rawgetp(L, LUA_REGISTRYINDEX, &objectkey);
+		handle_data->unused = NULL;
+		handle_data->handle = -1;
+		if (!S->freecount && !growjavaobjects(S)) {
+			lua_pushliteral(L, "JNI error: failed to grow Java object table pushing Java object");
+			lua_error(L);
+		}
+		handle_data->handle = S->freeobjects[--S->freecount];
+		(*thread_env)->SetObjectArrayElement(thread_env, S->objects, handle_data->handle, object);
+		lua_setmetatable(L, -2);
+		return;
+	}
 	
+	/* Global reference. */
 	user_data = (jobject *) lua_newuserdata(L, sizeof(jobject));
-	luaL_getmetatable(L, JNLUA_OBJECT);
+	lua_rawgetp(L, LUA_REGISTRYINDEX, &objectkey);
 	*user_data = (*thread_env)->NewGlobalRef(thread_env, object);
 	if (!*user_data) {
 		lua_pushliteral(L, "JNI error: NewGlobalRef() failed pushing Java object");
@@ -2229,9 +3318,28 @@ static void pushjavaobject (lua_State *L, jobject object) {
 	lua_setmetatable(L, -2);
 }
 	
-/* Returns the Java object at the specified index, or NULL if such an object is unobtainable. */
-static jobject tojavaobject (lua_State *L, int index, jclass class) {
+/*
+ * Returns whether the value at the specified index is a Java object, without obtaining it.
+ * The function neither allocates nor raises errors, and can be called unprotected.
+ */
+static int isjavaobject (lua_State *L, int index) {
 	int result;
+	
+	if (!lua_isuserdata(L, index) || !lua_getmetatable(L, index)) {
+		return 0;
+	}
+	lua_rawgetp(L, -1, &objectkey);
+	result = lua_toboolean(L, -1);
+	lua_pop(L, 2);
+	return result;
+}
+
+/*
+ * Returns the Java object at the specified index, or NULL if such an object is unobtainable.
+ * The function neither allocates nor raises errors, and can be called unprotected.
+ */
+static jobject tojavaobject (lua_State *L, int index, jclass class) {
+	int result, handle;
 	jobject object;
 
 	if (!lua_isuserdata(L, index)) {
@@ -2240,20 +3348,69 @@ static jobject tojavaobject (lua_State *L, int index, jclass class) {
 	if (!lua_getmetatable(L, index)) {
 		return NULL;
 	}
-	luaL_getmetatable(L, JNLUA_OBJECT);
-	result = lua_rawequal(L, -1, -2);
+	lua_rawgetp(L, -1, &objectkey);
+	result = lua_toboolean(L, -1);
 	lua_pop(L, 2);
 	if (!result) {
 		return NULL;
 	}
-	object = *(jobject *) lua_touserdata(L, index);
+	handle = lua_rawlen(L, index) != sizeof(jobject);
+	if (!handle) {
+		object = *(jobject *) lua_touserdata(L, index);
+	} else {
+		/* Handle into the Java object table; this is a local reference. */
+		object = (*thread_env)->GetObjectArrayElement(thread_env, getjavastatedata(L)->objects,
+				((JavaHandle *) lua_touserdata(L, index))->handle);
+	}
 	if (class) {
 		if (!(*thread_env)->IsInstanceOf(thread_env, object, class)) {
+			if (handle) {
+				(*thread_env)->DeleteLocalRef(thread_env, object);
+			}
 			return NULL;
 		}
 	}
 	return object;
 }
+/* Grows the Java object table, adding free handles. */
+static int growjavaobjects (JavaState *S) {
+	jobjectArray objects;
+	jint *freeobjects;
+	jint count, i;
+	
+	count = S->objectcount ? S->objectcount * 2 : JNLUA_OBJECTS_CAPACITY;
+	freeobjects = realloc(S->freeobjects, count * sizeof(jint));
+	if (!freeobjects) {
+		return 0;
+	}
+	S->freeobjects = freeobjects;
+	if (S->objects) {
+		objects = (jobjectArray) (*thread_env)->CallStaticObjectMethod(thread_env, arrays_class, copyof_id, S->objects, count);
+	} else {
+		objects = (*thread_env)->NewObjectArray(thread_env, count, object_class, NULL);
+	}
+	if (!objects) {
+		(*thread_env)->ExceptionClear(thread_env);
+		return 0;
+	}
+	if (S->objects) {
+		(*thread_env)->DeleteGlobalRef(thread_env, S->objects);
+	}
+	S->objects = (jobjectArray) (*thread_env)->NewGlobalRef(thread_env, objects);
+	(*thread_env)->DeleteLocalRef(thread_env, objects);
+	if (!S->objects) {
+		S->objectcount = 0;
+		S->freecount = 0;
+		return 0;
+	}
+	
+	/* Hand out low handles first. */
+	for (i = count - 1; i >= S->objectcount; i--) {
+		S->freeobjects[S->freecount++] = i;
+	}
+	S->objectcount = count;
+	return 1;
+}
 
 /* Returns a Java string for a value on the stack. */
 static jstring tostring (lua_State *L, int index) {
@@ -2264,14 +3421,52 @@ static jstring tostring (lua_State *L, int index) {
 	return string;
 }
 
+/* Replaces the metatable of the Java object on the top of the stack with a class metatable. */
+static void setclassmetatable (lua_State *L, int metatable) {
+	if (metatable > 0) {
+		lua_rawgeti(L, LUA_REGISTRYINDEX, metatable);
+		lua_setmetatable(L, -2);
+	}
+}
+
+/*
+ * Indexes Java objects with a class metatable. Methods are resolved from the
+ * method table of the class; other keys are passed to the Java object __index
+ * metamethod.
+ */
+static int classindex (lua_State *L) {
+	lua_pushvalue(L, 2);
+	lua_rawget(L, lua_upvalueindex(1));
+	if (!lua_isnil(L, -1)) {
+		return 1;
+	}
+	lua_pop(L, 1);
+	lua_pushvalue(L, lua_upvalueindex(2));
+	lua_insert(L, 1);
+	lua_call(L, lua_gettop(L) - 1, 1);
+	return 1;
+}
+
 /* Finalizes Java objects. */
 static int gcjavaobject (lua_State *L) {
 	jobject obj;
+	JavaHandle *handle_data;
+	JavaState *S;
 
 	if (!thread_env) {
 		/* Environment has been cleared as the Java VM was destroyed. Nothing to do. */
 		return 0;
 	}
+	if (lua_rawlen(L, 1) != sizeof(jobject)) {
+		/* Handle into the Java object table. */
+		handle_data = (JavaHandle *) lua_touserdata(L, 1);
+		if (handle_data->handle >= 0) {
+			S = getjavastatedata(L);
+			(*thread_env)->SetObjectArrayElement(thread_env, S->objects, handle_data->handle, NULL);
+			S->freeobjects[S->freecount++] = handle_data->handle;
+		}
+		return 0;
+	}
 	obj = *(jobject *) lua_touserdata(L, 1);
 	if (lua_toboolean(L, lua_upvalueindex(1))) {
 		(*thread_env)->DeleteWeakGlobalRef(thread_env, obj);
@@ -2285,24 +3480,23 @@ static int gcjavaobject (lua_State *L) {
 static int calljavafunction (lua_State *L) {
 	jobject javastate, javafunction;
 	lua_State *T;
-	int nresults;
+	int nresults, handle;
 	jthrowable throwable;
 	jstring where;
 	jobject luaerror;
 	
 	/* Get Java state. */
-	lua_getfield(L, LUA_REGISTRYINDEX, JNLUA_JAVASTATE);
-	if (!lua_isuserdata(L, -1)) {
-		/* Java state has been cleared as the Java VM was destroyed. Cannot call. */
+	javastate = getjavastate(L);
+	if (!javastate) {
+		/* Java state has been cleared or collected. Cannot call. */
 		lua_pushliteral(L, "no Java state");
 		return lua_error(L);
 	}
-	javastate = *(jobject *) lua_touserdata(L, -1);
-	lua_pop(L, 1);
 	
 	/* Get Java function object. */
 	lua_pushvalue(L, lua_upvalueindex(1));
 	javafunction = tojavaobject(L, -1, javafunction_interface);
+	handle = lua_rawlen(L, -1) != sizeof(jobject);
 	lua_pop(L, 1);
 	if (!javafunction) {
 		/* Function was cleared from outside JNLua code. */
@@ -2320,6 +3514,10 @@ static int calljavafunction (lua_State *L) {
 		nresults = (*thread_env)->CallIntMethod(thread_env, javafunction, invoke_id, javastate);
 		setluathread(javastate, T);
 	}
+	if (handle) {
+		/* Release the local reference from the Java object table. */
+		(*thread_env)->DeleteLocalRef(thread_env, javafunction);
+	}
 	
 	/* Handle exception */
 	throwable = (*thread_env)->ExceptionOccurred(thread_env);
@@ -2357,49 +3555,44 @@ static int calljavafunction (lua_State *L) {
 
 /* Handles Lua errors. */
 static int messagehandler (lua_State *L) {
-	int level, count;
+	int level, count, depth;
 	lua_Debug ar;
-	jobjectArray luastacktrace;
-	jstring name, source;
-	jobject luastacktraceelement;
+	luaL_Buffer b;
+	const char *data;
+	size_t size;
+	jobject javastate;
+	jbyteArray luastacktrace;
 	jobject luaerror;
 	jstring message;
 
-	/* Count relevant stack frames */
+	/* Get the stack trace depth */
+	javastate = getjavastate(L);
+	depth = javastate ? getstacktracedepth(javastate) : INT_MAX;
+	
+	/*
+	 * Encode the relevant stack frames in a single walk. The Java side
+	 * creates the Lua stack trace elements if the stack trace is requested.
+	 */
+	luaL_buffinit(L, &b);
 	level = 1;
 	count = 0;
-	while (lua_getstack(L, level, &ar)) {
+	while (count < depth && lua_getstack(L, level, &ar)) {
 		lua_getinfo(L, "nSl", &ar);
 		if (isrelevant(&ar)) {
+			addframe(&b, &ar);
 			count++;
 		}
 		level++;
 	}
-	
-	/* Create Lua stack trace as a Java LuaStackTraceElement[] */
-	luastacktrace = (*thread_env)->NewObjectArray(thread_env, count, luastacktraceelement_class, NULL);
+	luaL_pushresult(&b);
+	data = lua_tolstring(L, -1, &size);
+	luastacktrace = newbytearray((jsize) size);
 	if (!luastacktrace) {
+		lua_pop(L, 1);
 		return 1;
 	}
-	level = 1;
-	count = 0;
-	while (lua_getstack(L, level, &ar)) {
-		lua_getinfo(L, "nSl", &ar);
-		if (isrelevant(&ar)) {
-			name = ar.name ? (*thread_env)->NewStringUTF(thread_env, ar.name) : NULL;
-			source = ar.source ? (*thread_env)->NewStringUTF(thread_env, ar.source) : NULL;
-			luastacktraceelement = (*thread_env)->NewObject(thread_env, luastacktraceelement_class,	luastacktraceelement_id, name, source, ar.currentline);
-			if (!luastacktraceelement) {
-				return 1;
-			}
-			(*thread_env)->SetObjectArrayElement(thread_env, luastacktrace, count, luastacktraceelement);
-			if ((*thread_env)->ExceptionCheck(thread_env)) {
-				return 1;
-			}
-			count++;
-		}
-		level++;
-	}
+	(*thread_env)->SetByteArrayRegion(thread_env, luastacktrace, 0, (jsize) size, (const jbyte *) data);
+	lua_pop(L, 1);
 	
 	/* Get or create the error object  */
 	luaerror = tojavaobject(L, -1, luaerror_class);
@@ -2432,6 +3625,23 @@ static int isrelevant (lua_Debug *ar) {
 	return ar->name || ar->source;
 }
 
+/* Adds a stack frame to an encoded Lua stack trace. */
+static void addframe (luaL_Buffer *b, lua_Debug *ar) {
+	jint line = (jint) ar->currentline;
+	luaL_addlstring(b, (const char *) &line, sizeof(jint));
+	addframestring(b, ar->name);
+	addframestring(b, ar->source);
+}
+
+/* Adds a length-prefixed string, or -1 for none, to an encoded Lua stack trace. */
+static void addframestring (luaL_Buffer *b, const char *s) {
+	jint length = s ? (jint) strlen(s) : -1;
+	luaL_addlstring(b, (const char *) &length, sizeof(jint));
+	if (s) {
+		luaL_addlstring(b, s, (size_t) length);
+	}
+}
+
 /* Handles Lua errors by throwing a Java exception. */
 static int throw_protected (lua_State *L) {
 	jclass class;
@@ -2532,6 +3742,31 @@ static const char *readhandler (lua_State *L, void *ud, size_t *size) {
 	return (const char *) stream->bytes;
 }
 
+/* Lua writer for native dump buffers, growing the buffer as needed. */
+static int bufferwritehandler (lua_State *L, const void *data, size_t size, void *ud) {
+	DumpBuffer *buffer;
+	size_t capacity;
+	char *newdata;
+
+	buffer = (DumpBuffer *) ud;
+	if (buffer->size + size > buffer->capacity) {
+		capacity = buffer->capacity ? buffer->capacity : 1024;
+		while (capacity < buffer->size + size) {
+			capacity *= 2;
+		}
+		newdata = realloc(buffer->data, capacity);
+		if (!newdata) {
+			buffer->failed = 1;
+			return 1;
+		}
+		buffer->data = newdata;
+		buffer->capacity = capacity;
+	}
+	memcpy(buffer->data + buffer->size, data, size);
+	buffer->size += size;
+	return 0;
+}
+
 /* Lua writer for Java output streams. */
 static int writehandler (lua_State *L, const void *data, size_t size, void *ud) {
 	Stream *stream;
@@ -43,6 +43,30 @@ public interface Converter {
 	 */
 	public int getTypeDistance(LuaState luaState, int index, Class<?> formalType);
 
+	/**
+	 * Returns the type distance between a Lua value of a known type code and a
+	 * formal Java type. The type code has been obtained by means of
+	 * {@link LuaState#types(int, int, int[])}, which saves implementations
+	 * from inspecting the value again. The default implementation ignores
+	 * the type code.
+	 * 
+	 * @param luaState
+	 *            the Lua state
+	 * @param index
+	 *            the stack index containing the value
+	 * @param typeCode
+	 *            the type code of the value
+	 * @param formalType
+	 *            the formal Java type
+	 * @return the type distance, or <code>Integer.MAX_VALUE</code> if the
+	 *         conversion is not supported
+	 * @since JNLua 1.1.0
+	 */
+	default int getTypeDistance(LuaState luaState, int index, int typeCode,
+			Class<?> formalType) {
+		return getTypeDistance(luaState, index, formalType);
+	}
+
 	/**
 	 * Converts a Lua value to a Java object of the specified formal type.
 	 * 
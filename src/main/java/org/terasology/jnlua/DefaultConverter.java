@@ -229,8 +229,20 @@ public class DefaultConverter implements Converter {
 	// -- Java converter methods
 	@Override
 	public int getTypeDistance(LuaState luaState, int index, Class<?> formalType) {
+		int[] typeCode = luaState.acquireTypes(1);
+		try {
+			luaState.types(index, index, typeCode);
+			return getTypeDistance(luaState, index, typeCode[0], formalType);
+		} finally {
+			luaState.releaseTypes(typeCode);
+		}
+	}
+
+	@Override
+	public int getTypeDistance(LuaState luaState, int index, int typeCode,
+			Class<?> formalType) {
 		// Handle none
-		LuaType luaType = luaState.type(index);
+		LuaType luaType = LuaType.fromTypeCode(typeCode);
 		if (luaType == null) {
 			return Integer.MAX_VALUE;
 		}
@@ -277,7 +289,7 @@ public class DefaultConverter implements Converter {
 			}
 			break;
 		case FUNCTION:
-			if (luaState.isJavaFunction(index)) {
+			if ((typeCode & LuaState.JAVA_TYPE_FLAG) != 0) {
 				distance = FUNCTION_DISTANCE_MAP.get(formalType);
 				if (distance != null) {
 					return distance.intValue();
@@ -285,7 +297,8 @@ public class DefaultConverter implements Converter {
 			}
 			break;
 		case USERDATA:
-			Object object = luaState.toJavaObjectRaw(index);
+			Object object = (typeCode & LuaState.JAVA_TYPE_FLAG) != 0 ? luaState
+					.toJavaObjectRaw(index) : null;
 			if (object != null) {
 				Class<?> type;
 				if (object instanceof TypedJavaObject) {
@@ -26,6 +26,9 @@ import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -43,23 +46,49 @@ import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.Map.Entry;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Default implementation of the <code>JavaReflector</code> interface.
+ * 
+ * <p>
+ * Fields, methods, constructors and properties are accessed by means of
+ * method handles, which are created on first use. Members that are not
+ * accessible by means of a public method handle lookup, such as
+ * caller-sensitive methods, are accessed by means of core reflection.
+ * </p>
+ * 
+ * <p>
+ * The accessors of a class are cached per class, and the overload dispatch
+ * decisions are cached per accessor. The caches are read without locking.
+ * </p>
+ * 
+ * <p>
+ * The methods of a class are provided to Lua states, which resolve them
+ * from a metatable of the class without invoking the <code>__index</code>
+ * metamethod.
+ * </p>
  */
 public class DefaultJavaReflector implements JavaReflector {
 	// -- Static
 	private static final DefaultJavaReflector INSTANCE = new DefaultJavaReflector();
 	private static final Object JAVA_FUNCTION_TYPE = new Object();
 	private static final Object[] EMPTY_ARGUMENTS = new Object[0];
+	private static final int DISPATCH_CACHE_SIZE = 4;
+	private static final MethodType GETTER_TYPE = MethodType.methodType(
+			Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(
+			Void.TYPE, Object.class, Object.class);
+	private static final MethodHandle UNRESOLVED = MethodHandles.constant(
+			Object.class, null);
 
 	// -- State
-	private Map<Class<?>, Map<String, Accessor>> accessors = new HashMap<Class<?>, Map<String, Accessor>>();
-	private ReadWriteLock accessorLock = new ReentrantReadWriteLock();
-	private Map<LuaCallSignature, Invocable> invocableDispatches = new HashMap<LuaCallSignature, Invocable>();
-	private ReadWriteLock invocableDispatchLock = new ReentrantReadWriteLock();
+	private ClassValue<Map<String, Accessor>> accessors = new ClassValue<Map<String, Accessor>>() {
+		@Override
+		protected Map<String, Accessor> computeValue(Class<?> clazz) {
+			return createClassAccessors(clazz);
+		}
+	};
 	private JavaFunction index = new Index();
 	private JavaFunction newIndex = new NewIndex();
 	private JavaFunction equal = new Equal();
@@ -125,36 +154,23 @@ public class DefaultJavaReflector implements JavaReflector {
 		}
 	}
 
+	@Override
+	public Map<String, JavaFunction> getMethods(Class<?> clazz) {
+		Map<String, JavaFunction> methods = new HashMap<String, JavaFunction>();
+		for (Entry<String, Accessor> entry : accessors.get(clazz).entrySet()) {
+			if (entry.getValue() instanceof InvocableAccessor) {
+				methods.put(entry.getKey(), (InvocableAccessor) entry.getValue());
+			}
+		}
+		return methods;
+	}
+
 	// -- Private methods
 	/**
 	 * Returns the accessors of an object.
 	 */
 	private Map<String, Accessor> getObjectAccessors(Object object) {
-		// Check cache
-		Class<?> clazz = getObjectClass(object);
-		accessorLock.readLock().lock();
-		try {
-			Map<String, Accessor> result = accessors.get(clazz);
-			if (result != null) {
-				return result;
-			}
-		} finally {
-			accessorLock.readLock().unlock();
-		}
-
-		// Fill in
-		Map<String, Accessor> result = createClassAccessors(clazz);
-		accessorLock.writeLock().lock();
-		try {
-			if (!accessors.containsKey(clazz)) {
-				accessors.put(clazz, result);
-			} else {
-				result = accessors.get(clazz);
-			}
-		} finally {
-			accessorLock.writeLock().unlock();
-		}
-		return result;
+		return accessors.get(getObjectClass(object));
 	}
 
 	/**
@@ -376,6 +392,40 @@ public class DefaultJavaReflector implements JavaReflector {
 				.getClass();
 	}
 
+	/**
+	 * Returns a method handle for a method, taking the target object followed
+	 * by the arguments, all typed as objects. Static methods ignore the
+	 * target object. Returns <code>null</code> if the method is not
+	 * accessible by means of a method handle.
+	 */
+	private static MethodHandle unreflect(Method method) {
+		MethodHandle methodHandle;
+		try {
+			methodHandle = MethodHandles.publicLookup().unreflect(method);
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+		methodHandle = methodHandle.asFixedArity();
+		if (Modifier.isStatic(method.getModifiers())) {
+			methodHandle = MethodHandles.dropArguments(methodHandle, 0,
+					Object.class);
+		}
+		return methodHandle.asType(methodHandle.type().generic());
+	}
+
+	/**
+	 * Adapts a method handle of a field to a type, ignoring the target object
+	 * for static fields.
+	 */
+	private static MethodHandle adaptField(MethodHandle methodHandle,
+			Field field, MethodType type) {
+		if (Modifier.isStatic(field.getModifiers())) {
+			methodHandle = MethodHandles.dropArguments(methodHandle, 0,
+					Object.class);
+		}
+		return methodHandle.asType(type);
+	}
+
 	// -- Nested types
 	/**
 	 * <code>__index</code> metamethod implementation.
@@ -844,6 +894,8 @@ public class DefaultJavaReflector implements JavaReflector {
 	private class FieldAccessor implements Accessor {
 		// -- State
 		private Field field;
+		private volatile MethodHandle getter = UNRESOLVED;
+		private volatile MethodHandle setter = UNRESOLVED;
 
 		// -- Construction
 		/**
@@ -856,32 +908,52 @@ public class DefaultJavaReflector implements JavaReflector {
 		// -- Accessor methods
 		@Override
 		public void read(LuaState luaState, Object object) {
-			try {
-				Class<?> objectClass = getObjectClass(object);
-				if (objectClass == object) {
-					object = null;
+			Class<?> objectClass = getObjectClass(object);
+			if (objectClass == object) {
+				object = null;
+			}
+			MethodHandle getter = getGetter();
+			Object value;
+			if (getter != null) {
+				try {
+					value = (Object) getter.invokeExact(object);
+				} catch (Throwable e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				try {
+					value = field.get(object);
+				} catch (IllegalArgumentException e) {
+					throw new RuntimeException(e);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(e);
 				}
-				luaState.pushJavaObject(field.get(object));
-			} catch (IllegalArgumentException e) {
-				throw new RuntimeException(e);
-			} catch (IllegalAccessException e) {
-				throw new RuntimeException(e);
 			}
+			luaState.pushJavaObject(value);
 		}
 
 		@Override
 		public void write(LuaState luaState, Object object) {
-			try {
-				Class<?> objectClass = getObjectClass(object);
-				if (objectClass == object) {
-					object = null;
+			Class<?> objectClass = getObjectClass(object);
+			if (objectClass == object) {
+				object = null;
+			}
+			Object value = luaState.checkJavaObject(-1, field.getType());
+			MethodHandle setter = getSetter();
+			if (setter != null) {
+				try {
+					setter.invokeExact(object, value);
+				} catch (Throwable e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				try {
+					field.set(object, value);
+				} catch (IllegalArgumentException e) {
+					throw new RuntimeException(e);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(e);
 				}
-				Object value = luaState.checkJavaObject(-1, field.getType());
-				field.set(object, value);
-			} catch (IllegalArgumentException e) {
-				throw new RuntimeException(e);
-			} catch (IllegalAccessException e) {
-				throw new RuntimeException(e);
 			}
 		}
 
@@ -894,6 +966,43 @@ public class DefaultJavaReflector implements JavaReflector {
 		public boolean isStatic() {
 			return Modifier.isStatic(field.getModifiers());
 		}
+
+		// -- Private methods
+		/**
+		 * Returns the getter method handle, or <code>null</code> if the field
+		 * is accessed by means of reflection.
+		 */
+		private MethodHandle getGetter() {
+			MethodHandle getter = this.getter;
+			if (getter == UNRESOLVED) {
+				try {
+					getter = adaptField(MethodHandles.publicLookup()
+							.unreflectGetter(field), field, GETTER_TYPE);
+				} catch (IllegalAccessException e) {
+					getter = null;
+				}
+				this.getter = getter;
+			}
+			return getter;
+		}
+
+		/**
+		 * Returns the setter method handle, or <code>null</code> if the field
+		 * is accessed by means of reflection.
+		 */
+		private MethodHandle getSetter() {
+			MethodHandle setter = this.setter;
+			if (setter == UNRESOLVED) {
+				try {
+					setter = adaptField(MethodHandles.publicLookup()
+							.unreflectSetter(field), field, SETTER_TYPE);
+				} catch (IllegalAccessException e) {
+					setter = null;
+				}
+				this.setter = setter;
+			}
+			return setter;
+		}
 	}
 
 	/**
@@ -903,6 +1012,9 @@ public class DefaultJavaReflector implements JavaReflector {
 		// -- State
 		private Class<?> clazz;
 		private List<Invocable> invocables;
+		private ConcurrentHashMap<LuaCallSignature, Invocable> invocableDispatches = new ConcurrentHashMap<LuaCallSignature, Invocable>();
+		private Dispatch[] dispatchCache = new Dispatch[DISPATCH_CACHE_SIZE];
+		private int dispatchCacheNext;
 
 		// -- Construction
 		/**
@@ -981,31 +1093,35 @@ public class DefaultJavaReflector implements JavaReflector {
 				object = null;
 			}
 
-			// Invocable dispatch
-			LuaCallSignature luaCallSignature = getLuaCallSignature(luaState);
+			// Argument types, retrieved at once into the scratch array of
+			// the Lua state
+			int argCount = luaState.getTop() - 1;
+			int[] argTypes = luaState.acquireTypes(argCount);
+			boolean staticDispatch = object == null;
 			Invocable invocable;
-			invocableDispatchLock.readLock().lock();
 			try {
-				invocable = invocableDispatches.get(luaCallSignature);
-			} finally {
-				invocableDispatchLock.readLock().unlock();
-			}
-			if (invocable == null) {
-				invocable = dispatchInvocable(luaState, object == null);
-				invocableDispatchLock.writeLock().lock();
-				try {
-					if (!invocableDispatches.containsKey(luaCallSignature)) {
-						invocableDispatches.put(luaCallSignature, invocable);
-					} else {
-						invocable = invocableDispatches.get(luaCallSignature);
+				if (argCount > 0) {
+					luaState.types(2, argCount + 1, argTypes);
+				}
+
+				// Invocable dispatch
+				if (invocables.size() == 1) {
+					invocable = invocables.get(0);
+					checkInvocable(luaState, argTypes, argCount, invocable,
+							staticDispatch);
+				} else {
+					invocable = getCachedDispatch(luaState, argTypes, argCount,
+							staticDispatch);
+					if (invocable == null) {
+						invocable = getDispatch(luaState, argTypes, argCount,
+								staticDispatch);
 					}
-				} finally {
-					invocableDispatchLock.writeLock().unlock();
 				}
+			} finally {
+				luaState.releaseTypes(argTypes);
 			}
 
 			// Prepare arguments
-			int argCount = luaState.getTop() - 1;
 			int parameterCount = invocable.getParameterCount();
 			Object[] arguments = new Object[parameterCount];
 			if (invocable.isVarArgs()) {
@@ -1058,43 +1174,132 @@ public class DefaultJavaReflector implements JavaReflector {
 		}
 
 		// -- Private methods
+		/**
+		 * Checks that the single invocable of this accessor is applicable
+		 * to the arguments. This replaces dispatching for accessors that are
+		 * not overloaded.
+		 */
+		private void checkInvocable(LuaState luaState, int[] argTypes,
+				int argCount, Invocable invocable, boolean staticDispatch) {
+			boolean applicable = Modifier.isStatic(invocable.getModifiers())
+					== staticDispatch;
+			if (applicable) {
+				if (invocable.isVarArgs()) {
+					applicable = argCount >= invocable.getParameterCount() - 1;
+				} else {
+					applicable = argCount == invocable.getParameterCount();
+				}
+			}
+			if (applicable && argCount > 0) {
+				Converter converter = luaState.getConverter();
+				for (int i = 0; i < argCount && applicable; i++) {
+					applicable = converter.getTypeDistance(luaState, i + 2,
+							argTypes[i], invocable.getParameterType(i))
+							!= Integer.MAX_VALUE;
+				}
+			}
+			if (!applicable) {
+				throw getSignatureMismatchException(luaState);
+			}
+		}
+
+		/**
+		 * Returns the invocable of a recent dispatch with the same argument
+		 * types, or <code>null</code> if there is none. The method does not
+		 * allocate.
+		 */
+		private Invocable getCachedDispatch(LuaState luaState, int[] argTypes,
+				int argCount, boolean staticDispatch) {
+			outer: for (int i = 0; i < dispatchCache.length; i++) {
+				Dispatch dispatch = dispatchCache[i];
+				if (dispatch == null || dispatch.staticDispatch != staticDispatch
+						|| dispatch.types.length != argCount) {
+					continue;
+				}
+				for (int j = 0; j < argCount; j++) {
+					if (getArgumentType(luaState, j + 2, argTypes[j])
+							!= dispatch.types[j]) {
+						continue outer;
+					}
+				}
+				return dispatch.invocable;
+			}
+			return null;
+		}
+
+		/**
+		 * Dispatches an invocable by means of the dispatch table, and
+		 * remembers the dispatch in the inline cache.
+		 */
+		private Invocable getDispatch(LuaState luaState, int[] argTypes,
+				int argCount, boolean staticDispatch) {
+			LuaCallSignature luaCallSignature = getLuaCallSignature(luaState,
+					argTypes, argCount, staticDispatch);
+			Invocable invocable = invocableDispatches.get(luaCallSignature);
+			if (invocable == null) {
+				invocable = dispatchInvocable(luaState, argTypes, argCount,
+						staticDispatch);
+				Invocable existing = invocableDispatches.putIfAbsent(
+						luaCallSignature, invocable);
+				if (existing != null) {
+					invocable = existing;
+				}
+			}
+
+			// Cache entries are immutable; a racing thread may at worst
+			// overwrite an entry
+			int next = dispatchCacheNext;
+			dispatchCache[next] = new Dispatch(staticDispatch,
+					luaCallSignature.types, invocable);
+			dispatchCacheNext = (next + 1) % DISPATCH_CACHE_SIZE;
+			return invocable;
+		}
+
 		/**
 		 * Creates a Lua call signature.
 		 */
-		private LuaCallSignature getLuaCallSignature(LuaState luaState) {
-			int argCount = luaState.getTop() - 1;
+		private LuaCallSignature getLuaCallSignature(LuaState luaState,
+				int[] argTypes, int argCount, boolean staticDispatch) {
 			Object[] types = new Object[argCount];
 			for (int i = 0; i < argCount; i++) {
-				LuaType type = luaState.type(i + 2);
-				switch (type) {
-				case FUNCTION:
-					types[i] = luaState.isJavaFunction(i + 2) ? JAVA_FUNCTION_TYPE
-							: LuaType.FUNCTION;
-					break;
-				case USERDATA:
-					if (luaState.isJavaObjectRaw(i + 2)) {
-						Object object = luaState.toJavaObjectRaw(i + 2);
-						if (object instanceof TypedJavaObject) {
-							types[i] = ((TypedJavaObject) object).getType();
-						} else {
-							types[i] = object.getClass();
-						}
+				types[i] = getArgumentType(luaState, i + 2, argTypes[i]);
+			}
+			return new LuaCallSignature(clazz, getName(), staticDispatch,
+					types);
+		}
+
+		/**
+		 * Returns the dispatch type of an argument with a type code. Only
+		 * Java objects require a call into the Lua state.
+		 */
+		private Object getArgumentType(LuaState luaState, int index,
+				int typeCode) {
+			boolean java = (typeCode & LuaState.JAVA_TYPE_FLAG) != 0;
+			LuaType type = LuaType.fromTypeCode(typeCode);
+			switch (type) {
+			case FUNCTION:
+				return java ? JAVA_FUNCTION_TYPE : LuaType.FUNCTION;
+			case USERDATA:
+				if (java) {
+					Object object = luaState.toJavaObjectRaw(index);
+					if (object instanceof TypedJavaObject) {
+						return ((TypedJavaObject) object).getType();
 					} else {
-						types[i] = LuaType.USERDATA;
+						return object.getClass();
 					}
-					break;
-				default:
-					types[i] = type;
+				} else {
+					return LuaType.USERDATA;
 				}
+			default:
+				return type;
 			}
-			return new LuaCallSignature(clazz, getName(), types);
 		}
 
 		/**
 		 * Dispatches an invocable.
 		 */
-		private Invocable dispatchInvocable(LuaState luaState,
-				boolean staticDispatch) {
+		private Invocable dispatchInvocable(LuaState luaState, int[] argTypes,
+				int argCount, boolean staticDispatch) {
 			// Begin with all candidates
 			Set<Invocable> candidates = new HashSet<Invocable>(invocables);
 
@@ -1107,7 +1312,6 @@ public class DefaultJavaReflector implements JavaReflector {
 			}
 
 			// Eliminate methods with an invalid parameter count
-			int argCount = luaState.getTop() - 1;
 			for (Iterator<Invocable> i = candidates.iterator(); i.hasNext();) {
 				Invocable invocable = i.next();
 				if (invocable.isVarArgs()) {
@@ -1128,7 +1332,7 @@ public class DefaultJavaReflector implements JavaReflector {
 				Invocable invocable = i.next();
 				for (int j = 0; j < argCount; j++) {
 					int distance = converter.getTypeDistance(luaState, j + 2,
-							invocable.getParameterType(j));
+							argTypes[j], invocable.getParameterType(j));
 					if (distance == Integer.MAX_VALUE) {
 						i.remove();
 						continue outer;
@@ -1168,9 +1372,10 @@ public class DefaultJavaReflector implements JavaReflector {
 					boolean delta = false;
 					for (int j = 0; j < parameterCount; j++) {
 						int distance = converter.getTypeDistance(luaState,
-								j + 2, invocable.getParameterType(j));
+								j + 2, argTypes[j],
+								invocable.getParameterType(j));
 						int otherDistance = converter.getTypeDistance(luaState,
-								j + 2, other.getParameterType(j));
+								j + 2, argTypes[j], other.getParameterType(j));
 						if (otherDistance > distance) {
 							// Other is not closer
 							continue inner;
@@ -1308,6 +1513,8 @@ public class DefaultJavaReflector implements JavaReflector {
 		// -- State
 		private Class<?> clazz;
 		private PropertyDescriptor propertyDescriptor;
+		private volatile MethodHandle reader = UNRESOLVED;
+		private volatile MethodHandle writer = UNRESOLVED;
 
 		// -- Construction
 		/**
@@ -1329,16 +1536,27 @@ public class DefaultJavaReflector implements JavaReflector {
 								clazz.getCanonicalName(),
 								propertyDescriptor.getName()));
 			}
-			try {
-				luaState.pushJavaObject(propertyDescriptor.getReadMethod()
-						.invoke(object, EMPTY_ARGUMENTS));
-			} catch (IllegalArgumentException e) {
-				throw new RuntimeException(e);
-			} catch (IllegalAccessException e) {
-				throw new RuntimeException(e);
-			} catch (InvocationTargetException e) {
-				throw new RuntimeException(e.getTargetException());
+			MethodHandle reader = getReader();
+			Object value;
+			if (reader != null) {
+				try {
+					value = (Object) reader.invokeExact(object);
+				} catch (Throwable e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				try {
+					value = propertyDescriptor.getReadMethod().invoke(object,
+							EMPTY_ARGUMENTS);
+				} catch (IllegalArgumentException e) {
+					throw new RuntimeException(e);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(e);
+				} catch (InvocationTargetException e) {
+					throw new RuntimeException(e.getTargetException());
+				}
 			}
+			luaState.pushJavaObject(value);
 		}
 
 		@Override
@@ -1350,16 +1568,25 @@ public class DefaultJavaReflector implements JavaReflector {
 								clazz.getCanonicalName(),
 								propertyDescriptor.getName()));
 			}
-			try {
-				Object value = luaState.checkJavaObject(-1,
-						propertyDescriptor.getPropertyType());
-				propertyDescriptor.getWriteMethod().invoke(object, value);
-			} catch (IllegalArgumentException e) {
-				throw new RuntimeException(e);
-			} catch (IllegalAccessException e) {
-				throw new RuntimeException(e);
-			} catch (InvocationTargetException e) {
-				throw new RuntimeException(e.getTargetException());
+			Object value = luaState.checkJavaObject(-1,
+					propertyDescriptor.getPropertyType());
+			MethodHandle writer = getWriter();
+			if (writer != null) {
+				try {
+					writer.invokeExact(object, value);
+				} catch (Throwable e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				try {
+					propertyDescriptor.getWriteMethod().invoke(object, value);
+				} catch (IllegalArgumentException e) {
+					throw new RuntimeException(e);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(e);
+				} catch (InvocationTargetException e) {
+					throw new RuntimeException(e.getTargetException());
+				}
 			}
 			luaState.pop(1);
 		}
@@ -1373,6 +1600,36 @@ public class DefaultJavaReflector implements JavaReflector {
 		public boolean isStatic() {
 			return false;
 		}
+
+		// -- Private methods
+		/**
+		 * Returns the read method handle, or <code>null</code> if the read
+		 * method is invoked by means of reflection.
+		 */
+		private MethodHandle getReader() {
+			MethodHandle reader = this.reader;
+			if (reader == UNRESOLVED) {
+				reader = unreflect(propertyDescriptor.getReadMethod());
+				this.reader = reader;
+			}
+			return reader;
+		}
+
+		/**
+		 * Returns the write method handle, or <code>null</code> if the write
+		 * method is invoked by means of reflection.
+		 */
+		private MethodHandle getWriter() {
+			MethodHandle writer = this.writer;
+			if (writer == UNRESOLVED) {
+				writer = unreflect(propertyDescriptor.getWriteMethod());
+				if (writer != null) {
+					writer = writer.asType(SETTER_TYPE);
+				}
+				this.writer = writer;
+			}
+			return writer;
+		}
 	}
 
 	/**
@@ -1444,6 +1701,7 @@ public class DefaultJavaReflector implements JavaReflector {
 	private static class InvocableMethod implements Invocable {
 		private Method method;
 		private Class<?>[] parameterTypes;
+		private volatile MethodHandle methodHandle = UNRESOLVED;
 
 		/**
 		 * Creates a new instance.
@@ -1512,13 +1770,39 @@ public class DefaultJavaReflector implements JavaReflector {
 		public Object invoke(Object obj, Object... args)
 				throws IllegalAccessException, IllegalArgumentException,
 				InvocationTargetException {
-			return method.invoke(obj, args);
+			MethodHandle methodHandle = getMethodHandle();
+			if (methodHandle == null) {
+				return method.invoke(obj, args);
+			}
+			try {
+				return (Object) methodHandle.invokeExact(obj, args);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
 		}
 
 		@Override
 		public String toString() {
 			return method.toString();
 		}
+
+		/**
+		 * Returns the method handle taking the target object and an argument
+		 * array, or <code>null</code> if the method is invoked by means of
+		 * reflection.
+		 */
+		private MethodHandle getMethodHandle() {
+			MethodHandle methodHandle = this.methodHandle;
+			if (methodHandle == UNRESOLVED) {
+				methodHandle = unreflect(method);
+				if (methodHandle != null) {
+					methodHandle = methodHandle.asSpreader(Object[].class,
+							parameterTypes.length);
+				}
+				this.methodHandle = methodHandle;
+			}
+			return methodHandle;
+		}
 	}
 
 	/**
@@ -1528,6 +1812,7 @@ public class DefaultJavaReflector implements JavaReflector {
 		// -- State
 		private Constructor<?> constructor;
 		private Class<?>[] parameterTypes;
+		private volatile MethodHandle methodHandle = UNRESOLVED;
 
 		/**
 		 * Creates a new instance.
@@ -1596,13 +1881,50 @@ public class DefaultJavaReflector implements JavaReflector {
 		public Object invoke(Object obj, Object... args)
 				throws InstantiationException, IllegalAccessException,
 				IllegalArgumentException, InvocationTargetException {
-			return constructor.newInstance(args);
+			MethodHandle methodHandle = getMethodHandle();
+			if (methodHandle == null) {
+				return constructor.newInstance(args);
+			}
+			try {
+				return (Object) methodHandle.invokeExact(args);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
 		}
 
 		@Override
 		public String toString() {
 			return constructor.toString();
 		}
+
+		/**
+		 * Returns the method handle taking an argument array, or
+		 * <code>null</code> if the constructor is invoked by means of
+		 * reflection.
+		 */
+		private MethodHandle getMethodHandle() {
+			MethodHandle methodHandle = this.methodHandle;
+			if (methodHandle == UNRESOLVED) {
+				methodHandle = null;
+				// Abstract classes are left to reflection, which reports
+				// them with an instantiation exception
+				if (!Modifier.isAbstract(constructor.getDeclaringClass()
+						.getModifiers())) {
+					try {
+						methodHandle = MethodHandles.publicLookup()
+								.unreflectConstructor(constructor)
+								.asFixedArity();
+						methodHandle = methodHandle.asType(
+								methodHandle.type().generic()).asSpreader(
+								Object[].class, parameterTypes.length);
+					} catch (IllegalAccessException e) {
+						methodHandle = null;
+					}
+				}
+				this.methodHandle = methodHandle;
+			}
+			return methodHandle;
+		}
 	}
 
 	/**
@@ -1689,6 +2011,27 @@ public class DefaultJavaReflector implements JavaReflector {
 		}
 	}
 
+	/**
+	 * Inline cache entry of an invocable accessor.
+	 */
+	private static class Dispatch {
+		// -- State
+		private final boolean staticDispatch;
+		private final Object[] types;
+		private final Invocable invocable;
+
+		// -- Construction
+		/**
+		 * Creates a new instance.
+		 */
+		public Dispatch(boolean staticDispatch, Object[] types,
+				Invocable invocable) {
+			this.staticDispatch = staticDispatch;
+			this.types = types;
+			this.invocable = invocable;
+		}
+	}
+
 	/**
 	 * Lua call signature.
 	 */
@@ -1696,6 +2039,7 @@ public class DefaultJavaReflector implements JavaReflector {
 		// -- State
 		private Class<?> clazz;
 		private String invocableName;
+		private boolean staticDispatch;
 		private Object[] types;
 		private int hashCode;
 
@@ -1704,12 +2048,14 @@ public class DefaultJavaReflector implements JavaReflector {
 		 * Creates a new instance.
 		 */
 		public LuaCallSignature(Class<?> clazz, String invocableName,
-				Object[] types) {
+				boolean staticDispatch, Object[] types) {
 			this.clazz = clazz;
 			this.invocableName = invocableName;
+			this.staticDispatch = staticDispatch;
 			this.types = types;
 			hashCode = clazz.hashCode();
 			hashCode = hashCode * 65599 + invocableName.hashCode();
+			hashCode = hashCode * 65599 + (staticDispatch ? 1 : 0);
 			for (int i = 0; i < types.length; i++) {
 				hashCode = hashCode * 65599 + types[i].hashCode();
 			}
@@ -1731,6 +2077,7 @@ public class DefaultJavaReflector implements JavaReflector {
 			LuaCallSignature other = (LuaCallSignature) obj;
 			if (clazz != other.clazz
 					|| !invocableName.equals(other.invocableName)
+					|| staticDispatch != other.staticDispatch
 					|| types.length != other.types.length) {
 				return false;
 			}
@@ -22,6 +22,8 @@
 
 package org.terasology.jnlua;
 
+import java.util.Map;
+
 /**
  * Reflects Java objects for access from Lua.
  * 
@@ -47,6 +49,30 @@ public interface JavaReflector {
 	 */
 	JavaFunction getMetamethod(Metamethod metamethod);
 
+	/**
+	 * Returns the methods of a class, keyed by name. The returned functions
+	 * must be those that the <code>__index</code> metamethod of this Java
+	 * reflector returns for the names on any object of the class. Lua states
+	 * cache the methods in a metatable of the class, and resolve them without
+	 * invoking the <code>__index</code> metamethod. If this Java reflector
+	 * does not provide the methods of the class, the method returns
+	 * <code>null</code>, and objects of the class are always indexed by the
+	 * <code>__index</code> metamethod.
+	 * 
+	 * <p>
+	 * The default implementation returns <code>null</code>.
+	 * </p>
+	 * 
+	 * @param clazz
+	 *            the class
+	 * @return the methods, or <code>null</code> if this Java reflector does
+	 *         not provide the methods of the class
+	 * @since JNLua 1.1.0
+	 */
+	default Map<String, JavaFunction> getMethods(Class<?> clazz) {
+		return null;
+	}
+
 	// -- Nested types
 	/**
 	 * Lua metamethod.
@@ -0,0 +1,721 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Records a sequence of Lua stack operations for execution in a single native
+ * call.
+ *
+ * <p>
+ * Each stack operation invoked on a Lua state is a separate JNI transition.
+ * A batch encodes a sequence of such operations into a direct byte buffer and
+ * executes the whole sequence with one transition by means of
+ * {@link LuaState#execute(LuaBatch)}. The operations have the semantics of
+ * the Lua state methods of the same name.
+ * </p>
+ *
+ * <p>
+ * Operations returning a value, such as {@link #toInteger(int)}, store their
+ * result into a result buffer. After execution, the results are read back in
+ * the order of the operations by means of the <code>next</code> methods, such
+ * as {@link #nextInteger()}.
+ * </p>
+ *
+ * <p>
+ * If an operation fails, the execution of the batch stops and the exception
+ * is thrown. The effects of the operations executed up to that point remain
+ * in place, as if the operations had been invoked individually.
+ * </p>
+ *
+ * <p>
+ * A batch can be executed repeatedly. It is bound to the Lua state it has
+ * been created for, and it is not thread-safe.
+ * </p>
+ *
+ * @since JNLua 1.1.0
+ */
+public class LuaBatch {
+	// -- Static
+	/*
+	 * Operation codes and result tags. These must match the native library.
+	 */
+	static final byte PUSHNIL = 1;
+	static final byte PUSHBOOLEAN = 2;
+	static final byte PUSHINTEGER = 3;
+	static final byte PUSHNUMBER = 4;
+	static final byte PUSHSTRING = 5;
+	static final byte PUSHVALUE = 6;
+	static final byte POP = 7;
+	static final byte SETTOP = 8;
+	static final byte NEWTABLE = 9;
+	static final byte GETGLOBAL = 10;
+	static final byte SETGLOBAL = 11;
+	static final byte GETFIELD = 12;
+	static final byte SETFIELD = 13;
+	static final byte GETTABLE = 14;
+	static final byte SETTABLE = 15;
+	static final byte RAWGET = 16;
+	static final byte RAWGETI = 17;
+	static final byte RAWSET = 18;
+	static final byte RAWSETI = 19;
+	static final byte CALL = 20;
+	static final byte GETTOP = 21;
+	static final byte TYPE = 22;
+	static final byte TOBOOLEAN = 23;
+	static final byte TOINTEGER = 24;
+	static final byte TONUMBER = 25;
+	static final byte TOSTRING = 26;
+	static final byte RESULT_NIL = 0;
+	static final byte RESULT_BOOLEAN = 1;
+	static final byte RESULT_INTEGER = 2;
+	static final byte RESULT_NUMBER = 3;
+	static final byte RESULT_STRING = 4;
+
+	/**
+	 * Default initial buffer capacity.
+	 */
+	private static final int DEFAULT_CAPACITY = 256;
+
+	// -- State
+	private final LuaState luaState;
+	private ByteBuffer program;
+	private ByteBuffer results;
+	private int resultCount;
+	private int resultsRead;
+
+	// -- Construction
+	/**
+	 * Creates a new instance with a default capacity.
+	 *
+	 * @param luaState
+	 *            the Lua state to execute the batch on
+	 */
+	public LuaBatch(LuaState luaState) {
+		this(luaState, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new instance with the specified initial capacity. The
+	 * capacity applies to both the operations and the results, and is grown
+	 * as required.
+	 *
+	 * @param luaState
+	 *            the Lua state to execute the batch on
+	 * @param capacity
+	 *            the initial capacity in bytes
+	 */
+	public LuaBatch(LuaState luaState, int capacity) {
+		if (luaState == null) {
+			throw new NullPointerException();
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("illegal capacity");
+		}
+		this.luaState = luaState;
+		program = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+		results = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+		((Buffer) results).limit(0);
+	}
+
+	// -- Properties
+	/**
+	 * Returns the Lua state this batch executes on.
+	 *
+	 * @return the Lua state
+	 */
+	public LuaState getLuaState() {
+		return luaState;
+	}
+
+	/**
+	 * Returns the number of bytes of encoded operations in this batch.
+	 *
+	 * @return the size of the batch
+	 */
+	public int size() {
+		return program.position();
+	}
+
+	/**
+	 * Returns the number of results produced by the operations of this batch.
+	 *
+	 * @return the number of results
+	 */
+	public int getResultCount() {
+		return resultCount;
+	}
+
+	// -- Operations
+	/**
+	 * Removes all operations and results from this batch.
+	 *
+	 * @return this batch
+	 */
+	public LuaBatch clear() {
+		((Buffer) program).clear();
+		((Buffer) results).limit(0);
+		resultCount = 0;
+		resultsRead = 0;
+		return this;
+	}
+
+	/**
+	 * Executes this batch. This is a shortcut for
+	 * <code>getLuaState().execute(this)</code>.
+	 *
+	 * @return this batch
+	 */
+	public LuaBatch execute() {
+		luaState.execute(this);
+		return this;
+	}
+
+	/**
+	 * Records pushing a boolean value.
+	 *
+	 * @param b
+	 *            the boolean value to push
+	 * @return this batch
+	 */
+	public LuaBatch pushBoolean(boolean b) {
+		reserve(2).put(PUSHBOOLEAN).put(b ? (byte) 1 : (byte) 0);
+		return this;
+	}
+
+	/**
+	 * Records pushing a byte array value as a string.
+	 *
+	 * @param b
+	 *            the byte array to push
+	 * @return this batch
+	 */
+	public LuaBatch pushByteArray(byte[] b) {
+		reserve(5 + b.length).put(PUSHSTRING).putInt(b.length).put(b);
+		return this;
+	}
+
+	/**
+	 * Records pushing an integer value. As with
+	 * {@link LuaState#pushInteger(long)}, the value is pushed as a number if
+	 * it does not fit the integer width of the Lua state.
+	 *
+	 * @param n
+	 *            the integer value to push
+	 * @return this batch
+	 */
+	public LuaBatch pushInteger(long n) {
+		if (luaState.luaIntWidth < 8 && (n < Integer.MIN_VALUE || n > Integer.MAX_VALUE)) {
+			return pushNumber(n);
+		}
+		reserve(9).put(PUSHINTEGER).putLong(n);
+		return this;
+	}
+
+	/**
+	 * Records pushing a <code>nil</code> value.
+	 *
+	 * @return this batch
+	 */
+	public LuaBatch pushNil() {
+		reserve(1).put(PUSHNIL);
+		return this;
+	}
+
+	/**
+	 * Records pushing a number value.
+	 *
+	 * @param n
+	 *            the number to push
+	 * @return this batch
+	 */
+	public LuaBatch pushNumber(double n) {
+		reserve(9).put(PUSHNUMBER).putDouble(n);
+		return this;
+	}
+
+	/**
+	 * Records pushing a string value. The string is encoded with the
+	 * character set of the Lua state at the time of recording.
+	 *
+	 * @param s
+	 *            the string value to push
+	 * @return this batch
+	 */
+	public LuaBatch pushString(String s) {
+		return pushByteArray(s.getBytes(luaState.getCharset()));
+	}
+
+	/**
+	 * Records pushing a copy of a stack value.
+	 *
+	 * @param index
+	 *            the stack index of the value to push
+	 * @return this batch
+	 */
+	public LuaBatch pushValue(int index) {
+		return op(PUSHVALUE, index);
+	}
+
+	/**
+	 * Records popping values from the stack.
+	 *
+	 * @param count
+	 *            the number of values to pop
+	 * @return this batch
+	 */
+	public LuaBatch pop(int count) {
+		return op(POP, count);
+	}
+
+	/**
+	 * Records setting the stack top.
+	 *
+	 * @param index
+	 *            the index of the new top
+	 * @return this batch
+	 */
+	public LuaBatch setTop(int index) {
+		return op(SETTOP, index);
+	}
+
+	/**
+	 * Records creating a new table and pushing it on the stack.
+	 *
+	 * @return this batch
+	 */
+	public LuaBatch newTable() {
+		return newTable(0, 0);
+	}
+
+	/**
+	 * Records creating a new table with pre-allocated space and pushing it on
+	 * the stack.
+	 *
+	 * @param arrayCount
+	 *            the number of array elements to pre-allocate
+	 * @param recordCount
+	 *            the number of record elements to pre-allocate
+	 * @return this batch
+	 */
+	public LuaBatch newTable(int arrayCount, int recordCount) {
+		reserve(9).put(NEWTABLE).putInt(arrayCount).putInt(recordCount);
+		return this;
+	}
+
+	/**
+	 * Records pushing the value of a global variable.
+	 *
+	 * @param name
+	 *            the name of the global variable
+	 * @return this batch
+	 */
+	public LuaBatch getGlobal(String name) {
+		byte[] key = name.getBytes(luaState.getCharset());
+		reserve(5 + key.length).put(GETGLOBAL).putInt(key.length).put(key);
+		return this;
+	}
+
+	/**
+	 * Records popping a value and setting it as a global variable.
+	 *
+	 * @param name
+	 *            the name of the global variable
+	 * @return this batch
+	 */
+	public LuaBatch setGlobal(String name) {
+		byte[] key = name.getBytes(luaState.getCharset());
+		reserve(5 + key.length).put(SETGLOBAL).putInt(key.length).put(key);
+		return this;
+	}
+
+	/**
+	 * Records pushing the value of a table field.
+	 *
+	 * @param index
+	 *            the stack index containing the table
+	 * @param key
+	 *            the key of the field
+	 * @return this batch
+	 */
+	public LuaBatch getField(int index, String key) {
+		byte[] k = key.getBytes(luaState.getCharset());
+		reserve(9 + k.length).put(GETFIELD).putInt(index).putInt(k.length).put(k);
+		return this;
+	}
+
+	/**
+	 * Records popping a value and setting it as a table field.
+	 *
+	 * @param index
+	 *            the stack index containing the table
+	 * @param key
+	 *            the key of the field
+	 * @return this batch
+	 */
+	public LuaBatch setField(int index, String key) {
+		byte[] k = key.getBytes(luaState.getCharset());
+		reserve(9 + k.length).put(SETFIELD).putInt(index).putInt(k.length).put(k);
+		return this;
+	}
+
+	/**
+	 * Records popping a key and pushing the corresponding table value.
+	 *
+	 * @param index
+	 *            the stack index containing the table
+	 * @return this batch
+	 */
+	public LuaBatch getTable(int index) {
+		return op(GETTABLE, index);
+	}
+
+	/**
+	 * Records popping a key and a value and setting them in a table.
+	 *
+	 * @param index
+	 *            the stack index containing the table
+	 * @return this batch
+	 */
+	public LuaBatch setTable(int index) {
+		return op(SETTABLE, index);
+	}
+
+	/**
+	 * Records popping a key and pushing the corresponding table value
+	 * without invoking metamethods.
+	 *
+	 * @param index
+	 *            the stack index containing the table
+	 * @return this batch
+	 */
+	public LuaBatch rawGet(int index) {
+		return op(RAWGET, index);
+	}
+
+	/**
+	 * Records pushing the value of an integer table key without invoking
+	 * metamethods.
+	 *
+	 * @param index
+	 *            the stack index containing the table
+	 * @param key
+	 *            the integer key
+	 * @return this batch
+	 */
+	public LuaBatch rawGet(int index, int key) {
+		reserve(9).put(RAWGETI).putInt(index).putInt(key);
+		return this;
+	}
+
+	/**
+	 * Records popping a key and a value and setting them in a table without
+	 * invoking metamethods.
+	 *
+	 * @param index
+	 *            the stack index containing the table
+	 * @return this batch
+	 */
+	public LuaBatch rawSet(int index) {
+		return op(RAWSET, index);
+	}
+
+	/**
+	 * Records popping a value and setting it as the value of an integer
+	 * table key without invoking metamethods.
+	 *
+	 * @param index
+	 *            the stack index containing the table
+	 * @param key
+	 *            the integer key
+	 * @return this batch
+	 */
+	public LuaBatch rawSet(int index, int key) {
+		reserve(9).put(RAWSETI).putInt(index).putInt(key);
+		return this;
+	}
+
+	/**
+	 * Records calling a Lua function.
+	 *
+	 * @param argCount
+	 *            the number of arguments
+	 * @param returnCount
+	 *            the number of return values, or {@link LuaState#MULTRET}
+	 * @return this batch
+	 */
+	public LuaBatch call(int argCount, int returnCount) {
+		reserve(9).put(CALL).putInt(argCount).putInt(returnCount);
+		return this;
+	}
+
+	/**
+	 * Records querying the stack top. The result is read with
+	 * {@link #nextInteger()}.
+	 *
+	 * @return this batch
+	 */
+	public LuaBatch getTop() {
+		reserve(1).put(GETTOP);
+		resultCount++;
+		return this;
+	}
+
+	/**
+	 * Records querying the type of a stack value. The result is read with
+	 * {@link #nextType()}.
+	 *
+	 * @param index
+	 *            the stack index
+	 * @return this batch
+	 */
+	public LuaBatch type(int index) {
+		return result(TYPE, index);
+	}
+
+	/**
+	 * Records converting a stack value to a boolean. The result is read with
+	 * {@link #nextBoolean()}.
+	 *
+	 * @param index
+	 *            the stack index
+	 * @return this batch
+	 */
+	public LuaBatch toBoolean(int index) {
+		return result(TOBOOLEAN, index);
+	}
+
+	/**
+	 * Records converting a stack value to an integer. The result is read with
+	 * {@link #nextInteger()}.
+	 *
+	 * @param index
+	 *            the stack index
+	 * @return this batch
+	 */
+	public LuaBatch toInteger(int index) {
+		return result(TOINTEGER, index);
+	}
+
+	/**
+	 * Records converting a stack value to a number. The result is read with
+	 * {@link #nextNumber()}.
+	 *
+	 * @param index
+	 *            the stack index
+	 * @return this batch
+	 */
+	public LuaBatch toNumber(int index) {
+		return result(TONUMBER, index);
+	}
+
+	/**
+	 * Records converting a stack value to a string. The result is read with
+	 * {@link #nextString()} or {@link #nextByteArray()}.
+	 *
+	 * @param index
+	 *            the stack index
+	 * @return this batch
+	 */
+	public LuaBatch toString(int index) {
+		return result(TOSTRING, index);
+	}
+
+	// -- Results
+	/**
+	 * Returns whether there are unread results.
+	 *
+	 * @return whether there are unread results
+	 */
+	public boolean hasNext() {
+		return results.hasRemaining();
+	}
+
+	/**
+	 * Reads the next result as a boolean.
+	 *
+	 * @return the boolean result
+	 * @throws IllegalStateException
+	 *             if the next result is not a boolean
+	 */
+	public boolean nextBoolean() {
+		next(RESULT_BOOLEAN);
+		return results.get() != 0;
+	}
+
+	/**
+	 * Reads the next result as an integer.
+	 *
+	 * @return the integer result
+	 * @throws IllegalStateException
+	 *             if the next result is not an integer
+	 */
+	public long nextInteger() {
+		next(RESULT_INTEGER);
+		return results.getLong();
+	}
+
+	/**
+	 * Reads the next result as a number.
+	 *
+	 * @return the number result
+	 * @throws IllegalStateException
+	 *             if the next result is not a number
+	 */
+	public double nextNumber() {
+		next(RESULT_NUMBER);
+		return results.getDouble();
+	}
+
+	/**
+	 * Reads the next result as a type.
+	 *
+	 * @return the type, or <code>null</code> if the index was not valid
+	 * @throws IllegalStateException
+	 *             if the next result is not a type
+	 */
+	public LuaType nextType() {
+		int type = (int) nextInteger();
+		return type >= 0 ? LuaType.values()[type] : null;
+	}
+
+	/**
+	 * Reads the next result as a byte array.
+	 *
+	 * @return the byte array, or <code>null</code> if the value was neither
+	 *         a string nor a number
+	 * @throws IllegalStateException
+	 *             if the next result is not a string
+	 */
+	public byte[] nextByteArray() {
+		if (next(RESULT_STRING) == RESULT_NIL) {
+			return null;
+		}
+		byte[] b = new byte[results.getInt()];
+		results.get(b);
+		return b;
+	}
+
+	/**
+	 * Reads the next result as a string. The string is decoded with the
+	 * character set of the Lua state.
+	 *
+	 * @return the string, or <code>null</code> if the value was neither a
+	 *         string nor a number
+	 * @throws IllegalStateException
+	 *             if the next result is not a string
+	 */
+	public String nextString() {
+		byte[] b = nextByteArray();
+		return b != null ? new String(b, luaState.getCharset()) : null;
+	}
+
+	// -- Package private methods
+	/**
+	 * Runs this batch on the Lua state. The caller holds the lock of the Lua
+	 * state.
+	 */
+	void run() {
+		int length = program.position();
+		int programPosition = 0;
+		int resultPosition = 0;
+		resultsRead = 0;
+		((Buffer) results).limit(0);
+		while (true) {
+			long status = luaState.lua_batch(program, programPosition, length,
+					results, resultPosition);
+			programPosition = (int) (status >>> 32);
+			resultPosition = (int) status;
+			if (programPosition >= length) {
+				break;
+			}
+
+			// The result buffer is too small; grow it and resume
+			ByteBuffer newResults = ByteBuffer.allocateDirect(
+					results.capacity() * 2).order(ByteOrder.nativeOrder());
+			((Buffer) results).limit(resultPosition);
+			((Buffer) results).position(0);
+			newResults.put(results);
+			results = newResults;
+		}
+		((Buffer) results).limit(resultPosition);
+		((Buffer) results).position(0);
+	}
+
+	// -- Private methods
+	/**
+	 * Ensures there is room for the specified number of bytes in the
+	 * operation buffer, and returns the buffer.
+	 */
+	private ByteBuffer reserve(int size) {
+		if (program.remaining() < size) {
+			int capacity = program.capacity() * 2;
+			while (capacity - program.position() < size) {
+				capacity *= 2;
+			}
+			ByteBuffer newProgram = ByteBuffer.allocateDirect(capacity).order(
+					ByteOrder.nativeOrder());
+			((Buffer) program).flip();
+			newProgram.put(program);
+			program = newProgram;
+		}
+		return program;
+	}
+
+	/**
+	 * Records an operation with an integer argument.
+	 */
+	private LuaBatch op(byte op, int arg) {
+		reserve(5).put(op).putInt(arg);
+		return this;
+	}
+
+	/**
+	 * Records an operation with an integer argument that produces a result.
+	 */
+	private LuaBatch result(byte op, int arg) {
+		op(op, arg);
+		resultCount++;
+		return this;
+	}
+
+	/**
+	 * Reads the tag of the next result and checks it.
+	 */
+	private byte next(byte expected) {
+		if (!results.hasRemaining()) {
+			throw new IllegalStateException("no more results");
+		}
+		byte tag = results.get();
+		if (tag != expected && !(tag == RESULT_NIL && expected == RESULT_STRING)) {
+			((Buffer) results).position(results.position() - 1);
+			throw new IllegalStateException(String.format(
+					"result %d has an unexpected type", resultsRead + 1));
+		}
+		resultsRead++;
+		return tag;
+	}
+}
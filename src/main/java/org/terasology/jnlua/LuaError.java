@@ -22,13 +22,23 @@
 
 package org.terasology.jnlua;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
 /**
  * Contains information about a Lua error condition. This object is created in
  * the native library.
  */
 class LuaError {
+	// -- Static
+	private static final LuaStackTraceElement[] EMPTY_LUA_STACK_TRACE = new LuaStackTraceElement[0];
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	// -- State
 	private String message;
+	private byte[] luaStackTraceData;
 	private LuaStackTraceElement[] luaStackTrace;
 	private Throwable cause;
 
@@ -50,9 +60,14 @@ class LuaError {
 	}
 
 	/**
-	 * Returns the Lua stack trace.
+	 * Returns the Lua stack trace. The stack trace is decoded on first use.
 	 */
-	public LuaStackTraceElement[] getLuaStackTrace() {
+	public synchronized LuaStackTraceElement[] getLuaStackTrace() {
+		if (luaStackTrace == null) {
+			luaStackTrace = luaStackTraceData != null ? decodeLuaStackTrace(luaStackTraceData)
+					: EMPTY_LUA_STACK_TRACE;
+			luaStackTraceData = null;
+		}
 		return luaStackTrace;
 	}
 
@@ -78,9 +93,61 @@ class LuaError {
 
 	// -- Package private methods
 	/**
-	 * Sets the Lua stack trace.
+	 * Sets the Lua stack trace as captured by the native library. Each frame
+	 * is encoded as its line number, followed by its function name and its
+	 * source name. The strings are encoded as their length, or
+	 * <code>-1</code> if absent, followed by their bytes. Integers are in
+	 * native byte order.
+	 */
+	synchronized void setLuaStackTrace(byte[] luaStackTraceData) {
+		this.luaStackTraceData = luaStackTraceData;
+		luaStackTrace = null;
+	}
+
+	// -- Private methods
+	/**
+	 * Decodes a Lua stack trace.
+	 */
+	private static LuaStackTraceElement[] decodeLuaStackTrace(byte[] data) {
+		ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+		int count = 0;
+		while (buffer.hasRemaining()) {
+			buffer.getInt();
+			skipString(buffer);
+			skipString(buffer);
+			count++;
+		}
+		LuaStackTraceElement[] luaStackTrace = new LuaStackTraceElement[count];
+		((Buffer) buffer).rewind();
+		for (int i = 0; i < count; i++) {
+			int lineNumber = buffer.getInt();
+			String functionName = getString(buffer);
+			String sourceName = getString(buffer);
+			luaStackTrace[i] = new LuaStackTraceElement(functionName, sourceName, lineNumber);
+		}
+		return luaStackTrace;
+	}
+
+	/**
+	 * Skips an encoded string.
+	 */
+	private static void skipString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length > 0) {
+			((Buffer) buffer).position(buffer.position() + length);
+		}
+	}
+
+	/**
+	 * Reads an encoded string.
 	 */
-	void setLuaStackTrace(LuaStackTraceElement[] luaStackTrace) {
-		this.luaStackTrace = luaStackTrace;
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		String s = new String(buffer.array(), buffer.position(), length, UTF8);
+		((Buffer) buffer).position(buffer.position() + length);
+		return s;
 	}
 }
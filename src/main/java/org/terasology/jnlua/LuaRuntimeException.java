@@ -41,6 +41,7 @@ public class LuaRuntimeException extends LuaException {
 
 	// -- State
 	private LuaStackTraceElement[] luaStackTrace;
+	private transient LuaError luaError;
 
 	// -- Construction
 	/**
@@ -86,7 +87,7 @@ public class LuaRuntimeException extends LuaException {
 	 * Returns the Lua stack trace of this runtime exception.
 	 */
 	public LuaStackTraceElement[] getLuaStackTrace() {
-		return luaStackTrace.clone();
+		return getLuaStackTraceInternal().clone();
 	}
 
 	// -- Operations
@@ -106,6 +107,7 @@ public class LuaRuntimeException extends LuaException {
 	 *            the print stream
 	 */
 	public void printLuaStackTrace(PrintStream s) {
+		LuaStackTraceElement[] luaStackTrace = getLuaStackTraceInternal();
 		synchronized (s) {
 			s.println(this);
 			for (int i = 0; i < luaStackTrace.length; i++) {
@@ -122,6 +124,7 @@ public class LuaRuntimeException extends LuaException {
 	 *            the print writer
 	 */
 	public void printLuaStackTrace(PrintWriter s) {
+		LuaStackTraceElement[] luaStackTrace = getLuaStackTraceInternal();
 		synchronized (s) {
 			s.println(this);
 			for (int i = 0; i < luaStackTrace.length; i++) {
@@ -137,6 +140,21 @@ public class LuaRuntimeException extends LuaException {
 	 */
 	void setLuaError(LuaError luaError) {
 		initCause(luaError.getCause());
-		luaStackTrace = luaError.getLuaStackTrace();
+		this.luaError = luaError;
+		luaStackTrace = null;
+	}
+
+	// -- Private methods
+	/**
+	 * Returns the Lua stack trace, materializing it from the Lua error on
+	 * first use.
+	 */
+	private synchronized LuaStackTraceElement[] getLuaStackTraceInternal() {
+		if (luaStackTrace == null) {
+			luaStackTrace = luaError != null ? luaError.getLuaStackTrace()
+					: EMPTY_LUA_STACK_TRACE;
+			luaError = null;
+		}
+		return luaStackTrace;
 	}
 }
@@ -22,7 +22,6 @@
 
 package org.terasology.jnlua;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -31,14 +30,45 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
-import java.util.HashSet;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * JNLua core class representing a Lua instance.
  * 
  * <p>
+ * The class is thread-safe. Each public method acquires exclusive access to
+ * the Lua state by means of {@link #lock()}, and callers may do the same to
+ * perform a sequence of operations atomically. The lock can be replaced by
+ * means of {@link #setLock(java.util.concurrent.locks.Lock)}, which also
+ * describes the behavior with virtual threads. A Lua state that is only ever
+ * used by a single thread can be confined to that thread by means of
+ * {@link #confineTo(Thread)}, which removes the locking overhead.
+ * </p>
+ * 
+ * <p>
  * The class performs extensive checking on all arguments and its state.
  * Specifically, the following exceptions are thrown under the indicated
  * conditions:
@@ -136,6 +166,15 @@ public abstract class LuaState {
 	 */
 	public static final int RIDX_GLOBALS = 2;
 
+	/**
+	 * Flag marking Java functions and Java objects in the type codes filled in
+	 * by {@link #types(int, int, int[])}. The remaining bits of a type code
+	 * hold the ordinal of the Lua type.
+	 * 
+	 * @since JNLua 1.1.0
+	 */
+	public static final int JAVA_TYPE_FLAG = 0x10;
+
 	/**
 	 * The JNLua version. The format is &lt;major&gt;.&lt;minor&gt;.
 	 */
@@ -154,18 +193,50 @@ public abstract class LuaState {
 	/**
 	 * The Lua integer width. Used internally.
 	 */
-	private final int luaIntWidth;
+	final int luaIntWidth;
 
 	/**
 	 * The API version.
 	 */
 	private static final int APIVERSION = 3;
 
+	/**
+	 * The initial capacity of the string buffer.
+	 */
+	private static final int STRING_BUFFER_CAPACITY = 1024;
+
+	/**
+	 * The maximum capacity of the string buffer. Longer strings are
+	 * transferred by means of byte arrays.
+	 */
+	private static final int STRING_BUFFER_MAX_CAPACITY = 1 << 20;
+
+	/**
+	 * The initial capacity of the scratch array for type codes.
+	 */
+	private static final int TYPES_BUFFER_CAPACITY = 8;
+
+	/**
+	 * The character set of Lua source chunks.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The registry name of the generic Java object metatable.
+	 */
+	private static final String JAVA_OBJECT_METATABLE = "jnlua.Object";
+
 	/**
 	 * The character set used by the Lua-Java string conversion.
 	 */
 	private Charset characterSet;
 
+	/**
+	 * The encoder and decoder of the character set. Created on first use.
+	 */
+	private CharsetEncoder encoder;
+	private CharsetDecoder decoder;
+
 
 	// -- State
 	/**
@@ -203,15 +274,51 @@ public abstract class LuaState {
 	private int luaMemoryTotal;
 
 	/**
-	 * The amount of memory currently used by the Lua state, in bytes. This is
-	 * set from the JNI side and must not be modified from the Java side.
+	 * The allocator used by the Lua state. This field is read by the JNI side
+	 * when the Lua state is created.
+	 */
+	private int luaAllocator;
+
+	/**
+	 * The memory counters of the Lua state on the JNI side, holding the
+	 * maximum and the currently used amount of memory, the memory reserved by
+	 * the arena allocator, in bytes, and the number of allocations. The
+	 * buffer is <code>null</code> if the Lua state is not owned or closed.
+	 */
+	private ByteBuffer luaMemory;
+
+	/**
+	 * The maximum number of frames in the Lua stack trace of Lua runtime
+	 * exceptions. This field is read by the JNI side when an error occurs.
+	 */
+	private int stackTraceDepth = Integer.MAX_VALUE;
+
+	/**
+	 * Whether Java objects are pushed as handles into the Java object table
+	 * of the Lua state.
+	 */
+	private boolean handleJavaObjects;
+
+	/**
+	 * Whether Java objects pushed as is are cached by identity.
 	 */
-	private int luaMemoryUsed;
+	private boolean cacheJavaObjects;
 	
 	/**
-	 * Ensures proper finalization of this Lua state.
+	 * Closes this Lua state once it has been collected, or <code>null</code>
+	 * if this Lua state does not own its native state.
+	 */
+	private NativeRef cleanupRef;
+
+	/**
+	 * Guards access to this Lua state unless it is confined to a thread.
 	 */
-	private Object finalizeGuardian;
+	private volatile Lock lock = new ReentrantLock();
+
+	/**
+	 * The thread this Lua state is confined to, or <code>null</code>.
+	 */
+	private volatile Thread owner;
 
 	/**
 	 * The class loader for dynamically loading classes.
@@ -223,20 +330,39 @@ public abstract class LuaState {
 	 */
 	private JavaReflector javaReflector;
 
+	/**
+	 * Registry references of the class metatables of Java objects, by class.
+	 * A reference of 0 denotes the generic Java object metatable.
+	 */
+	private final Map<Class<?>, Integer> classMetatables = new HashMap<Class<?>, Integer>();
+
 	/**
 	 * Converts between Lua types and Java types.
 	 */
 	private Converter converter;
 
 	/**
-	 * Set of Lua proxy phantom references for pre-mortem cleanup.
+	 * References of collected Lua value proxies pending release.
+	 */
+	private final ConcurrentLinkedQueue<LuaValueProxyRef> proxyPending = new ConcurrentLinkedQueue<LuaValueProxyRef>();
+
+	/**
+	 * Whether there are references of collected Lua value proxies pending
+	 * release.
+	 */
+	private volatile boolean proxyReleasePending;
+
+	/**
+	 * Direct buffer for transferring strings to and from the JNI side without
+	 * intermediate byte arrays. Allocated on first use.
 	 */
-	private Set<LuaValueProxyRef> proxySet = new HashSet<LuaValueProxyRef>();
+	private ByteBuffer stringBuffer;
 
 	/**
-	 * Reference queue for pre-mortem cleanup.
+	 * Scratch array for the type codes of stack values, or <code>null</code>
+	 * while it is acquired.
 	 */
-	private ReferenceQueue<LuaValueProxyImpl> proxyQueue = new ReferenceQueue<LuaValueProxyImpl>();
+	private int[] typesBuffer = new int[TYPES_BUFFER_CAPACITY];
 
 	// -- Construction
 	/**
@@ -253,7 +379,7 @@ public abstract class LuaState {
 	 * @see #setConverter(Converter)
 	 */
 	public LuaState() {
-		this(0L, 0);
+		this(0L, 0, Allocator.SYSTEM);
 	}
 
 	/**
@@ -273,10 +399,44 @@ public abstract class LuaState {
 	 * @see #setConverter(Converter)
 	 */
 	public LuaState(int memory) {
-		this(0L, validateMemory(memory));
+		this(0L, validateMemory(memory), Allocator.SYSTEM);
+	}
+
+	/**
+	 * Creates a new instance using the specified allocator. The class loader
+	 * of this Lua state is set to the context class loader of the calling
+	 * thread. The Java reflector and the converter are initialized with the
+	 * default implementations. The Lua state may allocate as much memory as
+	 * it wants.
+	 *
+	 * @param allocator
+	 *            the allocator
+	 * @see Allocator
+	 * @since JNLua 1.1.0
+	 */
+	public LuaState(Allocator allocator) {
+		this(0L, 0, allocator);
+	}
+
+	/**
+	 * Creates a new instance using the specified allocator. The class loader
+	 * of this Lua state is set to the context class loader of the calling
+	 * thread. The Java reflector and the converter are initialized with the
+	 * default implementations. The Lua state may allocate only as much
+	 * memory as specified.
+	 *
+	 * @param memory
+	 *            the maximum amount of memory this Lua state may use, in bytes
+	 * @param allocator
+	 *            the allocator
+	 * @see Allocator
+	 * @since JNLua 1.1.0
+	 */
+	public LuaState(int memory, Allocator allocator) {
+		this(0L, validateMemory(memory), allocator);
 	}
 
-	private LuaState(long luaState, int memory) {
+	private LuaState(long luaState, int memory, Allocator allocator) {
 		NativeSupport.getInstance().getLoader().load(this.getClass());
 		REGISTRYINDEX = lua_registryindex();
 		LUA_VERSION = lua_version();
@@ -287,18 +447,18 @@ public abstract class LuaState {
 
 		ownState = luaState == 0L;
 		luaMemoryTotal = memory;
+		luaAllocator = allocator.ordinal();
 		lua_newstate(APIVERSION, luaState);
 		check();
+		luaMemory = lua_memory();
+		if (luaMemory != null) {
+			luaMemory.order(ByteOrder.nativeOrder());
+		}
 
-		// Create a finalize guardian
-		finalizeGuardian = new Object() {
-			@Override
-			public void finalize() {
-				synchronized (LuaState.this) {
-					closeInternal();
-				}
-			}
-		};
+		// Close the native state once this Lua state has been collected
+		if (ownState) {
+			cleanupRef = new NativeRef(this, this.luaState, stateDisposer());
+		}
 
 		// Add metamethods
 		for (int i = 0; i < JavaReflector.Metamethod.values().length; i++) {
@@ -338,8 +498,13 @@ public abstract class LuaState {
 	 * 
 	 * @return the class loader
 	 */
-	public synchronized ClassLoader getClassLoader() {
-		return classLoader;
+	public ClassLoader getClassLoader() {
+		lock();
+		try {
+			return classLoader;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -353,11 +518,16 @@ public abstract class LuaState {
 	 * @param classLoader
 	 *            the class loader to set
 	 */
-	public synchronized void setClassLoader(ClassLoader classLoader) {
-		if (classLoader == null) {
-			throw new NullPointerException();
+	public void setClassLoader(ClassLoader classLoader) {
+		lock();
+		try {
+			if (classLoader == null) {
+				throw new NullPointerException();
+			}
+			this.classLoader = classLoader;
+		} finally {
+			unlock();
 		}
-		this.classLoader = classLoader;
 	}
 
 	/**
@@ -369,12 +539,18 @@ public abstract class LuaState {
 	 * 
 	 * @return the Java reflector converter
 	 */
-	public synchronized JavaReflector getJavaReflector() {
-		return javaReflector;
+	public JavaReflector getJavaReflector() {
+		lock();
+		try {
+			return javaReflector;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
-	 * Sets the Java reflector of this Lua state.
+	 * Sets the Java reflector of this Lua state. The methods cached from the
+	 * previous Java reflector are discarded.
 	 * 
 	 * <p>
 	 * The method may be invoked on a closed Lua state.
@@ -382,12 +558,19 @@ public abstract class LuaState {
 	 * 
 	 * @param javaReflector
 	 *            the Java reflector
+	 * @see JavaReflector#getMethods(Class)
 	 */
-	public synchronized void setJavaReflector(JavaReflector javaReflector) {
-		if (javaReflector == null) {
-			throw new NullPointerException();
+	public void setJavaReflector(JavaReflector javaReflector) {
+		lock();
+		try {
+			if (javaReflector == null) {
+				throw new NullPointerException();
+			}
+			this.javaReflector = javaReflector;
+			clearClassMetatables();
+		} finally {
+			unlock();
 		}
-		this.javaReflector = javaReflector;
 	}
 
 	/**
@@ -406,16 +589,21 @@ public abstract class LuaState {
 	 *            the object, or <code>null</code>
 	 * @return the Java reflector
 	 */
-	public synchronized JavaFunction getMetamethod(Object obj,
+	public JavaFunction getMetamethod(Object obj,
 			JavaReflector.Metamethod metamethod) {
-		if (obj != null && obj instanceof JavaReflector) {
-			JavaFunction javaFunction = ((JavaReflector) obj)
-					.getMetamethod(metamethod);
-			if (javaFunction != null) {
-				return javaFunction;
+		lock();
+		try {
+			if (obj != null && obj instanceof JavaReflector) {
+				JavaFunction javaFunction = ((JavaReflector) obj)
+						.getMetamethod(metamethod);
+				if (javaFunction != null) {
+					return javaFunction;
+				}
 			}
+			return javaReflector.getMetamethod(metamethod);
+		} finally {
+			unlock();
 		}
-		return javaReflector.getMetamethod(metamethod);
 	}
 
 	/**
@@ -423,8 +611,13 @@ public abstract class LuaState {
 	 *
 	 * @return the charset
 	 */
-	public synchronized Charset getCharset() {
-		return characterSet;
+	public Charset getCharset() {
+		lock();
+		try {
+			return characterSet;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -432,11 +625,18 @@ public abstract class LuaState {
 	 *
 	 * @param charset the charset
 	 */
-	public synchronized void setCharset(Charset charset) {
-		if (charset == null) {
-			throw new NullPointerException();
+	public void setCharset(Charset charset) {
+		lock();
+		try {
+			if (charset == null) {
+				throw new NullPointerException();
+			}
+			this.characterSet = charset;
+			encoder = null;
+			decoder = null;
+		} finally {
+			unlock();
 		}
-		this.characterSet = charset;
 	}
 
 	/**
@@ -448,8 +648,13 @@ public abstract class LuaState {
 	 * 
 	 * @return the converter
 	 */
-	public synchronized Converter getConverter() {
-		return converter;
+	public Converter getConverter() {
+		lock();
+		try {
+			return converter;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -462,11 +667,150 @@ public abstract class LuaState {
 	 * @param converter
 	 *            the converter
 	 */
-	public synchronized void setConverter(Converter converter) {
-		if (converter == null) {
-			throw new NullPointerException();
+	public void setConverter(Converter converter) {
+		lock();
+		try {
+			if (converter == null) {
+				throw new NullPointerException();
+			}
+			this.converter = converter;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of frames captured in the Lua stack trace of
+	 * Lua runtime exceptions raised by this Lua state.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the maximum stack trace depth
+	 * @since JNLua 1.1.0
+	 */
+	public int getStackTraceDepth() {
+		lock();
+		try {
+			return stackTraceDepth;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Sets the maximum number of frames captured in the Lua stack trace of
+	 * Lua runtime exceptions raised by this Lua state. By default, all frames
+	 * are captured. A depth of <code>0</code> disables capturing, which
+	 * avoids walking the Lua stack on errors that are raised and caught for
+	 * control flow. Captured frames are materialized as Lua stack trace
+	 * elements only when the stack trace is requested.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @param depth
+	 *            the maximum stack trace depth
+	 * @throws IllegalArgumentException
+	 *             if the depth is negative
+	 * @see LuaRuntimeException#getLuaStackTrace()
+	 * @since JNLua 1.1.0
+	 */
+	public void setStackTraceDepth(int depth) {
+		lock();
+		try {
+			if (depth < 0) {
+				throw new IllegalArgumentException("illegal depth: " + depth);
+			}
+			stackTraceDepth = depth;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Returns whether Java objects pushed by this Lua state are referenced by
+	 * handles into a Java object table.
+	 * 
+	 * @return whether Java objects are referenced by handles
+	 * @since JNLua 1.1.0
+	 */
+	public boolean isHandleJavaObjects() {
+		lock();
+		try {
+			return handleJavaObjects;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Sets whether Java objects pushed by this Lua state are referenced by
+	 * handles into a Java object table. By default, each Java object pushed
+	 * onto the stack, including Java functions, is referenced by a JNI global
+	 * reference. With handles, the Java objects are stored in a single table
+	 * per Lua state, and the Lua value holds only an index into that table.
+	 * This avoids creating and deleting a global reference for each pushed
+	 * object, and keeps the GC root set small when many Java objects are
+	 * bridged to Lua. Objects pushed before the setting is changed remain
+	 * valid.
+	 * 
+	 * @param handleJavaObjects
+	 *            whether to reference Java objects by handles
+	 * @since JNLua 1.1.0
+	 */
+	public void setHandleJavaObjects(boolean handleJavaObjects) {
+		lock();
+		try {
+			check();
+			lua_sethandlejavaobjects(handleJavaObjects);
+			this.handleJavaObjects = handleJavaObjects;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Returns whether Java objects pushed as is by this Lua state are cached
+	 * by identity.
+	 * 
+	 * @return whether Java objects are cached
+	 * @since JNLua 1.1.0
+	 */
+	public boolean isCacheJavaObjects() {
+		lock();
+		try {
+			return cacheJavaObjects;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Sets whether Java objects pushed as is by this Lua state are cached by
+	 * identity. With caching, pushing a Java object that is still referenced
+	 * in Lua pushes the existing Lua value instead of creating a new one. The
+	 * values are equal in Lua without invoking the <code>__eq</code>
+	 * metamethod. The cache does not keep values alive in Lua.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @param cacheJavaObjects
+	 *            whether to cache Java objects
+	 * @see #pushJavaObjectRaw(Object)
+	 * @since JNLua 1.1.0
+	 */
+	public void setCacheJavaObjects(boolean cacheJavaObjects) {
+		lock();
+		try {
+			this.cacheJavaObjects = cacheJavaObjects;
+		} finally {
+			unlock();
 		}
-		this.converter = converter;
 	}
 
 	// -- Memory
@@ -476,8 +820,13 @@ public abstract class LuaState {
 	 * 
 	 * @return the maximum memory consumption
 	 */
-	public synchronized int getTotalMemory() {
-		return luaMemoryTotal;
+	public int getTotalMemory() {
+		lock();
+		try {
+			return luaMemoryTotal;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -489,11 +838,19 @@ public abstract class LuaState {
 	 * @param value
 	 *            the new maximum memory size this state may allocate
 	 */
-	public synchronized void setTotalMemory(int value) {
-		if (luaMemoryTotal < 1) {
-			throw new IllegalStateException("cannot set maximum memory for this state");
+	public void setTotalMemory(int value) {
+		lock();
+		try {
+			if (luaMemoryTotal < 1) {
+				throw new IllegalStateException("cannot set maximum memory for this state");
+			}
+			luaMemoryTotal = validateMemory(value);
+			if (luaMemory != null) {
+				luaMemory.putLong(0, luaMemoryTotal);
+			}
+		} finally {
+			unlock();
 		}
-		luaMemoryTotal = validateMemory(value);
 	}
 
 	/**
@@ -509,149 +866,418 @@ public abstract class LuaState {
 	 * 
 	 * @return the current memory consumption
 	 */
-	public synchronized int getFreeMemory() {
-		// This is the reason we use free amount instead of used amount: if we
-		// lower the max memory we can get below used memory, which would be
-		// weird; so we just say free memory is zero, which is more intuitive
-		// and true at the same time.
-		return Math.max(0, luaMemoryTotal - luaMemoryUsed);
+	public int getFreeMemory() {
+		lock();
+		try {
+			// This is the reason we use free amount instead of used amount: if we
+			// lower the max memory we can get below used memory, which would be
+			// weird; so we just say free memory is zero, which is more intuitive
+			// and true at the same time.
+			return (int) Math.max(0, luaMemoryTotal - getUsedMemory());
+		} finally {
+			unlock();
+		}
 	}
 
-	// -- Life cycle
 	/**
-	 * Returns whether this Lua state is open.
-	 * 
-	 * <p>
-	 * The method may be invoked on a closed Lua state.
-	 * </p>
+	 * Returns the allocator of this Lua state.
 	 * 
-	 * @return whether this Lua state is open
+	 * @return the allocator
+	 * @since JNLua 1.1.0
 	 */
-	public final synchronized boolean isOpen() {
-		return isOpenInternal();
+	public Allocator getAllocator() {
+		lock();
+		try {
+			return Allocator.values()[luaAllocator];
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
-	 * Closes this Lua state and releases all resources.
+	 * Returns the amount of raw memory currently allocated by this Lua state,
+	 * in bytes. This returns zero if the Lua state is closed or was not
+	 * created by this Java state.
 	 * 
-	 * <p>
-	 * The method may be invoked on a closed Lua state and has no effect in that
-	 * case.
-	 * </p>
+	 * @return the used memory
+	 * @since JNLua 1.1.0
 	 */
-	public synchronized void close() {
-		closeInternal();
+	public long getUsedMemory() {
+		lock();
+		try {
+			return luaMemory != null ? luaMemory.getLong(8) : 0L;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
-	 * Performs a garbage collection operation. Please see the Lua Reference
-	 * Manual for an explanation of the actions, arguments and return values.
+	 * Returns the amount of memory reserved by the arena allocator of this Lua
+	 * state, in bytes. This includes memory that is currently unused and kept
+	 * for reuse. This returns zero if the Lua state does not use the arena
+	 * allocator or is closed.
 	 * 
-	 * @param what
-	 *            the operation to perform
-	 * @param data
-	 *            the argument required by some operations
-	 * @return a return value depending on the GC operation performed
+	 * @return the reserved memory
+	 * @since JNLua 1.1.0
 	 */
-	public synchronized int gc(GcAction what, int data) {
-		check();
-		int value = what.getValue(this);
-		if (value < 0) {
-			throw new IllegalArgumentException("Invalid GC action " + what.name());
+	public long getReservedMemory() {
+		lock();
+		try {
+			return luaMemory != null ? luaMemory.getLong(16) : 0L;
+		} finally {
+			unlock();
 		}
-		return lua_gc(value, data);
 	}
 
-	// -- Registration
 	/**
-	 * Opens the specified library in this Lua state. The library is pushed onto
-	 * the stack.
+	 * Returns the number of memory blocks allocated by this Lua state since it
+	 * was created. This returns zero if the Lua state is closed or was not
+	 * created by this Java state.
 	 * 
-	 * @param library
-	 *            the library
+	 * @return the allocation count
+	 * @since JNLua 1.1.0
 	 */
-	public synchronized void openLib(Library library) {
-		check();
-		library.open(this);
+	public long getAllocationCount() {
+		lock();
+		try {
+			return luaMemory != null ? luaMemory.getLong(24) : 0L;
+		} finally {
+			unlock();
+		}
 	}
 
+	// -- Locking
 	/**
-	 * Opens the Lua standard libraries and the JNLua Java module in this Lua
-	 * state.
+	 * Acquires exclusive access to this Lua state. All public methods of this
+	 * class acquire access by themselves; the method is intended for callers
+	 * that need to perform a sequence of operations atomically. Each
+	 * invocation must be matched by an invocation of {@link #unlock()},
+	 * typically in a <code>finally</code> block.
 	 * 
 	 * <p>
-	 * The method opens all libraries defined by the {@link Library}
-	 * enumeration.
+	 * If this Lua state is confined to a thread, the method performs no
+	 * locking and merely checks that the current thread is the owner.
 	 * </p>
-	 */
-	public synchronized void openLibs() {
-		check();
-		for (Library library : Library.values()) {
-			try {
-				library.open(this);
-				pop(1);
-			} catch (IllegalArgumentException e) {
-				// The library may not be present in this Lua version.
-				// Ignore it.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @throws IllegalStateException
+	 *             if this Lua state is confined to another thread
+	 * @since JNLua 1.1.0
+	 */
+	public final void lock() {
+		Thread owner = this.owner;
+		if (owner == null) {
+			Lock lock = acquireLock();
+			owner = this.owner;
+			if (owner == null) {
+				return;
 			}
+			lock.unlock();
 		}
+		checkOwner(owner);
 	}
 
 	/**
-	 * Registers a named Java function as a global variable.
+	 * Releases exclusive access to this Lua state acquired by
+	 * {@link #lock()}.
 	 * 
-	 * @param namedJavaFunction
-	 *            the Java function to register
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @since JNLua 1.1.0
 	 */
-	public synchronized void register(NamedJavaFunction namedJavaFunction) {
-		check();
-		String name = namedJavaFunction.getName();
-		if (name == null) {
-			throw new IllegalArgumentException("anonymous function");
+	public final void unlock() {
+		if (owner == null) {
+			lock.unlock();
 		}
-		pushJavaFunction(namedJavaFunction);
-		setGlobal(name);
 	}
 
 	/**
-	 * Registers a module and pushes the module on the stack. Optionally, a
-	 * module can be registered globally. As of Lua 5.2, modules are <i>not</i>
-	 * expected to set global variables anymore.
+	 * Confines this Lua state to a thread. Once confined, the owner thread
+	 * accesses the Lua state without any locking, and any other thread
+	 * accessing the Lua state fails with an
+	 * {@link java.lang.IllegalStateException}. Only the owner may hand a
+	 * confined Lua state over to another thread, and a Lua state cannot be
+	 * unconfined.
 	 * 
-	 * @param moduleName
-	 *            the module name
-	 * @param namedJavaFunctions
-	 *            the Java functions of the module
-	 * @param global
-	 *            whether to register the module globally
+	 * <p>
+	 * The method must not be invoked while the current thread holds access
+	 * acquired by {@link #lock()}. The method may be invoked on a closed Lua
+	 * state.
+	 * </p>
+	 * 
+	 * @param thread
+	 *            the owner thread
+	 * @throws IllegalStateException
+	 *             if this Lua state is confined to another thread, or if the
+	 *             current thread holds access acquired by {@link #lock()}
+	 * @since JNLua 1.1.0
 	 */
-	public synchronized void register(String moduleName,
-			NamedJavaFunction[] namedJavaFunctions, boolean global) {
-		check();
-		/*
-		 * The following code corresponds to luaL_requiref() and must be kept in
-		 * sync. The original code cannot be called due to the necessity of
-		 * pushing each C function with an individual closure.
-		 */
-		newTable(0, namedJavaFunctions.length);
-		for (int i = 0; i < namedJavaFunctions.length; i++) {
-			String name = namedJavaFunctions[i].getName();
-			if (name == null) {
-				throw new IllegalArgumentException(String.format(
-						"anonymous function at index %d", i));
+	public void confineTo(Thread thread) {
+		if (thread == null) {
+			throw new NullPointerException();
+		}
+		checkNotLocked();
+		if (owner == null) {
+			Lock lock = acquireLock();
+			try {
+				if (owner == null) {
+					owner = thread;
+					return;
+				}
+			} finally {
+				lock.unlock();
 			}
-			pushJavaFunction(namedJavaFunctions[i]);
-			setField(-2, name);
 		}
-		lua_getsubtable(REGISTRYINDEX, "_LOADED");
-		pushValue(-2);
-		setField(-2, moduleName);
-		pop(1);
-		if (global) {
-			rawGet(REGISTRYINDEX, RIDX_GLOBALS);
-			pushValue(-2);
-			setField(-2, moduleName);
-			pop(1);
+		checkOwner(owner);
+		owner = thread;
+	}
+
+	/**
+	 * Returns the thread this Lua state is confined to.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the owner thread, or <code>null</code> if this Lua state is not
+	 *         confined
+	 * @since JNLua 1.1.0
+	 */
+	public Thread getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Returns the lock guarding access to this Lua state.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return the lock
+	 * @since JNLua 1.1.0
+	 */
+	public Lock getLock() {
+		return lock;
+	}
+
+	/**
+	 * Sets the lock guarding access to this Lua state. By default, a
+	 * non-fair {@link ReentrantLock} is used. The lock must be reentrant, as
+	 * the methods of this class acquire access recursively.
+	 * 
+	 * <p>
+	 * Threads waiting for a {@link java.util.concurrent.locks.Lock} park
+	 * rather than block on a monitor. Virtual threads contending for a Lua
+	 * state therefore release their carrier thread while waiting. A virtual
+	 * thread does pin its carrier while it executes native Lua code, such as
+	 * a call of a Lua function. Long-running scripts should therefore be
+	 * executed on a bounded number of Lua states, such as those of a
+	 * {@link org.terasology.jnlua.util.LuaStatePool}, or on platform threads,
+	 * such as that of a {@link org.terasology.jnlua.util.LuaActor}.
+	 * </p>
+	 * 
+	 * <p>
+	 * The method must not be invoked while the current thread holds access
+	 * acquired by {@link #lock()}. The method may be invoked on a closed Lua
+	 * state.
+	 * </p>
+	 * 
+	 * @param lock
+	 *            the lock
+	 * @throws IllegalStateException
+	 *             if the current thread holds access acquired by
+	 *             {@link #lock()}
+	 * @since JNLua 1.1.0
+	 */
+	public void setLock(Lock lock) {
+		if (lock == null) {
+			throw new NullPointerException();
+		}
+		checkNotLocked();
+		Lock current = acquireLock();
+		try {
+			this.lock = lock;
+		} finally {
+			current.unlock();
+		}
+	}
+
+	// -- Life cycle
+	/**
+	 * Returns whether this Lua state is open.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state.
+	 * </p>
+	 * 
+	 * @return whether this Lua state is open
+	 */
+	public final boolean isOpen() {
+		lock();
+		try {
+			return isOpenInternal();
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Closes this Lua state and releases all resources.
+	 * 
+	 * <p>
+	 * The method may be invoked on a closed Lua state and has no effect in that
+	 * case.
+	 * </p>
+	 */
+	public void close() {
+		lock();
+		try {
+			closeInternal();
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Performs a garbage collection operation. Please see the Lua Reference
+	 * Manual for an explanation of the actions, arguments and return values.
+	 * 
+	 * @param what
+	 *            the operation to perform
+	 * @param data
+	 *            the argument required by some operations
+	 * @return a return value depending on the GC operation performed
+	 */
+	public int gc(GcAction what, int data) {
+		lock();
+		try {
+			check();
+			int value = what.getValue(this);
+			if (value < 0) {
+				throw new IllegalArgumentException("Invalid GC action " + what.name());
+			}
+			return lua_gc(value, data);
+		} finally {
+			unlock();
+		}
+	}
+
+	// -- Registration
+	/**
+	 * Opens the specified library in this Lua state. The library is pushed onto
+	 * the stack.
+	 * 
+	 * @param library
+	 *            the library
+	 */
+	public void openLib(Library library) {
+		lock();
+		try {
+			check();
+			library.open(this);
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Opens the Lua standard libraries and the JNLua Java module in this Lua
+	 * state.
+	 * 
+	 * <p>
+	 * The method opens all libraries defined by the {@link Library}
+	 * enumeration.
+	 * </p>
+	 */
+	public void openLibs() {
+		lock();
+		try {
+			check();
+			for (Library library : Library.values()) {
+				try {
+					library.open(this);
+					pop(1);
+				} catch (IllegalArgumentException e) {
+					// The library may not be present in this Lua version.
+					// Ignore it.
+				}
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Registers a named Java function as a global variable.
+	 * 
+	 * @param namedJavaFunction
+	 *            the Java function to register
+	 */
+	public void register(NamedJavaFunction namedJavaFunction) {
+		lock();
+		try {
+			check();
+			String name = namedJavaFunction.getName();
+			if (name == null) {
+				throw new IllegalArgumentException("anonymous function");
+			}
+			pushJavaFunction(namedJavaFunction);
+			setGlobal(name);
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Registers a module and pushes the module on the stack. Optionally, a
+	 * module can be registered globally. As of Lua 5.2, modules are <i>not</i>
+	 * expected to set global variables anymore.
+	 * 
+	 * @param moduleName
+	 *            the module name
+	 * @param namedJavaFunctions
+	 *            the Java functions of the module
+	 * @param global
+	 *            whether to register the module globally
+	 */
+	public void register(String moduleName,
+			NamedJavaFunction[] namedJavaFunctions, boolean global) {
+		lock();
+		try {
+			check();
+			/*
+			 * The following code corresponds to luaL_requiref() and must be kept in
+			 * sync. The original code cannot be called due to the necessity of
+			 * pushing each C function with an individual closure.
+			 */
+			newTable(0, namedJavaFunctions.length);
+			for (int i = 0; i < namedJavaFunctions.length; i++) {
+				String name = namedJavaFunctions[i].getName();
+				if (name == null) {
+					throw new IllegalArgumentException(String.format(
+							"anonymous function at index %d", i));
+				}
+				pushJavaFunction(namedJavaFunctions[i]);
+				setField(-2, name);
+			}
+			lua_getsubtable(REGISTRYINDEX, "_LOADED");
+			pushValue(-2);
+			setField(-2, moduleName);
+			pop(1);
+			if (global) {
+				rawGet(REGISTRYINDEX, RIDX_GLOBALS);
+				pushValue(-2);
+				setField(-2, moduleName);
+				pop(1);
+			}
+		} finally {
+			unlock();
 		}
 	}
 
@@ -671,10 +1297,15 @@ public abstract class LuaState {
 	 * @throws IOException
 	 *             if an IO error occurs
 	 */
-	public synchronized void load(InputStream inputStream, String chunkName,
+	public void load(InputStream inputStream, String chunkName,
 			String mode) throws IOException {
-		check();
-		lua_load(inputStream, chunkName, mode);
+		lock();
+		try {
+			check();
+			lua_load(inputStream, chunkName, mode);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -686,13 +1317,123 @@ public abstract class LuaState {
 	 * @param chunkName
 	 *            the name of the chunk for use in error messages
 	 */
-	public synchronized void load(String chunk, String chunkName) {
-		check();
+	public void load(String chunk, String chunkName) {
+		lock();
 		try {
-			load(new ByteArrayInputStream(chunk.getBytes("UTF-8")), chunkName,
-					"t");
-		} catch (IOException e) {
-			throw new LuaMemoryAllocationException(e.getMessage(), e);
+			check();
+			ByteBuffer buffer = characterSet.equals(UTF8) ? encodeString(chunk) : null;
+			if (buffer != null) {
+				// Take the string buffer, which Lua parses in place
+				stringBuffer = null;
+				try {
+					lua_loadbuffer(buffer, 0, buffer.position(), chunkName, "t");
+				} finally {
+					releaseStringBuffer(buffer);
+				}
+			} else {
+				load(ByteBuffer.wrap(chunk.getBytes(UTF8)), chunkName, "t");
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Loads a Lua chunk from a byte buffer and pushes it on the stack as a
+	 * function. The chunk ranges from the position to the limit of the
+	 * buffer. Depending on the value of mode, the the Lua chunk can either be
+	 * a pre-compiled binary chunk or a UTF-8 encoded text chunk. If the chunk
+	 * is loaded, the position of the buffer is set to its limit.
+	 * 
+	 * <p>
+	 * A direct buffer is passed to Lua as is. The contents of other buffers
+	 * are copied into a direct buffer first.
+	 * </p>
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @param chunkName
+	 *            the name of the chunk for use in error messages
+	 * @param mode
+	 *            <code>"b"</code> to accept binary, <code>"t"</code> to accept
+	 *            text, or <code>"bt"</code> to accept both
+	 * @since JNLua 1.1.0
+	 */
+	public void load(ByteBuffer buffer, String chunkName,
+			String mode) {
+		lock();
+		try {
+			check();
+			int length = buffer.remaining();
+			if (buffer.isDirect() && length > 0) {
+				lua_loadbuffer(buffer, buffer.position(), length, chunkName, mode);
+			} else if (length <= STRING_BUFFER_MAX_CAPACITY) {
+				ByteBuffer direct = acquireStringBuffer(length);
+				try {
+					direct.put(buffer.duplicate());
+					lua_loadbuffer(direct, 0, length, chunkName, mode);
+				} finally {
+					releaseStringBuffer(direct);
+				}
+			} else {
+				ByteBuffer direct = ByteBuffer.allocateDirect(length);
+				direct.put(buffer.duplicate());
+				lua_loadbuffer(direct, 0, length, chunkName, mode);
+			}
+			((Buffer) buffer).position(buffer.limit());
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Loads a Lua chunk from a file and pushes it on the stack as a function.
+	 * Small files are read into a direct buffer. Large files are mapped into
+	 * memory and passed to Lua as is; the mapping is released when it is
+	 * collected. Depending on the value of mode, the the Lua chunk can either
+	 * be a pre-compiled binary chunk or a UTF-8 encoded text chunk.
+	 * 
+	 * @param path
+	 *            the path of the file
+	 * @param chunkName
+	 *            the name of the chunk for use in error messages
+	 * @param mode
+	 *            <code>"b"</code> to accept binary, <code>"t"</code> to accept
+	 *            text, or <code>"bt"</code> to accept both
+	 * @throws IOException
+	 *             if an IO error occurs
+	 * @since JNLua 1.1.0
+	 */
+	public void load(Path path, String chunkName, String mode)
+			throws IOException {
+		lock();
+		try {
+			check();
+			FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+			try {
+				long size = channel.size();
+				if (size > STRING_BUFFER_MAX_CAPACITY) {
+					load(channel.map(FileChannel.MapMode.READ_ONLY, 0, size),
+							chunkName, mode);
+					return;
+				}
+				ByteBuffer buffer = acquireStringBuffer((int) size);
+				try {
+					((Buffer) buffer).limit((int) size);
+					while (buffer.hasRemaining()) {
+						if (channel.read(buffer) < 0) {
+							break;
+						}
+					}
+					lua_loadbuffer(buffer, 0, buffer.position(), chunkName, mode);
+				} finally {
+					releaseStringBuffer(buffer);
+				}
+			} finally {
+				channel.close();
+			}
+		} finally {
+			unlock();
 		}
 	}
 
@@ -708,9 +1449,158 @@ public abstract class LuaState {
 	 * @throws IOException
 	 *             if an IO error occurs
 	 */
-	public synchronized void dump(OutputStream outputStream, boolean strip) throws IOException {
-		check();
-		lua_dump(outputStream, strip);
+	public void dump(OutputStream outputStream, boolean strip) throws IOException {
+		lock();
+		try {
+			check();
+			lua_dump(outputStream, strip);
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Dumps the function on top of the stack as a pre-compiled binary chunk
+	 * and returns it in a byte buffer. The chunk is collected in a native
+	 * buffer and transferred to Java in one piece.
+	 * 
+	 * @param strip
+	 *            if Lua >= 5.3 and true, function debug information may
+	 *            be stripped from the binary chunk
+	 * @return the binary chunk, ranging from position <code>0</code> to the
+	 *         limit of the buffer
+	 * @throws IllegalArgumentException
+	 *             if the function cannot be dumped
+	 * @since JNLua 1.1.0
+	 */
+	public ByteBuffer dump(boolean strip) {
+		lock();
+		try {
+			check();
+			return ByteBuffer.wrap(lua_dumpbuffer(strip));
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Dumps the function on top of the stack as a pre-compiled binary chunk
+	 * into a channel. The chunk is collected in a native buffer and written
+	 * to the channel in one piece.
+	 * 
+	 * @param channel
+	 *            the channel, such as a file channel
+	 * @param strip
+	 *            if Lua >= 5.3 and true, function debug information may
+	 *            be stripped from the binary chunk
+	 * @throws IOException
+	 *             if an IO error occurs
+	 * @throws IllegalArgumentException
+	 *             if the function cannot be dumped
+	 * @since JNLua 1.1.0
+	 */
+	public void dumpTo(WritableByteChannel channel, boolean strip)
+			throws IOException {
+		lock();
+		try {
+			ByteBuffer buffer = dump(strip);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			unlock();
+		}
+	}
+
+	// -- Snapshot
+	/**
+	 * Persists the globals and the loaded modules of this Lua state into an
+	 * image by means of the Eris persistence library. The image can be
+	 * restored into other Lua states by means of
+	 * {@link #restoreSnapshot(byte[])} or {@link #fromSnapshot(byte[])},
+	 * which is typically faster than re-running the initialization of a Lua
+	 * state.
+	 * 
+	 * <p>
+	 * C functions, including Java functions, are persisted by their name in
+	 * the loaded modules, and are bound to the functions of the same name
+	 * when the image is restored. Other C functions, Java objects and
+	 * userdata cannot be persisted.
+	 * </p>
+	 * 
+	 * @return the image
+	 * @throws IllegalStateException
+	 *             if the native library has been compiled without Eris
+	 * @throws LuaRuntimeException
+	 *             if a value cannot be persisted
+	 * @since JNLua 1.1.0
+	 */
+	public byte[] snapshot() {
+		lock();
+		try {
+			check();
+			return lua_snapshot();
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Restores an image created by {@link #snapshot()} into this Lua state.
+	 * The globals and the loaded modules of this Lua state are replaced by
+	 * those of the image. The libraries and Java modules whose functions are
+	 * referenced by the image must be present in this Lua state. Library
+	 * tables are restored as copies; functions of this Lua state that
+	 * internally refer to its library tables, such as the string methods, are
+	 * not affected.
+	 * 
+	 * @param image
+	 *            the image
+	 * @throws IllegalStateException
+	 *             if the native library has been compiled without Eris
+	 * @throws LuaRuntimeException
+	 *             if the image is invalid or refers to a missing function
+	 * @since JNLua 1.1.0
+	 */
+	public void restoreSnapshot(byte[] image) {
+		lock();
+		try {
+			check();
+			if (image == null) {
+				throw new NullPointerException();
+			}
+			lua_restoresnapshot(image);
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Creates a new Lua state from an image created by {@link #snapshot()}.
+	 * The Lua state is created as a {@link LuaState53}, its libraries are
+	 * opened, and the image is restored into it. Images
+	 * referring to Java modules must be restored by means of
+	 * {@link #restoreSnapshot(byte[])} after registering the modules.
+	 * 
+	 * @param image
+	 *            the image
+	 * @return the Lua state
+	 * @throws IllegalStateException
+	 *             if the native library has been compiled without Eris
+	 * @throws LuaRuntimeException
+	 *             if the image is invalid or refers to a missing function
+	 * @since JNLua 1.1.0
+	 */
+	public static LuaState fromSnapshot(byte[] image) {
+		LuaState luaState = new LuaState53();
+		try {
+			luaState.openLibs();
+			luaState.restoreSnapshot(image);
+			return luaState;
+		} catch (RuntimeException e) {
+			luaState.close();
+			throw e;
+		}
 	}
 
 	// -- Call
@@ -728,9 +1618,14 @@ public abstract class LuaState {
 	 *            the number of return values, or {@link #MULTRET} to accept all
 	 *            values returned by the function
 	 */
-	public synchronized void call(int argCount, int returnCount) {
-		check();
-		lua_pcall(argCount, returnCount);
+	public void call(int argCount, int returnCount) {
+		lock();
+		try {
+			check();
+			lua_pcall(argCount, returnCount);
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Globals
@@ -740,9 +1635,14 @@ public abstract class LuaState {
 	 * @param name
 	 *            the global variable name
 	 */
-	public synchronized void getGlobal(String name) {
-		check();
-		lua_getglobal(name);
+	public void getGlobal(String name) {
+		lock();
+		try {
+			check();
+			lua_getglobal(name);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -752,10 +1652,15 @@ public abstract class LuaState {
 	 * @param name
 	 *            the global variable name
 	 */
-	public synchronized void setGlobal(String name)
+	public void setGlobal(String name)
 			throws LuaMemoryAllocationException, LuaRuntimeException {
-		check();
-		lua_setglobal(name);
+		lock();
+		try {
+			check();
+			lua_setglobal(name);
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Stack push
@@ -765,9 +1670,14 @@ public abstract class LuaState {
 	 * @param b
 	 *            the boolean value to push
 	 */
-	public synchronized void pushBoolean(boolean b) {
-		check();
-		lua_pushboolean(b);
+	public void pushBoolean(boolean b) {
+		lock();
+		try {
+			check();
+			lua_pushboolean(b);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -776,9 +1686,49 @@ public abstract class LuaState {
 	 * @param b
 	 *            the byte array to push
 	 */
-	public synchronized void pushByteArray(byte[] b) {
-		check();
-		lua_pushbytearray(b);
+	public void pushByteArray(byte[] b) {
+		lock();
+		try {
+			check();
+			lua_pushbytearray(b);
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Pushes the remaining bytes of a byte buffer as a string value onto the
+	 * stack. The position of the buffer is advanced to its limit.
+	 * 
+	 * <p>
+	 * If the buffer is direct, the bytes are transferred without an
+	 * intermediate copy.
+	 * </p>
+	 * 
+	 * @param buffer
+	 *            the buffer to push
+	 * @since JNLua 1.1.0
+	 */
+	public void pushByteBuffer(ByteBuffer buffer) {
+		lock();
+		try {
+			check();
+			int length = buffer.remaining();
+			if (buffer.isDirect()) {
+				lua_pushbuffer(buffer, buffer.position(), length);
+			} else if (length <= STRING_BUFFER_MAX_CAPACITY) {
+				ByteBuffer stringBuffer = getStringBuffer(length);
+				stringBuffer.put(buffer.duplicate());
+				lua_pushbuffer(stringBuffer, 0, length);
+			} else {
+				byte[] bytes = new byte[length];
+				buffer.duplicate().get(bytes);
+				lua_pushbytearray(bytes);
+			}
+			((Buffer) buffer).position(buffer.limit());
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -787,14 +1737,19 @@ public abstract class LuaState {
 	 * @param n
 	 *            the integer value to push
 	 */
-	public synchronized void pushInteger(long n) {
-		check();
-		if (luaIntWidth < 8 && (n < Integer.MIN_VALUE || n > Integer.MAX_VALUE)) {
-			// The 64-bit number will not fit in a 32-bit integer. As such,
-			// we have to push it as a floating-point value.
-			lua_pushnumber(n);
-		} else {
-			lua_pushinteger(n);
+	public void pushInteger(long n) {
+		lock();
+		try {
+			check();
+			if (luaIntWidth < 8 && (n < Integer.MIN_VALUE || n > Integer.MAX_VALUE)) {
+				// The 64-bit number will not fit in a 32-bit integer. As such,
+				// we have to push it as a floating-point value.
+				lua_pushnumber(n);
+			} else {
+				lua_pushinteger(n);
+			}
+		} finally {
+			unlock();
 		}
 	}
 
@@ -804,9 +1759,14 @@ public abstract class LuaState {
 	 * @param javaFunction
 	 *            the function to push
 	 */
-	public synchronized void pushJavaFunction(JavaFunction javaFunction) {
-		check();
-		lua_pushjavafunction(javaFunction);
+	public void pushJavaFunction(JavaFunction javaFunction) {
+		lock();
+		try {
+			check();
+			lua_pushjavafunction(javaFunction);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -818,9 +1778,14 @@ public abstract class LuaState {
 	 * @see #getConverter()
 	 * @see #setConverter(Converter)
 	 */
-	public synchronized void pushJavaObject(Object object) {
-		check();
-		getConverter().convertJavaObject(this, object);
+	public void pushJavaObject(Object object) {
+		lock();
+		try {
+			check();
+			getConverter().convertJavaObject(this, object);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -837,22 +1802,51 @@ public abstract class LuaState {
 	 * <code>null</code> is not a Java object. The converter converts
 	 * <code>null</code> to <code>nil</code>.
 	 * </p>
+	 *
+	 * <p>
+	 * If caching of Java objects is enabled, pushing an object that is still
+	 * referenced in Lua pushes the same Lua value again.
+	 * </p>
+	 * 
+	 * <p>
+	 * If the Java reflector provides the methods of the class of the object,
+	 * the object is pushed with a metatable of its class that resolves the
+	 * methods in Lua.
+	 * </p>
 	 * 
 	 * @param object
 	 *            the Java object
 	 * @see #pushJavaObject(Object)
+	 * @see #setCacheJavaObjects(boolean)
 	 */
-	public synchronized void pushJavaObjectRaw(Object object) {
-		check();
-		lua_pushjavaobject(object);
+	public void pushJavaObjectRaw(Object object) {
+		lock();
+		try {
+			check();
+			if (object == null) {
+				lua_pushjavaobject(object, 0);
+			} else if (cacheJavaObjects) {
+				lua_pushjavaobjectcached(object, System.identityHashCode(object),
+						getClassMetatable(object.getClass()));
+			} else {
+				lua_pushjavaobject(object, getClassMetatable(object.getClass()));
+			}
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
 	 * Pushes a nil value on the stack.
 	 */
-	public synchronized void pushNil() {
-		check();
-		lua_pushnil();
+	public void pushNil() {
+		lock();
+		try {
+			check();
+			lua_pushnil();
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -861,9 +1855,14 @@ public abstract class LuaState {
 	 * @param n
 	 *            the number to push
 	 */
-	public synchronized void pushNumber(double n) {
-		check();
-		lua_pushnumber(n);
+	public void pushNumber(double n) {
+		lock();
+		try {
+			check();
+			lua_pushnumber(n);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -872,9 +1871,19 @@ public abstract class LuaState {
 	 * @param s
 	 *            the string value to push
 	 */
-	public synchronized void pushString(String s) {
-		check();
-		lua_pushbytearray(s.getBytes(characterSet));
+	public void pushString(String s) {
+		lock();
+		try {
+			check();
+			ByteBuffer buffer = encodeString(s);
+			if (buffer != null) {
+				lua_pushbuffer(buffer, 0, buffer.position());
+			} else {
+				lua_pushbytearray(s.getBytes(characterSet));
+			}
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Stack type test
@@ -889,9 +1898,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the value is a boolean
 	 */
-	public synchronized boolean isBoolean(int index) {
-		check();
-		return lua_isboolean(index);
+	public boolean isBoolean(int index) {
+		lock();
+		try {
+			check();
+			return lua_isboolean(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -905,9 +1919,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the value is a function
 	 */
-	public synchronized boolean isCFunction(int index) {
-		check();
-		return lua_iscfunction(index);
+	public boolean isCFunction(int index) {
+		lock();
+		try {
+			check();
+			return lua_iscfunction(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -922,9 +1941,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the value is a function
 	 */
-	public synchronized boolean isFunction(int index) {
-		check();
-		return lua_isfunction(index);
+	public boolean isFunction(int index) {
+		lock();
+		try {
+			check();
+			return lua_isfunction(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -939,9 +1963,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the value is a function
 	 */
-	public synchronized boolean isJavaFunction(int index) {
-		check();
-		return lua_isjavafunction(index);
+	public boolean isJavaFunction(int index) {
+		lock();
+		try {
+			check();
+			return lua_isjavafunction(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -960,9 +1989,14 @@ public abstract class LuaState {
 	 * @see #setConverter(Converter)
 	 * @see #getConverter()
 	 */
-	public synchronized boolean isJavaObject(int index, Class<?> type) {
-		check();
-		return converter.getTypeDistance(this, index, type) != Integer.MAX_VALUE;
+	public boolean isJavaObject(int index, Class<?> type) {
+		lock();
+		try {
+			check();
+			return converter.getTypeDistance(this, index, type) != Integer.MAX_VALUE;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -983,9 +2017,14 @@ public abstract class LuaState {
 	 * @return whether the value is a Java object
 	 * @see #isJavaObject(int, Class)
 	 */
-	public synchronized boolean isJavaObjectRaw(int index) {
-		check();
-		return lua_isjavaobject(index);
+	public boolean isJavaObjectRaw(int index) {
+		lock();
+		try {
+			check();
+			return lua_isjavaobject(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1000,9 +2039,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the value is <code>nil</code>
 	 */
-	public synchronized boolean isNil(int index) {
-		check();
-		return lua_isnil(index);
+	public boolean isNil(int index) {
+		lock();
+		try {
+			check();
+			return lua_isnil(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1016,9 +2060,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the stack index is non-valid
 	 */
-	public synchronized boolean isNone(int index) {
-		check();
-		return lua_isnone(index);
+	public boolean isNone(int index) {
+		lock();
+		try {
+			check();
+			return lua_isnone(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1034,9 +2083,14 @@ public abstract class LuaState {
 	 * @return whether the stack index is non-valid or its value is
 	 *         <code>nil</code>
 	 */
-	public synchronized boolean isNoneOrNil(int index) {
-		check();
-		return lua_isnoneornil(index);
+	public boolean isNoneOrNil(int index) {
+		lock();
+		try {
+			check();
+			return lua_isnoneornil(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1051,9 +2105,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the value is a number or a string convertible to a number
 	 */
-	public synchronized boolean isNumber(int index) {
-		check();
-		return lua_isnumber(index);
+	public boolean isNumber(int index) {
+		lock();
+		try {
+			check();
+			return lua_isnumber(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1068,9 +2127,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the value is a string or a number
 	 */
-	public synchronized boolean isString(int index) {
-		check();
-		return lua_isstring(index);
+	public boolean isString(int index) {
+		lock();
+		try {
+			check();
+			return lua_isstring(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1084,9 +2148,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the value is a table
 	 */
-	public synchronized boolean isTable(int index) {
-		check();
-		return lua_istable(index);
+	public boolean isTable(int index) {
+		lock();
+		try {
+			check();
+			return lua_istable(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1100,9 +2169,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return whether the value is a thread
 	 */
-	public synchronized boolean isThread(int index) {
-		check();
-		return lua_isthread(index);
+	public boolean isThread(int index) {
+		lock();
+		try {
+			check();
+			return lua_isthread(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Stack query
@@ -1124,10 +2198,15 @@ public abstract class LuaState {
 	 * @return the result of the comparison
 	 * @since JNLua 1.0.0
 	 */
-	public synchronized boolean compare(int index1, int index2,
+	public boolean compare(int index1, int index2,
 			RelOperator operator) {
-		check();
-		return lua_compare(index1, index2, operator.ordinal()) != 0;
+		lock();
+		try {
+			check();
+			return lua_compare(index1, index2, operator.ordinal()) != 0;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1141,8 +2220,13 @@ public abstract class LuaState {
 	 * @return whether the values are equal
 	 * @deprecated instead use {@link #compare(int, int, RelOperator)}
 	 */
-	public synchronized boolean equal(int index1, int index2) {
-		return compare(index1, index2, RelOperator.EQ);
+	public boolean equal(int index1, int index2) {
+		lock();
+		try {
+			return compare(index1, index2, RelOperator.EQ);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1154,8 +2238,13 @@ public abstract class LuaState {
 	 * @return the length
 	 * @deprecated instead use {@link #rawLen(int)}
 	 */
-	public synchronized int length(int index) {
-		return rawLen(index);
+	public int length(int index) {
+		lock();
+		try {
+			return rawLen(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1170,9 +2259,14 @@ public abstract class LuaState {
 	 *         the second index
 	 * @deprecated instead use {@link #compare(int, int, RelOperator)}
 	 */
-	public synchronized boolean lessThan(int index1, int index2)
+	public boolean lessThan(int index1, int index2)
 			throws LuaMemoryAllocationException, LuaRuntimeException {
-		return compare(index1, index2, RelOperator.LT);
+		lock();
+		try {
+			return compare(index1, index2, RelOperator.LT);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1190,9 +2284,14 @@ public abstract class LuaState {
 	 *            the second stack index
 	 * @return whether the values are equal
 	 */
-	public synchronized boolean rawEqual(int index1, int index2) {
-		check();
-		return lua_rawequal(index1, index2) != 0;
+	public boolean rawEqual(int index1, int index2) {
+		lock();
+		try {
+			check();
+			return lua_rawequal(index1, index2) != 0;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1205,9 +2304,14 @@ public abstract class LuaState {
 	 * @return the length
 	 * @since JNLua 1.0.0
 	 */
-	public synchronized int rawLen(int index) {
-		check();
-		return lua_rawlen(index);
+	public int rawLen(int index) {
+		lock();
+		try {
+			check();
+			return lua_rawlen(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1220,9 +2324,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return the boolean representation of the value
 	 */
-	public synchronized boolean toBoolean(int index) {
-		check();
-		return lua_toboolean(index);
+	public boolean toBoolean(int index) {
+		lock();
+		try {
+			check();
+			return lua_toboolean(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1235,9 +2344,68 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return the byte array representation of the value
 	 */
-	public synchronized byte[] toByteArray(int index) {
-		check();
-		return lua_tobytearray(index);
+	public byte[] toByteArray(int index) {
+		lock();
+		try {
+			check();
+			return lua_tobytearray(index);
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Converts the value at the specified stack index to a string and
+	 * transfers its bytes into a byte buffer. The bytes are written at the
+	 * position of the buffer, and the position is advanced by the number of
+	 * bytes transferred. If the value is a number, the value is converted to
+	 * a string, as with {@link #toString(int)}.
+	 * 
+	 * <p>
+	 * If the buffer is direct, the bytes are transferred without an
+	 * intermediate copy. The required buffer size can be determined with
+	 * {@link #rawLen(int)} for string values.
+	 * </p>
+	 * 
+	 * @param index
+	 *            the stack index
+	 * @param buffer
+	 *            the buffer to transfer the bytes into
+	 * @return the number of bytes transferred, or <code>-1</code> if the
+	 *         value is neither a string nor a number
+	 * @throws BufferOverflowException
+	 *             if the remaining space of the buffer is insufficient; no
+	 *             bytes are transferred in this case
+	 * @since JNLua 1.1.0
+	 */
+	public int toByteBuffer(int index, ByteBuffer buffer) {
+		lock();
+		try {
+			check();
+			if (buffer.isReadOnly()) {
+				throw new ReadOnlyBufferException();
+			}
+			if (buffer.isDirect()) {
+				int length = lua_tobuffer(index, buffer, buffer.position(),
+						buffer.remaining());
+				if (length > buffer.remaining()) {
+					throw new BufferOverflowException();
+				}
+				if (length > 0) {
+					((Buffer) buffer).position(buffer.position() + length);
+				}
+				return length;
+			}
+			ByteBuffer stringBuffer = toStringBuffer(index);
+			if (stringBuffer == null) {
+				return -1;
+			}
+			int length = stringBuffer.remaining();
+			buffer.put(stringBuffer);
+			return length;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1249,9 +2417,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return the integer representation, or <code>0</code>
 	 */
-	public synchronized long toInteger(int index) {
-		check();
-		return lua_tointeger(index);
+	public long toInteger(int index) {
+		lock();
+		try {
+			check();
+			return lua_tointeger(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1264,9 +2437,14 @@ public abstract class LuaState {
 	 * @return the integer representation, or <code>null</code>
 	 * @since JNLua 1.0.2
 	 */
-	public synchronized Long toIntegerX(int index) {
-		check();
-		return lua_tointegerx(index);
+	public Long toIntegerX(int index) {
+		lock();
+		try {
+			check();
+			return lua_tointegerx(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1277,9 +2455,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return the Java function, or <code>null</code>
 	 */
-	public synchronized JavaFunction toJavaFunction(int index) {
-		check();
-		return lua_tojavafunction(index);
+	public JavaFunction toJavaFunction(int index) {
+		lock();
+		try {
+			check();
+			return lua_tojavafunction(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1298,9 +2481,14 @@ public abstract class LuaState {
 	 * @see #getConverter()
 	 * @see #setConverter(Converter)
 	 */
-	public synchronized <T> T toJavaObject(int index, Class<T> type) {
-		check();
-		return converter.convertLuaValue(this, index, type);
+	public <T> T toJavaObject(int index, Class<T> type) {
+		lock();
+		try {
+			check();
+			return converter.convertLuaValue(this, index, type);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1318,9 +2506,14 @@ public abstract class LuaState {
 	 * @return the Java object, or <code>null</code>
 	 * @see #toJavaObject(int, Class)
 	 */
-	public synchronized Object toJavaObjectRaw(int index) {
-		check();
-		return lua_tojavaobject(index);
+	public Object toJavaObjectRaw(int index) {
+		lock();
+		try {
+			check();
+			return lua_tojavaobject(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1332,9 +2525,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return the number representation, or <code>0.0</code>
 	 */
-	public synchronized double toNumber(int index) {
-		check();
-		return lua_tonumber(index);
+	public double toNumber(int index) {
+		lock();
+		try {
+			check();
+			return lua_tonumber(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1347,9 +2545,14 @@ public abstract class LuaState {
 	 * @return the number representation, or <code>null</code>
 	 * @since JNLua 1.0.2
 	 */
-	public synchronized Double toNumberX(int index) {
-		check();
-		return lua_tonumberx(index);
+	public Double toNumberX(int index) {
+		lock();
+		try {
+			check();
+			return lua_tonumberx(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1363,9 +2566,14 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return the pointer representation, or <code>0L</code> if none
 	 */
-	public synchronized long toPointer(int index) {
-		check();
-		return lua_topointer(index);
+	public long toPointer(int index) {
+		lock();
+		try {
+			check();
+			return lua_topointer(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1378,13 +2586,26 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return the string representation, or <code>null</code>
 	 */
-	public synchronized String toString(int index) {
-		check();
-		byte[] bytes = lua_tobytearray(index);
-		if (bytes != null) {
-			return new String(bytes, characterSet);
-		} else {
-			return null;
+	public String toString(int index) {
+		lock();
+		try {
+			check();
+			ByteBuffer buffer = toStringBuffer(index);
+			if (buffer == null) {
+				return null;
+			}
+			if (decoder == null) {
+				decoder = characterSet.newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			}
+			try {
+				return decoder.decode(buffer).toString();
+			} catch (CharacterCodingException e) {
+				throw new IllegalStateException(e);
+			}
+		} finally {
+			unlock();
 		}
 	}
 
@@ -1399,10 +2620,50 @@ public abstract class LuaState {
 	 *            the stack index
 	 * @return the type, or <code>null</code> if the stack index is non-valid
 	 */
-	public synchronized LuaType type(int index) {
-		check();
-		int type = lua_type(index);
-		return type >= 0 ? LuaType.values()[type] : null;
+	public LuaType type(int index) {
+		lock();
+		try {
+			check();
+			int type = lua_type(index);
+			return type >= 0 ? LuaType.values()[type] : null;
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Fills an array with the type codes of the values at a range of stack
+	 * indexes. A type code is the ordinal of the Lua type, combined with
+	 * {@link #JAVA_TYPE_FLAG} for Java functions and Java objects, or
+	 * <code>-1</code> for a non-valid stack index. Type codes are converted
+	 * into Lua types by means of {@link LuaType#fromTypeCode(int)}.
+	 * 
+	 * <p>
+	 * The method retrieves all types at once, which is more efficient than
+	 * inspecting the values one by one with methods such as
+	 * {@link #type(int)}, {@link #isJavaFunction(int)} and
+	 * {@link #isJavaObjectRaw(int)}.
+	 * </p>
+	 * 
+	 * @param from
+	 *            the first stack index
+	 * @param to
+	 *            the last stack index, inclusive
+	 * @param types
+	 *            the array receiving the type code of stack index
+	 *            <code>from + i</code> at element <code>i</code>
+	 * @throws IllegalArgumentException
+	 *             if the array is too short for the range
+	 * @since JNLua 1.1.0
+	 */
+	public void types(int from, int to, int[] types) {
+		lock();
+		try {
+			check();
+			lua_types(from, to, types);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1421,27 +2682,32 @@ public abstract class LuaState {
 	 * @see LuaType#displayText()
 	 * @see Class#getCanonicalName()
 	 */
-	public synchronized String typeName(int index) {
-		check();
-		LuaType type = type(index);
-		if (type == null) {
-			return "none";
-		}
-		switch (type) {
-		case USERDATA:
-			if (isJavaObjectRaw(index)) {
-				Object object = toJavaObjectRaw(index);
-				Class<?> clazz;
-				if (object instanceof Class<?>) {
-					clazz = (Class<?>) object;
-				} else {
-					clazz = object.getClass();
+	public String typeName(int index) {
+		lock();
+		try {
+			check();
+			LuaType type = type(index);
+			if (type == null) {
+				return "none";
+			}
+			switch (type) {
+			case USERDATA:
+				if (isJavaObjectRaw(index)) {
+					Object object = toJavaObjectRaw(index);
+					Class<?> clazz;
+					if (object instanceof Class<?>) {
+						clazz = (Class<?>) object;
+					} else {
+						clazz = object.getClass();
+					}
+					return clazz.getCanonicalName();
 				}
-				return clazz.getCanonicalName();
+				break;
 			}
-			break;
+			return type.displayText();
+		} finally {
+			unlock();
 		}
-		return type.displayText();
 	}
 
 	// -- Stack operation
@@ -1457,9 +2723,14 @@ public abstract class LuaState {
 	 * @return the absolute stack index
 	 * @since JNLua 1.0.0
 	 */
-	public synchronized int absIndex(int index) {
-		check();
-		return lua_absindex(index);
+	public int absIndex(int index) {
+		lock();
+		try {
+			check();
+			return lua_absindex(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1470,13 +2741,18 @@ public abstract class LuaState {
 	 *            the operator to apply
 	 * @since JNLua 1.0.0
 	 */
-	public synchronized void arith(ArithOperator operator) {
-		check();
-		int value = operator.getValue(this);
-		if (value < 0) {
-			throw new IllegalArgumentException("Invalid arithmetic operator " + operator.name());
+	public void arith(ArithOperator operator) {
+		lock();
+		try {
+			check();
+			int value = operator.getValue(this);
+			if (value < 0) {
+				throw new IllegalArgumentException("Invalid arithmetic operator " + operator.name());
+			}
+			lua_arith(value);
+		} finally {
+			unlock();
 		}
-		lua_arith(value);
 	}
 
 	/**
@@ -1486,9 +2762,14 @@ public abstract class LuaState {
 	 * @param n
 	 *            the number of values to concatenate
 	 */
-	public synchronized void concat(int n) {
-		check();
-		lua_concat(n);
+	public void concat(int n) {
+		lock();
+		try {
+			check();
+			lua_concat(n);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1501,9 +2782,14 @@ public abstract class LuaState {
 	 *            the index to copy to
 	 * @since JNLua 1.0.0
 	 */
-	public synchronized void copy(int fromIndex, int toIndex) {
-		check();
-		lua_copy(fromIndex, toIndex);
+	public void copy(int fromIndex, int toIndex) {
+		lock();
+		try {
+			check();
+			lua_copy(fromIndex, toIndex);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1511,9 +2797,14 @@ public abstract class LuaState {
 	 * 
 	 * @return the number of values on the tack
 	 */
-	public synchronized int getTop() {
-		check();
-		return lua_gettop();
+	public int getTop() {
+		lock();
+		try {
+			check();
+			return lua_gettop();
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1525,9 +2816,14 @@ public abstract class LuaState {
 	 *            the index for which to push the length
 	 * @since JNLua 1.0.0
 	 */
-	public synchronized void len(int index) {
-		check();
-		lua_len(index);
+	public void len(int index) {
+		lock();
+		try {
+			check();
+			lua_len(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1537,9 +2833,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the stack index
 	 */
-	public synchronized void insert(int index) {
-		check();
-		lua_insert(index);
+	public void insert(int index) {
+		lock();
+		try {
+			check();
+			lua_insert(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1548,9 +2849,14 @@ public abstract class LuaState {
 	 * @param count
 	 *            the number of values to pop
 	 */
-	public synchronized void pop(int count) {
-		check();
-		lua_pop(count);
+	public void pop(int count) {
+		lock();
+		try {
+			check();
+			lua_pop(count);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1559,9 +2865,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the stack index
 	 */
-	public synchronized void pushValue(int index) {
-		check();
-		lua_pushvalue(index);
+	public void pushValue(int index) {
+		lock();
+		try {
+			check();
+			lua_pushvalue(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1571,9 +2882,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the stack index
 	 */
-	public synchronized void remove(int index) {
-		check();
-		lua_remove(index);
+	public void remove(int index) {
+		lock();
+		try {
+			check();
+			lua_remove(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1583,9 +2899,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the stack index
 	 */
-	public synchronized void replace(int index) {
-		check();
-		lua_replace(index);
+	public void replace(int index) {
+		lock();
+		try {
+			check();
+			lua_replace(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1599,9 +2920,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the index of the new top of the stack
 	 */
-	public synchronized void setTop(int index) {
-		check();
-		lua_settop(index);
+	public void setTop(int index) {
+		lock();
+		try {
+			check();
+			lua_settop(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Table
@@ -1613,9 +2939,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the stack index containing the table
 	 */
-	public synchronized void getTable(int index) {
-		check();
-		lua_gettable(index);
+	public void getTable(int index) {
+		lock();
+		try {
+			check();
+			lua_gettable(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1627,17 +2958,27 @@ public abstract class LuaState {
 	 * @param key
 	 *            the string key
 	 */
-	public synchronized void getField(int index, String key) {
-		check();
-		lua_getfield(index, key);
+	public void getField(int index, String key) {
+		lock();
+		try {
+			check();
+			lua_getfield(index, key);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
 	 * Creates a new table and pushes it on the stack.
 	 */
-	public synchronized void newTable() {
-		check();
-		lua_newtable();
+	public void newTable() {
+		lock();
+		try {
+			check();
+			lua_newtable();
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1649,9 +2990,14 @@ public abstract class LuaState {
 	 * @param recordCount
 	 *            the number of record elements
 	 */
-	public synchronized void newTable(int arrayCount, int recordCount) {
-		check();
-		lua_createtable(arrayCount, recordCount);
+	public void newTable(int arrayCount, int recordCount) {
+		lock();
+		try {
+			check();
+			lua_createtable(arrayCount, recordCount);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1664,9 +3010,14 @@ public abstract class LuaState {
 	 *            the stack index containing the table
 	 * @return whether there is a next key
 	 */
-	public synchronized boolean next(int index) {
-		check();
-		return lua_next(index) != 0;
+	public boolean next(int index) {
+		lock();
+		try {
+			check();
+			return lua_next(index) != 0;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1677,9 +3028,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the stack index containing the table
 	 */
-	public synchronized void rawGet(int index) {
-		check();
-		lua_rawget(index);
+	public void rawGet(int index) {
+		lock();
+		try {
+			check();
+			lua_rawget(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1691,9 +3047,14 @@ public abstract class LuaState {
 	 * @param key
 	 *            the integer key
 	 */
-	public synchronized void rawGet(int index, int key) {
-		check();
-		lua_rawgeti(index, key);
+	public void rawGet(int index, int key) {
+		lock();
+		try {
+			check();
+			lua_rawgeti(index, key);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1705,9 +3066,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the stack index containing the table
 	 */
-	public synchronized void rawSet(int index) {
-		check();
-		lua_rawset(index);
+	public void rawSet(int index) {
+		lock();
+		try {
+			check();
+			lua_rawset(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1720,9 +3086,14 @@ public abstract class LuaState {
 	 * @param key
 	 *            the integer key
 	 */
-	public synchronized void rawSet(int index, int key) {
-		check();
-		lua_rawseti(index, key);
+	public void rawSet(int index, int key) {
+		lock();
+		try {
+			check();
+			lua_rawseti(index, key);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1733,9 +3104,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the stack index containing the table
 	 */
-	public synchronized void setTable(int index) {
-		check();
-		lua_settable(index);
+	public void setTable(int index) {
+		lock();
+		try {
+			check();
+			lua_settable(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1747,9 +3123,14 @@ public abstract class LuaState {
 	 * @param key
 	 *            the string key
 	 */
-	public synchronized void setField(int index, String key) {
-		check();
-		lua_setfield(index, key);
+	public void setField(int index, String key) {
+		lock();
+		try {
+			check();
+			lua_setfield(index, key);
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Metatable
@@ -1765,9 +3146,14 @@ public abstract class LuaState {
 	 *            the string key
 	 * @return whether the metafield was pushed on the stack
 	 */
-	public synchronized boolean getMetafield(int index, String key) {
-		check();
-		return lua_getmetafield(index, key) != 0;
+	public boolean getMetafield(int index, String key) {
+		lock();
+		try {
+			check();
+			return lua_getmetafield(index, key) != 0;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1779,9 +3165,14 @@ public abstract class LuaState {
 	 *            the stack index containing the value to get the metatable from
 	 * @return whether the metatable was pushed on the stack
 	 */
-	public synchronized boolean getMetatable(int index) {
-		check();
-		return lua_getmetatable(index) != 0;
+	public boolean getMetatable(int index) {
+		lock();
+		try {
+			check();
+			return lua_getmetatable(index) != 0;
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1792,9 +3183,14 @@ public abstract class LuaState {
 	 * @param index
 	 *            the stack index containing the value to set the metatable for
 	 */
-	public synchronized void setMetatable(int index) {
-		check();
-		lua_setmetatable(index);
+	public void setMetatable(int index) {
+		lock();
+		try {
+			check();
+			lua_setmetatable(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Thread
@@ -1803,9 +3199,14 @@ public abstract class LuaState {
 	 * the new thread with that start function. The new thread is pushed on the
 	 * stack.
 	 */
-	public synchronized void newThread() {
-		check();
-		lua_newthread();
+	public void newThread() {
+		lock();
+		try {
+			check();
+			lua_newthread();
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1820,9 +3221,14 @@ public abstract class LuaState {
 	 *            the number of arguments to pass
 	 * @return the number of values returned by the thread
 	 */
-	public synchronized int resume(int index, int argCount) {
-		check();
-		return lua_resume(index, argCount);
+	public int resume(int index, int argCount) {
+		lock();
+		try {
+			check();
+			return lua_resume(index, argCount);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1836,9 +3242,14 @@ public abstract class LuaState {
 	 *            the index
 	 * @return the status
 	 */
-	public synchronized int status(int index) {
-		check();
-		return lua_status(index);
+	public int status(int index) {
+		lock();
+		try {
+			check();
+			return lua_status(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1852,10 +3263,15 @@ public abstract class LuaState {
 	 *            the number of results to pass
 	 * @return the return value of the Java function
 	 */
-	public synchronized int yield(int returnCount) {
-		check();
-		yield = true;
-		return returnCount;
+	public int yield(int returnCount) {
+		lock();
+		try {
+			check();
+			yield = true;
+			return returnCount;
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Reference
@@ -1869,10 +3285,15 @@ public abstract class LuaState {
 	 * @return the reference integer key
 	 * @see #unref(int, int)
 	 */
-	public synchronized int ref(int index) {
-		check();
-		return lua_ref(index);
+	public int ref(int index) {
+		lock();
+		try {
+			check();
+			return lua_ref(index);
 
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1887,9 +3308,14 @@ public abstract class LuaState {
 	 *            the reference integer key
 	 * @see #ref(int)
 	 */
-	public synchronized void unref(int index, int reference) {
-		check();
-		lua_unref(index, reference);
+	public void unref(int index, int reference) {
+		lock();
+		try {
+			check();
+			lua_unref(index, reference);
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Optimization
@@ -1905,9 +3331,14 @@ public abstract class LuaState {
 	 *            the stack index containing the table
 	 * @return the number of entries in the table
 	 */
-	public synchronized int tableSize(int index) {
-		check();
-		return lua_tablesize(index);
+	public int tableSize(int index) {
+		lock();
+		try {
+			check();
+			return lua_tablesize(index);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -1919,18 +3350,53 @@ public abstract class LuaState {
 	 * the same functionality due to the reduced number of JNI transitions.
 	 * </p>
 	 * 
-	 * @param index
-	 *            the stack index containing the table
-	 * @param from
-	 *            the index to move from
-	 * @param to
-	 *            the index to move to
-	 * @param count
-	 *            the number of elements to move
+	 * @param index
+	 *            the stack index containing the table
+	 * @param from
+	 *            the index to move from
+	 * @param to
+	 *            the index to move to
+	 * @param count
+	 *            the number of elements to move
+	 */
+	public void tableMove(int index, int from, int to, int count) {
+		lock();
+		try {
+			check();
+			lua_tablemove(index, from, to, count);
+		} finally {
+			unlock();
+		}
+	}
+
+	/**
+	 * Executes a batch of stack operations.
+	 * 
+	 * <p>
+	 * The method provides optimized performance over invoking the operations
+	 * individually due to the batch being executed with a single JNI
+	 * transition. The results of the batch are available from the batch after
+	 * the method returns.
+	 * </p>
+	 * 
+	 * @param batch
+	 *            the batch to execute
+	 * @throws IllegalArgumentException
+	 *             if the batch has been created for another Lua state
+	 * @see LuaBatch
+	 * @since JNLua 1.1.0
 	 */
-	public synchronized void tableMove(int index, int from, int to, int count) {
-		check();
-		lua_tablemove(index, from, to, count);
+	public void execute(LuaBatch batch) {
+		lock();
+		try {
+			check();
+			if (batch.getLuaState() != this) {
+				throw new IllegalArgumentException("batch belongs to another Lua state");
+			}
+			batch.run();
+		} finally {
+			unlock();
+		}
 	}
 
 	// -- Argument checking
@@ -1946,10 +3412,15 @@ public abstract class LuaState {
 	 * @param msg
 	 *            the error message
 	 */
-	public synchronized void checkArg(int index, boolean condition, String msg) {
-		check();
-		if (!condition) {
-			throw getArgException(index, msg);
+	public void checkArg(int index, boolean condition, String msg) {
+		lock();
+		try {
+			check();
+			if (!condition) {
+				throw getArgException(index, msg);
+			}
+		} finally {
+			unlock();
 		}
 	}
 
@@ -1963,12 +3434,17 @@ public abstract class LuaState {
 	 *            the argument index
 	 * @return the byte array value
 	 */
-	public synchronized byte[] checkByteArray(int index) {
-		check();
-		if (!isString(index)) {
-			throw getArgTypeException(index, LuaType.STRING);
+	public byte[] checkByteArray(int index) {
+		lock();
+		try {
+			check();
+			if (!isString(index)) {
+				throw getArgTypeException(index, LuaType.STRING);
+			}
+			return toByteArray(index);
+		} finally {
+			unlock();
 		}
-		return toByteArray(index);
 	}
 
 	/**
@@ -1984,12 +3460,17 @@ public abstract class LuaState {
 	 *            the default value
 	 * @return the string value, or the default value
 	 */
-	public synchronized byte[] checkByteArray(int index, byte[] d) {
-		check();
-		if (isNoneOrNil(index)) {
-			return d;
+	public byte[] checkByteArray(int index, byte[] d) {
+		lock();
+		try {
+			check();
+			if (isNoneOrNil(index)) {
+				return d;
+			}
+			return checkByteArray(index);
+		} finally {
+			unlock();
 		}
-		return checkByteArray(index);
 	}
 
 	/**
@@ -2005,9 +3486,14 @@ public abstract class LuaState {
 	 * @return the string value
 	 * @since JNLua 1.0.0
 	 */
-	public synchronized <T extends Enum<T>> T checkEnum(int index, T[] values) {
-		check();
-		return checkEnum(index, values, null);
+	public <T extends Enum<T>> T checkEnum(int index, T[] values) {
+		lock();
+		try {
+			check();
+			return checkEnum(index, values, null);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -2027,17 +3513,22 @@ public abstract class LuaState {
 	 * @return the string value, or the default value
 	 * @since JNLua 1.0.0
 	 */
-	public synchronized <T extends Enum<T>> T checkEnum(int index, T[] values,
+	public <T extends Enum<T>> T checkEnum(int index, T[] values,
 			T d) {
-		check();
-		String s = d != null ? checkString(index, d.name())
-				: checkString(index);
-		for (int i = 0; i < values.length; i++) {
-			if (values[i].name().equals(s)) {
-				return values[i];
+		lock();
+		try {
+			check();
+			String s = d != null ? checkString(index, d.name())
+					: checkString(index);
+			for (int i = 0; i < values.length; i++) {
+				if (values[i].name().equals(s)) {
+					return values[i];
+				}
 			}
+			throw getArgException(index, String.format("invalid option '%s'", s));
+		} finally {
+			unlock();
 		}
-		throw getArgException(index, String.format("invalid option '%s'", s));
 	}
 
 	/**
@@ -2050,13 +3541,18 @@ public abstract class LuaState {
 	 *            the argument index
 	 * @return the integer value
 	 */
-	public synchronized long checkInteger(int index) {
-		check();
-		Long value = toIntegerX(index);
-		if (value == null) {
-			throw getArgTypeException(index, LuaType.NUMBER);
+	public long checkInteger(int index) {
+		lock();
+		try {
+			check();
+			Long value = toIntegerX(index);
+			if (value == null) {
+				throw getArgTypeException(index, LuaType.NUMBER);
+			}
+			return value.longValue();
+		} finally {
+			unlock();
 		}
-		return value.longValue();
 	}
 
 	/**
@@ -2073,12 +3569,17 @@ public abstract class LuaState {
 	 *            the default value
 	 * @return the integer value, or the default value
 	 */
-	public synchronized long checkInteger(int index, int d) {
-		check();
-		if (isNoneOrNil(index)) {
-			return d;
+	public long checkInteger(int index, int d) {
+		lock();
+		try {
+			check();
+			if (isNoneOrNil(index)) {
+				return d;
+			}
+			return checkInteger(index);
+		} finally {
+			unlock();
 		}
-		return checkInteger(index);
 	}
 
 	/**
@@ -2099,16 +3600,21 @@ public abstract class LuaState {
 	 *            the expected type
 	 * @return the Java object, or <code>null</code>
 	 */
-	public synchronized <T> T checkJavaObject(int index, Class<T> clazz) {
-		check();
-		if (!isJavaObject(index, clazz)) {
-			checkArg(
-					index,
-					false,
-					String.format("%s expected, got %s",
-							clazz.getCanonicalName(), typeName(index)));
+	public <T> T checkJavaObject(int index, Class<T> clazz) {
+		lock();
+		try {
+			check();
+			if (!isJavaObject(index, clazz)) {
+				checkArg(
+						index,
+						false,
+						String.format("%s expected, got %s",
+								clazz.getCanonicalName(), typeName(index)));
+			}
+			return toJavaObject(index, clazz);
+		} finally {
+			unlock();
 		}
-		return toJavaObject(index, clazz);
 	}
 
 	/**
@@ -2127,12 +3633,17 @@ public abstract class LuaState {
 	 *            the default value
 	 * @return the Java object, or the default value
 	 */
-	public synchronized <T> T checkJavaObject(int index, Class<T> clazz, T d) {
-		check();
-		if (isNoneOrNil(index)) {
-			return d;
+	public <T> T checkJavaObject(int index, Class<T> clazz, T d) {
+		lock();
+		try {
+			check();
+			if (isNoneOrNil(index)) {
+				return d;
+			}
+			return checkJavaObject(index, clazz);
+		} finally {
+			unlock();
 		}
-		return checkJavaObject(index, clazz);
 	}
 
 	/**
@@ -2145,13 +3656,18 @@ public abstract class LuaState {
 	 *            the argument index
 	 * @return the number value
 	 */
-	public synchronized double checkNumber(int index) {
-		check();
-		Double number = toNumberX(index);
-		if (number == null) {
-			throw getArgTypeException(index, LuaType.NUMBER);
+	public double checkNumber(int index) {
+		lock();
+		try {
+			check();
+			Double number = toNumberX(index);
+			if (number == null) {
+				throw getArgTypeException(index, LuaType.NUMBER);
+			}
+			return number.doubleValue();
+		} finally {
+			unlock();
 		}
-		return number.doubleValue();
 	}
 
 	/**
@@ -2168,12 +3684,17 @@ public abstract class LuaState {
 	 *            the default value
 	 * @return the number value, or the default value
 	 */
-	public synchronized double checkNumber(int index, double d) {
-		check();
-		if (isNoneOrNil(index)) {
-			return d;
+	public double checkNumber(int index, double d) {
+		lock();
+		try {
+			check();
+			if (isNoneOrNil(index)) {
+				return d;
+			}
+			return checkNumber(index);
+		} finally {
+			unlock();
 		}
-		return checkNumber(index);
 	}
 
 	/**
@@ -2188,9 +3709,14 @@ public abstract class LuaState {
 	 *            the options
 	 * @return the index position of the matched option
 	 */
-	public synchronized int checkOption(int index, String[] options) {
-		check();
-		return checkOption(index, options, null);
+	public int checkOption(int index, String[] options) {
+		lock();
+		try {
+			check();
+			return checkOption(index, options, null);
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -2209,15 +3735,20 @@ public abstract class LuaState {
 	 *            the default value
 	 * @return the index position of the matched option
 	 */
-	public synchronized int checkOption(int index, String[] options, String d) {
-		check();
-		String s = d != null ? checkString(index, d) : checkString(index);
-		for (int i = 0; i < options.length; i++) {
-			if (options[i].equals(s)) {
-				return i;
+	public int checkOption(int index, String[] options, String d) {
+		lock();
+		try {
+			check();
+			String s = d != null ? checkString(index, d) : checkString(index);
+			for (int i = 0; i < options.length; i++) {
+				if (options[i].equals(s)) {
+					return i;
+				}
 			}
+			throw getArgException(index, String.format("invalid option '%s'", s));
+		} finally {
+			unlock();
 		}
-		throw getArgException(index, String.format("invalid option '%s'", s));
 	}
 
 	/**
@@ -2229,12 +3760,17 @@ public abstract class LuaState {
 	 *            the argument index
 	 * @return the string value
 	 */
-	public synchronized String checkString(int index) {
-		check();
-		if (!isString(index)) {
-			throw getArgTypeException(index, LuaType.STRING);
+	public String checkString(int index) {
+		lock();
+		try {
+			check();
+			if (!isString(index)) {
+				throw getArgTypeException(index, LuaType.STRING);
+			}
+			return toString(index);
+		} finally {
+			unlock();
 		}
-		return toString(index);
 	}
 
 	/**
@@ -2250,12 +3786,17 @@ public abstract class LuaState {
 	 *            the default value
 	 * @return the string value, or the default value
 	 */
-	public synchronized String checkString(int index, String d) {
-		check();
-		if (isNoneOrNil(index)) {
-			return d;
+	public String checkString(int index, String d) {
+		lock();
+		try {
+			check();
+			if (isNoneOrNil(index)) {
+				return d;
+			}
+			return checkString(index);
+		} finally {
+			unlock();
 		}
-		return checkString(index);
 	}
 
 	/**
@@ -2268,10 +3809,15 @@ public abstract class LuaState {
 	 * @param type
 	 *            the type
 	 */
-	public synchronized void checkType(int index, LuaType type) {
-		check();
-		if (type(index) != type) {
-			throw getArgTypeException(index, type);
+	public void checkType(int index, LuaType type) {
+		lock();
+		try {
+			check();
+			if (type(index) != type) {
+				throw getArgTypeException(index, type);
+			}
+		} finally {
+			unlock();
 		}
 	}
 
@@ -2283,10 +3829,15 @@ public abstract class LuaState {
 	 *            the stack index containing the Lua value
 	 * @return the Lua value proxy
 	 */
-	public synchronized LuaValueProxy getProxy(int index) {
-		check();
-		pushValue(index);
-		return new LuaValueProxyImpl(ref(REGISTRYINDEX));
+	public LuaValueProxy getProxy(int index) {
+		lock();
+		try {
+			check();
+			pushValue(index);
+			return new LuaValueProxyImpl(ref(REGISTRYINDEX));
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -2303,9 +3854,14 @@ public abstract class LuaState {
 	 * @return the proxy object
 	 */
 	@SuppressWarnings("unchecked")
-	public synchronized <T> T getProxy(int index, Class<T> interfaze) {
-		check();
-		return (T) getProxy(index, new Class<?>[] { interfaze });
+	public <T> T getProxy(int index, Class<T> interfaze) {
+		lock();
+		try {
+			check();
+			return (T) getProxy(index, new Class<?>[] { interfaze });
+		} finally {
+			unlock();
+		}
 	}
 
 	/**
@@ -2321,30 +3877,61 @@ public abstract class LuaState {
 	 *            the interfaces
 	 * @return the proxy object
 	 */
-	public synchronized LuaValueProxy getProxy(int index, Class<?>[] interfaces) {
-		check();
-		pushValue(index);
-		if (!isTable(index)) {
-			throw new IllegalArgumentException(String.format(
-					"index %d is not a table", index));
-		}
-		Class<?>[] allInterfaces = new Class<?>[interfaces.length + 1];
-		System.arraycopy(interfaces, 0, allInterfaces, 0, interfaces.length);
-		allInterfaces[allInterfaces.length - 1] = LuaValueProxy.class;
-		int reference = ref(REGISTRYINDEX);
+	public LuaValueProxy getProxy(int index, Class<?>[] interfaces) {
+		lock();
 		try {
-			Object proxy = Proxy.newProxyInstance(classLoader, allInterfaces,
-					new LuaInvocationHandler(reference));
-			reference = -1;
-			return (LuaValueProxy) proxy;
-		} finally {
-			if (reference >= 0) {
-				unref(REGISTRYINDEX, reference);
+			check();
+			pushValue(index);
+			if (!isTable(index)) {
+				throw new IllegalArgumentException(String.format(
+						"index %d is not a table", index));
+			}
+			Class<?>[] allInterfaces = new Class<?>[interfaces.length + 1];
+			System.arraycopy(interfaces, 0, allInterfaces, 0, interfaces.length);
+			allInterfaces[allInterfaces.length - 1] = LuaValueProxy.class;
+			int reference = ref(REGISTRYINDEX);
+			try {
+				Object proxy = Proxy.newProxyInstance(classLoader, allInterfaces,
+						new LuaInvocationHandler(reference));
+				reference = -1;
+				return (LuaValueProxy) proxy;
+			} finally {
+				if (reference >= 0) {
+					unref(REGISTRYINDEX, reference);
+				}
 			}
+		} finally {
+			unlock();
 		}
 	}
 
 	// -- Private methods
+	/**
+	 * Acquires the scratch array for the type codes of stack values, with at
+	 * least the specified length. The array must be released by means of
+	 * {@link #releaseTypes(int[])}. If the array is already acquired, a new
+	 * array is returned. The method must be invoked while holding the lock
+	 * of this Lua state.
+	 */
+	int[] acquireTypes(int length) {
+		int[] types = typesBuffer;
+		if (types == null || types.length < length) {
+			return new int[Math.max(length, TYPES_BUFFER_CAPACITY)];
+		}
+		typesBuffer = null;
+		return types;
+	}
+
+	/**
+	 * Releases a scratch array for the type codes of stack values, keeping
+	 * it for reuse.
+	 */
+	void releaseTypes(int[] types) {
+		if (typesBuffer == null || typesBuffer.length < types.length) {
+			typesBuffer = types;
+		}
+	}
+
 	/**
 	 * Returns whether this Lua state is open.
 	 */
@@ -2361,6 +3948,49 @@ public abstract class LuaState {
 			if (isOpenInternal()) {
 				throw new IllegalStateException("cannot close");
 			}
+			luaMemory = null;
+			classMetatables.clear();
+			if (cleanupRef != null) {
+				cleanupRef.cancel();
+				cleanupRef = null;
+			}
+		}
+	}
+
+	/**
+	 * Acquires the current lock of this Lua state, retrying if the lock is
+	 * replaced while waiting for it. Returns the acquired lock.
+	 */
+	private Lock acquireLock() {
+		while (true) {
+			Lock lock = this.lock;
+			lock.lock();
+			if (lock == this.lock) {
+				return lock;
+			}
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks that the current thread is the owner of this confined Lua state.
+	 */
+	private static void checkOwner(Thread owner) {
+		if (owner != Thread.currentThread()) {
+			throw new IllegalStateException("Lua state is confined to thread "
+					+ owner.getName());
+		}
+	}
+
+	/**
+	 * Checks that the current thread does not hold the lock of this Lua
+	 * state, as far as the lock can tell.
+	 */
+	private void checkNotLocked() {
+		Lock lock = this.lock;
+		if (lock instanceof ReentrantLock
+				&& ((ReentrantLock) lock).isHeldByCurrentThread()) {
+			throw new IllegalStateException("Lua state is locked");
 		}
 	}
 
@@ -2373,14 +4003,176 @@ public abstract class LuaState {
 			throw new IllegalStateException("Lua state is closed");
 		}
 
-		// Check proxy queue
+		// Release collected proxies
+		if (proxyReleasePending) {
+			releaseProxies();
+		}
+	}
+
+	/**
+	 * Releases the references of collected Lua value proxies.
+	 */
+	private void releaseProxies() {
+		proxyReleasePending = false;
 		LuaValueProxyRef luaValueProxyRef;
-		while ((luaValueProxyRef = (LuaValueProxyRef) proxyQueue.poll()) != null) {
-			proxySet.remove(luaValueProxyRef);
+		while ((luaValueProxyRef = proxyPending.poll()) != null) {
 			lua_unref(REGISTRYINDEX, luaValueProxyRef.getReference());
 		}
 	}
 
+	/**
+	 * Returns the registry reference of the class metatable for Java objects
+	 * of a class, creating the metatable on first use. Returns 0 if the
+	 * objects use the generic Java object metatable.
+	 */
+	private int getClassMetatable(Class<?> clazz) {
+		Integer metatable = classMetatables.get(clazz);
+		if (metatable == null) {
+			metatable = Integer.valueOf(createClassMetatable(clazz));
+			classMetatables.put(clazz, metatable);
+		}
+		return metatable.intValue();
+	}
+
+	/**
+	 * Creates the class metatable for Java objects of a class and returns its
+	 * registry reference, or returns 0 if the Java reflector does not provide
+	 * the methods of the class. Classes, arrays and objects with their own
+	 * Java reflector or type are always indexed by the Java reflector.
+	 */
+	private int createClassMetatable(Class<?> clazz) {
+		if (clazz == Class.class || clazz.isArray()
+				|| JavaReflector.class.isAssignableFrom(clazz)
+				|| TypedJavaObject.class.isAssignableFrom(clazz)) {
+			return 0;
+		}
+		Map<String, JavaFunction> methods = javaReflector.getMethods(clazz);
+		if (methods == null) {
+			return 0;
+		}
+		int top = lua_gettop();
+		try {
+			lua_createtable(0, methods.size());
+			for (Map.Entry<String, JavaFunction> entry : methods.entrySet()) {
+				lua_pushjavafunction(entry.getValue());
+				lua_setfield(-2, entry.getKey());
+			}
+			return lua_newclassmetatable();
+		} finally {
+			lua_settop(top);
+		}
+	}
+
+	/**
+	 * Discards the class metatables. Java objects already pushed with a class
+	 * metatable revert to indexing by the Java reflector.
+	 */
+	private void clearClassMetatables() {
+		if (isOpenInternal()) {
+			for (Integer metatable : classMetatables.values()) {
+				if (metatable.intValue() != 0) {
+					lua_rawgeti(REGISTRYINDEX, metatable.intValue());
+					lua_getfield(REGISTRYINDEX, JAVA_OBJECT_METATABLE);
+					lua_getfield(-1, "__index");
+					lua_setfield(-3, "__index");
+					lua_pop(2);
+					lua_unref(REGISTRYINDEX, metatable.intValue());
+				}
+			}
+		}
+		classMetatables.clear();
+	}
+
+	/**
+	 * Returns the string buffer, cleared and with at least the specified
+	 * capacity.
+	 */
+	private ByteBuffer getStringBuffer(int capacity) {
+		if (stringBuffer == null || stringBuffer.capacity() < capacity) {
+			int newCapacity = stringBuffer != null ? stringBuffer.capacity()
+					: STRING_BUFFER_CAPACITY;
+			while (newCapacity < capacity) {
+				newCapacity *= 2;
+			}
+			stringBuffer = ByteBuffer.allocateDirect(newCapacity);
+		}
+		((Buffer) stringBuffer).clear();
+		return stringBuffer;
+	}
+
+	/**
+	 * Takes the string buffer, cleared and with at least the specified
+	 * capacity, until it is returned by means of
+	 * {@link #releaseStringBuffer(ByteBuffer)}. Buffers that Lua reads while
+	 * running code, such as chunks being parsed, must be taken, as the code
+	 * may reenter this Lua state and use the string buffer; a reentrant use
+	 * then allocates a new string buffer.
+	 */
+	private ByteBuffer acquireStringBuffer(int capacity) {
+		ByteBuffer buffer = getStringBuffer(capacity);
+		stringBuffer = null;
+		return buffer;
+	}
+
+	/**
+	 * Returns a taken string buffer, keeping the larger of it and a string
+	 * buffer allocated in the meantime.
+	 */
+	private void releaseStringBuffer(ByteBuffer buffer) {
+		if (stringBuffer == null || stringBuffer.capacity() < buffer.capacity()) {
+			stringBuffer = buffer;
+		}
+	}
+
+	/**
+	 * Encodes a string into the string buffer. Returns the string buffer
+	 * positioned after the encoded bytes, or <code>null</code> if the string
+	 * is too long for the string buffer.
+	 */
+	private ByteBuffer encodeString(String s) {
+		if (encoder == null) {
+			encoder = characterSet.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		double maxLength = Math.ceil(s.length() * (double) encoder.maxBytesPerChar());
+		if (maxLength > STRING_BUFFER_MAX_CAPACITY) {
+			return null;
+		}
+		ByteBuffer buffer = getStringBuffer((int) maxLength);
+		encoder.reset();
+		CoderResult result = encoder.encode(CharBuffer.wrap(s), buffer, true);
+		if (result.isUnderflow()) {
+			result = encoder.flush(buffer);
+		}
+		return result.isUnderflow() ? buffer : null;
+	}
+
+	/**
+	 * Converts the value at the specified stack index to a string and returns
+	 * its bytes in a buffer ranging from position to limit, or
+	 * <code>null</code> if the value is neither a string nor a number. The
+	 * returned buffer is the string buffer, unless the string is too long for
+	 * the string buffer.
+	 */
+	private ByteBuffer toStringBuffer(int index) {
+		ByteBuffer buffer = getStringBuffer(0);
+		int length = lua_tobuffer(index, buffer, 0, buffer.capacity());
+		if (length > buffer.capacity()) {
+			if (length > STRING_BUFFER_MAX_CAPACITY) {
+				byte[] bytes = lua_tobytearray(index);
+				return bytes != null ? ByteBuffer.wrap(bytes) : null;
+			}
+			buffer = getStringBuffer(length);
+			length = lua_tobuffer(index, buffer, 0, buffer.capacity());
+		}
+		if (length < 0) {
+			return null;
+		}
+		((Buffer) buffer).limit(length);
+		return buffer;
+	}
+
 	/**
 	 * Creates a Lua runtime exception to indicate an argument type error.
 	 */
@@ -2455,15 +4247,30 @@ public abstract class LuaState {
 
 	abstract void lua_close(boolean ownState);
 
+	abstract Disposer stateDisposer();
+
+	abstract ByteBuffer lua_memory();
+
+	abstract void lua_sethandlejavaobjects(boolean handleJavaObjects);
+
 	abstract int lua_gc(int what, int data);
 
 	abstract void lua_openlib(int lib);
 
+	abstract void lua_loadbuffer(ByteBuffer buffer, int position, int length,
+			String chunkname, String mode);
+
 	abstract void lua_load(InputStream inputStream, String chunkname,
 			String mode) throws IOException;
 
 	abstract void lua_dump(OutputStream outputStream, boolean strip) throws IOException;
 
+	abstract byte[] lua_dumpbuffer(boolean strip);
+
+	abstract byte[] lua_snapshot();
+
+	abstract void lua_restoresnapshot(byte[] image);
+
 	abstract void lua_pcall(int nargs, int nresults);
 
 	abstract void lua_getglobal(String name);
@@ -2474,11 +4281,18 @@ public abstract class LuaState {
 
 	abstract void lua_pushbytearray(byte[] b);
 	
+	abstract void lua_pushbuffer(ByteBuffer buffer, int position, int length);
+
 	abstract void lua_pushinteger(long n);
 
 	abstract void lua_pushjavafunction(JavaFunction f);
 
-	abstract void lua_pushjavaobject(Object object);
+	abstract void lua_pushjavaobject(Object object, int metatable);
+
+	abstract void lua_pushjavaobjectcached(Object object, int hash,
+			int metatable);
+
+	abstract int lua_newclassmetatable();
 
 	abstract void lua_pushnil();
 
@@ -2518,6 +4332,9 @@ public abstract class LuaState {
 
 	abstract byte[] lua_tobytearray(int index);
 	
+	abstract int lua_tobuffer(int index, ByteBuffer buffer, int position,
+			int capacity);
+
 	abstract long lua_tointeger(int index);
 
 	abstract Long lua_tointegerx(int index);
@@ -2534,6 +4351,8 @@ public abstract class LuaState {
 
 	abstract int lua_type(int index);
 
+	abstract void lua_types(int from, int to, int[] types);
+
 	abstract int lua_absindex(int index);
 
 	abstract int lua_arith(int operator);
@@ -2606,6 +4425,9 @@ public abstract class LuaState {
 
 	abstract void lua_tablemove(int index, int from, int to, int count);
 
+	abstract long lua_batch(ByteBuffer program, int position, int limit,
+			ByteBuffer results, int resultPosition);
+
 	// -- Enumerated types
 	/**
 	 * Represents a Lua library.
@@ -2916,21 +4738,139 @@ public abstract class LuaState {
 		LE
 	}
 
+	/**
+	 * Memory allocators of a Lua state.
+	 * 
+	 * @since JNLua 1.1.0
+	 */
+	public enum Allocator {
+		/**
+		 * The system allocator. Each Lua object is allocated and freed by the
+		 * C library individually.
+		 */
+		SYSTEM,
+
+		/**
+		 * The arena allocator. Small Lua objects are allocated from large
+		 * chunks owned by the Lua state, grouped by size class, and freed
+		 * blocks are kept for reuse by the same state. This avoids contention
+		 * on the C library allocator between states. The chunks are released
+		 * all at once when the Lua state is closed.
+		 */
+		ARENA
+	}
+
 	// -- Nested types
 	/**
-	 * Phantom reference to a Lua value proxy for pre-mortem cleanup.
+	 * Releases a native resource by its pointer.
+	 */
+	interface Disposer {
+		/**
+		 * Releases the native resource.
+		 */
+		void dispose(long pointer);
+	}
+
+	/**
+	 * Phantom reference performing cleanup once its referent has been
+	 * collected. The references are processed by a shared daemon thread,
+	 * which keeps finalization out of the garbage collector. Registered
+	 * references are strongly held until they are processed or cancelled.
+	 */
+	private static abstract class CleanupRef extends PhantomReference<Object> {
+		// -- Static
+		private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+		private static final Set<CleanupRef> REFS = Collections
+				.newSetFromMap(new ConcurrentHashMap<CleanupRef, Boolean>());
+
+		static {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (true) {
+						try {
+							CleanupRef cleanupRef = (CleanupRef) QUEUE.remove();
+							if (REFS.remove(cleanupRef)) {
+								cleanupRef.clean();
+							}
+						} catch (InterruptedException e) {
+							// continue
+						} catch (Throwable e) {
+							// ignore; the cleaner thread must survive
+						}
+					}
+				}
+			}, "JNLua Cleaner");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		// -- Construction
+		/**
+		 * Creates and registers a new instance.
+		 */
+		public CleanupRef(Object referent) {
+			super(referent, QUEUE);
+			REFS.add(this);
+		}
+
+		// -- Operations
+		/**
+		 * Cancels the cleanup.
+		 */
+		public void cancel() {
+			REFS.remove(this);
+			clear();
+		}
+
+		/**
+		 * Performs the cleanup. Invoked on the cleaner thread.
+		 */
+		abstract void clean();
+	}
+
+	/**
+	 * Releases a native resource once its Java object has been collected.
 	 */
-	private static class LuaValueProxyRef extends
-			PhantomReference<LuaValueProxyImpl> {
+	private static class NativeRef extends CleanupRef {
 		// -- State
-		private int reference;
+		private final long pointer;
+		private final Disposer disposer;
+
+		// -- Construction
+		/**
+		 * Creates a new instance.
+		 */
+		public NativeRef(Object referent, long pointer, Disposer disposer) {
+			super(referent);
+			this.pointer = pointer;
+			this.disposer = disposer;
+		}
+
+		// -- CleanupRef methods
+		@Override
+		void clean() {
+			disposer.dispose(pointer);
+		}
+	}
+
+	/**
+	 * Phantom reference to a Lua value proxy for pre-mortem cleanup. Once the
+	 * proxy has been collected, the reference is queued for release with its
+	 * Lua state, which releases it at the next API call.
+	 */
+	private static class LuaValueProxyRef extends CleanupRef {
+		// -- State
+		private final LuaState luaState;
+		private final int reference;
 
 		// --Construction
 		/**
 		 * Creates a new instance.
 		 */
 		public LuaValueProxyRef(LuaValueProxyImpl luaProxyImpl, int reference) {
-			super(luaProxyImpl, luaProxyImpl.getLuaState().proxyQueue);
+			super(luaProxyImpl);
+			this.luaState = luaProxyImpl.getLuaState();
 			this.reference = reference;
 		}
 
@@ -2941,6 +4881,13 @@ public abstract class LuaState {
 		public int getReference() {
 			return reference;
 		}
+
+		// -- CleanupRef methods
+		@Override
+		void clean() {
+			luaState.proxyPending.offer(this);
+			luaState.proxyReleasePending = true;
+		}
 	}
 
 	/**
@@ -2956,7 +4903,7 @@ public abstract class LuaState {
 		 */
 		public LuaValueProxyImpl(int reference) {
 			this.reference = reference;
-			proxySet.add(new LuaValueProxyRef(this, reference));
+			new LuaValueProxyRef(this, reference);
 		}
 
 		// -- LuaProxy methods
@@ -2967,8 +4914,11 @@ public abstract class LuaState {
 
 		@Override
 		public void pushValue() {
-			synchronized (LuaState.this) {
+			lock();
+			try {
 				rawGet(REGISTRYINDEX, reference);
+			} finally {
+				unlock();
 			}
 		}
 	}
@@ -2996,7 +4946,8 @@ public abstract class LuaState {
 			}
 
 			// Handle Lua calls
-			synchronized (LuaState.this) {
+			lock();
+			try {
 				pushValue();
 				getField(-1, method.getName());
 				if (!isFunction(-1)) {
@@ -3018,6 +4969,8 @@ public abstract class LuaState {
 						pop(1);
 					}
 				}
+			} finally {
+				unlock();
 			}
 		}
 	}
@@ -3035,24 +4988,13 @@ public abstract class LuaState {
 		long luaDebug;
 
 		/**
-		 * Ensures proper finalization of this Lua debug structure.
-		 */
-		Object finalizeGuardian;
-
-		/**
-		 * Creates a new instance.
+		 * Creates a new instance. An owned structure is freed once this
+		 * object has been collected.
 		 */
 		LuaDebug(long luaDebug, boolean ownDebug) {
 			this.luaDebug = luaDebug;
 			if (ownDebug) {
-				finalizeGuardian = new Object() {
-					@Override
-					public void finalize() {
-						synchronized (LuaDebug.this) {
-							lua_debugfree();
-						}
-					}
-				};
+				new NativeRef(this, luaDebug, debugDisposer());
 			}
 		}
 
@@ -3073,7 +5015,7 @@ public abstract class LuaState {
 		}
 
 		// -- Native methods
-		abstract void lua_debugfree();
+		abstract Disposer debugDisposer();
 
 		abstract String lua_debugname();
 
@@ -25,6 +25,7 @@ package org.terasology.jnlua;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class LuaState52 extends LuaState {
     public LuaState52() {
@@ -35,6 +36,14 @@ public class LuaState52 extends LuaState {
         super(memory);
     }
 
+    public LuaState52(Allocator allocator) {
+        super(allocator);
+    }
+
+    public LuaState52(int memory, Allocator allocator) {
+        super(memory, allocator);
+    }
+
     @Override
     native int lua_integerwidth();
 
@@ -53,12 +62,29 @@ public class LuaState52 extends LuaState {
     @Override
     native void lua_close(boolean ownState);
 
+    @Override
+    Disposer stateDisposer() {
+        return LuaState52::lua_freestate;
+    }
+
+    private static native void lua_freestate(long luaState);
+
+    @Override
+    native ByteBuffer lua_memory();
+
+    @Override
+    native void lua_sethandlejavaobjects(boolean handleJavaObjects);
+
     @Override
     native int lua_gc(int what, int data);
 
     @Override
     native void lua_openlib(int lib);
 
+    @Override
+    native void lua_loadbuffer(ByteBuffer buffer, int position, int length,
+                               String chunkname, String mode);
+
     @Override
     native void lua_load(InputStream inputStream, String chunkname,
                            String mode) throws IOException;
@@ -66,6 +92,15 @@ public class LuaState52 extends LuaState {
     @Override
     native void lua_dump(OutputStream outputStream, boolean strip) throws IOException;
 
+    @Override
+    native byte[] lua_dumpbuffer(boolean strip);
+
+    @Override
+    native byte[] lua_snapshot();
+
+    @Override
+    native void lua_restoresnapshot(byte[] image);
+
     @Override
     native void lua_pcall(int nargs, int nresults);
 
@@ -81,6 +116,9 @@ public class LuaState52 extends LuaState {
     @Override
     native void lua_pushbytearray(byte[] b);
 
+    @Override
+    native void lua_pushbuffer(ByteBuffer buffer, int position, int length);
+
     @Override
     native void lua_pushinteger(long n);
 
@@ -88,7 +126,14 @@ public class LuaState52 extends LuaState {
     native void lua_pushjavafunction(JavaFunction f);
 
     @Override
-    native void lua_pushjavaobject(Object object);
+    native void lua_pushjavaobject(Object object, int metatable);
+
+    @Override
+    native void lua_pushjavaobjectcached(Object object, int hash,
+            int metatable);
+
+    @Override
+    native int lua_newclassmetatable();
 
     @Override
     native void lua_pushnil();
@@ -147,6 +192,9 @@ public class LuaState52 extends LuaState {
     @Override
     native byte[] lua_tobytearray(int index);
 
+    @Override
+    native int lua_tobuffer(int index, ByteBuffer buffer, int position, int capacity);
+
     @Override
     native long lua_tointeger(int index);
 
@@ -171,6 +219,9 @@ public class LuaState52 extends LuaState {
     @Override
     native int lua_type(int index);
 
+    @Override
+    native void lua_types(int from, int to, int[] types);
+
     @Override
     native int lua_absindex(int index);
 
@@ -279,13 +330,20 @@ public class LuaState52 extends LuaState {
     @Override
     native void lua_tablemove(int index, int from, int to, int count);
 
+    @Override
+    native long lua_batch(ByteBuffer program, int position, int limit, ByteBuffer results, int resultPosition);
+
     public static class LuaDebug extends LuaState.LuaDebug {
         LuaDebug(long luaDebug, boolean ownDebug) {
             super(luaDebug, ownDebug);
         }
 
         @Override
-        native void lua_debugfree();
+        Disposer debugDisposer() {
+            return LuaDebug::lua_debugfree;
+        }
+
+        private static native void lua_debugfree(long luaDebug);
 
         @Override
         native String lua_debugname();
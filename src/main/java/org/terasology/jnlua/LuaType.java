@@ -72,6 +72,25 @@ public enum LuaType {
 	 */
 	THREAD;
 
+	// -- Static
+	private static final LuaType[] VALUES = values();
+
+	// -- Static methods
+	/**
+	 * Returns the Lua type of a type code filled in by
+	 * {@link LuaState#types(int, int, int[])}.
+	 * 
+	 * @param typeCode
+	 *            the type code
+	 * @return the Lua type, or <code>null</code> if the type code is for a
+	 *         non-valid stack index
+	 * @since JNLua 1.1.0
+	 */
+	public static LuaType fromTypeCode(int typeCode) {
+		return typeCode >= 0 ? VALUES[typeCode & ~LuaState.JAVA_TYPE_FLAG]
+				: null;
+	}
+
 	// -- Properties
 	/**
 	 * Returns the display text of this Lua type. The display text is the type
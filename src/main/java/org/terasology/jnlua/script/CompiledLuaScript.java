@@ -29,6 +29,8 @@ import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
+import org.terasology.jnlua.LuaState;
+
 /**
  * Compiled script implementation conforming to JSR 223: Scripting for the Java
  * Platform.
@@ -50,9 +52,13 @@ class CompiledLuaScript extends CompiledScript {
 	// -- CompiledScript methods
 	@Override
 	public Object eval(ScriptContext context) throws ScriptException {
-		synchronized (engine.getLuaState()) {
+		LuaState luaState = engine.getLuaState();
+		luaState.lock();
+		try {
 			engine.loadChunk(new ByteArrayInputStream(script), context, "b");
 			return engine.callChunk(context);
+		} finally {
+			luaState.unlock();
 		}
 	}
 
@@ -22,10 +22,8 @@
 
 package org.terasology.jnlua.script;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
@@ -88,18 +86,24 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	@Override
 	public Object eval(String script, ScriptContext context)
 			throws ScriptException {
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			loadChunk(script, context);
 			return callChunk(context);
+		} finally {
+			luaState.unlock();
 		}
 	}
 
 	@Override
 	public Object eval(Reader reader, ScriptContext context)
 			throws ScriptException {
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			loadChunk(reader, context);
 			return callChunk(context);
+		} finally {
+			luaState.unlock();
 		}
 	}
 
@@ -111,48 +115,58 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	// -- Compilable method
 	@Override
 	public CompiledScript compile(String script) throws ScriptException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		synchronized (luaState) {
+		byte[] chunk;
+		luaState.lock();
+		try {
 			loadChunk(script, null);
 			try {
-				dumpChunk(out);
+				chunk = dumpChunk();
 			} finally {
 				luaState.pop(1);
 			}
+		} finally {
+			luaState.unlock();
 		}
-		return new CompiledLuaScript(this, out.toByteArray());
+		return new CompiledLuaScript(this, chunk);
 	}
 
 	@Override
 	public CompiledScript compile(Reader script) throws ScriptException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		synchronized (luaState) {
+		byte[] chunk;
+		luaState.lock();
+		try {
 			loadChunk(script, null);
 			try {
-				dumpChunk(out);
+				chunk = dumpChunk();
 			} finally {
 				luaState.pop(1);
 			}
+		} finally {
+			luaState.unlock();
 		}
-		return new CompiledLuaScript(this, out.toByteArray());
+		return new CompiledLuaScript(this, chunk);
 	}
 
 	// -- Invocable methods
 	@Override
 	public <T> T getInterface(Class<T> clasz) {
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			getLuaState().rawGet(luaState.REGISTRYINDEX, LuaState.RIDX_GLOBALS);
 			try {
 				return luaState.getProxy(-1, clasz);
 			} finally {
 				luaState.pop(1);
 			}
+		} finally {
+			luaState.unlock();
 		}
 	}
 
 	@Override
 	public <T> T getInterface(Object thiz, Class<T> clasz) {
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			luaState.pushJavaObject(thiz);
 			try {
 				if (!luaState.isTable(-1)) {
@@ -162,13 +176,16 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 			} finally {
 				luaState.pop(1);
 			}
+		} finally {
+			luaState.unlock();
 		}
 	}
 
 	@Override
 	public Object invokeFunction(String name, Object... args)
 			throws ScriptException, NoSuchMethodException {
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			luaState.getGlobal(name);
 			if (!luaState.isFunction(-1)) {
 				luaState.pop(1);
@@ -184,13 +201,16 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 			} finally {
 				luaState.pop(1);
 			}
+		} finally {
+			luaState.unlock();
 		}
 	}
 
 	@Override
 	public Object invokeMethod(Object thiz, String name, Object... args)
 			throws ScriptException, NoSuchMethodException {
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			luaState.pushJavaObject(thiz);
 			try {
 				if (!luaState.isTable(-1)) {
@@ -215,6 +235,8 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 			} finally {
 				luaState.pop(1);
 			}
+		} finally {
+			luaState.unlock();
 		}
 	}
 
@@ -318,18 +340,16 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable,
 	}
 
 	/**
-	 * Dumps a loaded chunk into an output stream. The chunk is left on the
-	 * stack.
+	 * Dumps a loaded chunk and returns it. The chunk is left on the stack.
 	 */
-	void dumpChunk(OutputStream out) throws ScriptException {
+	byte[] dumpChunk() throws ScriptException {
 		try {
-			luaState.dump(out, false);
+			return luaState.dump(false).array();
 		} catch (LuaException e) {
 			throw new ScriptException(e);
-		} catch (IOException e) {
+		} catch (IllegalArgumentException e) {
 			throw new ScriptException(e);
 		}
-
 	}
 
 	// -- Private methods
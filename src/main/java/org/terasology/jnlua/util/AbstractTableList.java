@@ -44,7 +44,8 @@ public abstract class AbstractTableList extends AbstractList<Object> implements
 	@Override
 	public void add(int index, Object element) {
 		LuaState luaState = getLuaState();
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			int size = size();
 			if (index < 0 || index > size) {
 				throw new IndexOutOfBoundsException("index: " + index
@@ -55,13 +56,16 @@ public abstract class AbstractTableList extends AbstractList<Object> implements
 			luaState.pushJavaObject(element);
 			luaState.rawSet(-2, index + 1);
 			luaState.pop(1);
+		} finally {
+			luaState.unlock();
 		}
 	}
 
 	@Override
 	public Object get(int index) {
 		LuaState luaState = getLuaState();
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			int size = size();
 			if (index < 0 || index >= size) {
 				throw new IndexOutOfBoundsException("index: " + index
@@ -74,13 +78,16 @@ public abstract class AbstractTableList extends AbstractList<Object> implements
 			} finally {
 				luaState.pop(2);
 			}
+		} finally {
+			luaState.unlock();
 		}
 	}
 
 	@Override
 	public Object remove(int index) {
 		LuaState luaState = getLuaState();
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			int size = size();
 			if (index < 0 || index >= size) {
 				throw new IndexOutOfBoundsException("index: " + index
@@ -93,13 +100,16 @@ public abstract class AbstractTableList extends AbstractList<Object> implements
 			luaState.rawSet(-2, size);
 			luaState.pop(1);
 			return oldValue;
+		} finally {
+			luaState.unlock();
 		}
 	}
 
 	@Override
 	public Object set(int index, Object element) {
 		LuaState luaState = getLuaState();
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			int size = size();
 			if (index < 0 || index >= size) {
 				throw new IndexOutOfBoundsException("index: " + index
@@ -111,19 +121,24 @@ public abstract class AbstractTableList extends AbstractList<Object> implements
 			luaState.rawSet(-2, index + 1);
 			luaState.pop(1);
 			return oldValue;
+		} finally {
+			luaState.unlock();
 		}
 	}
 
 	@Override
 	public int size() {
 		LuaState luaState = getLuaState();
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			pushValue();
 			try {
 				return luaState.rawLen(-1);
 			} finally {
 				luaState.pop(1);
 			}
+		} finally {
+			luaState.unlock();
 		}
 	}
 }
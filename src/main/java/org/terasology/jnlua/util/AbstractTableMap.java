@@ -65,7 +65,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 	public boolean containsKey(Object key) {
 		checkKey(key);
 		LuaState luaState = getLuaState();
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			pushValue();
 			luaState.pushJavaObject(key);
 			luaState.getTable(-2);
@@ -74,6 +75,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 			} finally {
 				luaState.pop(2);
 			}
+		} finally {
+			luaState.unlock();
 		}
 	}
 
@@ -81,7 +84,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 	public Object get(Object key) {
 		checkKey(key);
 		LuaState luaState = getLuaState();
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			pushValue();
 			luaState.pushJavaObject(key);
 			luaState.getTable(-2);
@@ -90,6 +94,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 			} finally {
 				luaState.pop(2);
 			}
+		} finally {
+			luaState.unlock();
 		}
 	}
 
@@ -97,7 +103,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 	public Object put(K key, Object value) {
 		checkKey(key);
 		LuaState luaState = getLuaState();
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			Object oldValue = get(key);
 			pushValue();
 			luaState.pushJavaObject(key);
@@ -105,6 +112,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 			luaState.setTable(-3);
 			luaState.pop(1);
 			return oldValue;
+		} finally {
+			luaState.unlock();
 		}
 	}
 
@@ -112,7 +121,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 	public Object remove(Object key) {
 		checkKey(key);
 		LuaState luaState = getLuaState();
-		synchronized (luaState) {
+		luaState.lock();
+		try {
 			Object oldValue = get(key);
 			pushValue();
 			luaState.pushJavaObject(key);
@@ -120,6 +130,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 			luaState.setTable(-3);
 			luaState.pop(1);
 			return oldValue;
+		} finally {
+			luaState.unlock();
 		}
 	}
 
@@ -209,7 +221,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 		@Override
 		public boolean isEmpty() {
 			LuaState luaState = getLuaState();
-			synchronized (luaState) {
+			luaState.lock();
+			try {
 				pushValue();
 				luaState.pushNil();
 				while (luaState.next(-2)) {
@@ -220,13 +233,16 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 				}
 				luaState.pop(1);
 				return true;
+			} finally {
+				luaState.unlock();
 			}
 		}
 
 		@Override
 		public int size() {
 			LuaState luaState = getLuaState();
-			synchronized (luaState) {
+			luaState.lock();
+			try {
 				int count = 0;
 				pushValue();
 				if (filterKeys()) {
@@ -242,6 +258,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 				}
 				luaState.pop(1);
 				return count;
+			} finally {
+				luaState.unlock();
 			}
 		}
 
@@ -270,7 +288,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 				return false;
 			}
 			LuaState luaState = getLuaState();
-			synchronized (luaState) {
+			luaState.lock();
+			try {
 				pushValue();
 				luaState.pushJavaObject(object);
 				luaState.getTable(-2);
@@ -283,6 +302,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 				}
 				luaState.pop(1);
 				return contains;
+			} finally {
+				luaState.unlock();
 			}
 		}
 	}
@@ -298,7 +319,8 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 		@Override
 		public boolean hasNext() {
 			LuaState luaState = getLuaState();
-			synchronized (luaState) {
+			luaState.lock();
+			try {
 				pushValue();
 				luaState.pushJavaObject(key);
 				while (luaState.next(-2)) {
@@ -309,13 +331,16 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 				}
 				luaState.pop(1);
 				return false;
+			} finally {
+				luaState.unlock();
 			}
 		}
 
 		@Override
 		public Map.Entry<K, Object> next() {
 			LuaState luaState = getLuaState();
-			synchronized (luaState) {
+			luaState.lock();
+			try {
 				pushValue();
 				luaState.pushJavaObject(key);
 				while (luaState.next(-2)) {
@@ -327,18 +352,23 @@ public abstract class AbstractTableMap<K> extends AbstractMap<K, Object>
 				}
 				luaState.pop(1);
 				throw new NoSuchElementException();
+			} finally {
+				luaState.unlock();
 			}
 		}
 
 		@Override
 		public void remove() {
 			LuaState luaState = getLuaState();
-			synchronized (luaState) {
+			luaState.lock();
+			try {
 				pushValue();
 				luaState.pushJavaObject(key);
 				luaState.pushNil();
 				luaState.setTable(-3);
 				luaState.pop(1);
+			} finally {
+				luaState.unlock();
 			}
 		}
 	}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.terasology.jnlua.LuaState;
+
+/**
+ * Owns a Lua state on a dedicated thread and executes tasks on it
+ * asynchronously.
+ *
+ * <p>
+ * The Lua state is confined to the thread of the actor by means of
+ * {@link LuaState#confineTo(Thread)}, so it is accessed without locking and
+ * cannot be accessed by other threads. Tasks are submitted through a
+ * lock-free mailbox and executed in the order of submission. The thread
+ * drains all pending tasks before parking, so bursts of submissions are
+ * executed as a batch. Each submission returns a future that is completed
+ * with the result of the task once it has been executed.
+ * </p>
+ *
+ * <p>
+ * Tasks must not retain the Lua state or values that refer to it, such as
+ * proxies, beyond their execution. The class is thread-safe.
+ * </p>
+ *
+ * @since JNLua 1.1.0
+ */
+public class LuaActor {
+	// -- State
+	private final LuaState luaState;
+	private final ConcurrentLinkedQueue<Message<?>> mailbox = new ConcurrentLinkedQueue<Message<?>>();
+	private final Thread thread;
+	private volatile boolean closed;
+
+	// -- Construction
+	/**
+	 * Creates a new instance. The actor takes ownership of the Lua state. If
+	 * the Lua state is confined, it must be confined to the current thread.
+	 *
+	 * @param luaState
+	 *            the Lua state
+	 */
+	public LuaActor(LuaState luaState) {
+		this(luaState, "LuaActor");
+	}
+
+	/**
+	 * Creates a new instance with a thread name. The actor takes ownership of
+	 * the Lua state. If the Lua state is confined, it must be confined to the
+	 * current thread.
+	 *
+	 * @param luaState
+	 *            the Lua state
+	 * @param name
+	 *            the name of the thread of the actor
+	 */
+	public LuaActor(LuaState luaState, String name) {
+		if (luaState == null || name == null) {
+			throw new NullPointerException();
+		}
+		this.luaState = luaState;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				LuaActor.this.run();
+			}
+		}, name);
+		thread.setDaemon(true);
+		luaState.confineTo(thread);
+		thread.start();
+	}
+
+	// -- Properties
+	/**
+	 * Returns whether this actor has been closed.
+	 *
+	 * @return whether this actor has been closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	// -- Operations
+	/**
+	 * Submits a task for execution on the Lua state. If the actor is closed,
+	 * the returned future is completed exceptionally with an
+	 * {@link IllegalStateException}.
+	 *
+	 * @param task
+	 *            the task
+	 * @return the future result of the task
+	 */
+	public <T> CompletableFuture<T> submit(Task<T> task) {
+		if (task == null) {
+			throw new NullPointerException();
+		}
+		Message<T> message = new Message<T>(task);
+		if (closed) {
+			message.future.completeExceptionally(new IllegalStateException(
+					"actor is closed"));
+			return message.future;
+		}
+		mailbox.offer(message);
+		if (closed && mailbox.remove(message)) {
+			message.future.completeExceptionally(new IllegalStateException(
+					"actor is closed"));
+		}
+		LockSupport.unpark(thread);
+		return message.future;
+	}
+
+	/**
+	 * Submits a call of a global function. The arguments are pushed by means
+	 * of {@link LuaState#pushJavaObject(Object)}. The return values are copied
+	 * out of the Lua state on the thread of the actor, so they can be used by
+	 * any thread: booleans, numbers and strings are converted by means of
+	 * {@link LuaState#toJavaObject(int, Class)}, Java objects are returned as
+	 * is, and tables are copied deeply into lists, for tables whose keys are
+	 * the integers from 1 to their size, or maps. The future fails with an
+	 * {@link IllegalArgumentException} if the function returns a Lua function
+	 * or userdata.
+	 *
+	 * @param function
+	 *            the name of the global function
+	 * @param args
+	 *            the arguments
+	 * @return the future return values of the function
+	 */
+	public CompletableFuture<Object[]> call(final String function,
+			final Object... args) {
+		if (function == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Task<Object[]>() {
+			@Override
+			public Object[] execute(LuaState luaState) {
+				int top = luaState.getTop();
+				try {
+					luaState.getGlobal(function);
+					for (int i = 0; i < args.length; i++) {
+						luaState.pushJavaObject(args[i]);
+					}
+					luaState.call(args.length, LuaState.MULTRET);
+					Object[] results = new Object[luaState.getTop() - top];
+					for (int i = 0; i < results.length; i++) {
+						results[i] = LuaValueCopier.copy(luaState, top + i + 1);
+					}
+					return results;
+				} finally {
+					luaState.setTop(top);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Closes this actor. Tasks submitted before the actor is closed are
+	 * executed, and the Lua state is closed afterwards. Unless invoked by a
+	 * task, the method waits for the thread of the actor to finish.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+		if (Thread.currentThread() == thread) {
+			return;
+		}
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// -- Private methods
+	/**
+	 * Executes tasks until the actor is closed.
+	 */
+	private void run() {
+		try {
+			while (true) {
+				Message<?> message = mailbox.poll();
+				if (message == null) {
+					if (closed) {
+						break;
+					}
+					LockSupport.park(this);
+					continue;
+				}
+				message.execute(luaState);
+			}
+		} finally {
+			luaState.close();
+			Message<?> message;
+			while ((message = mailbox.poll()) != null) {
+				message.future.completeExceptionally(new IllegalStateException(
+						"actor is closed"));
+			}
+		}
+	}
+
+	// -- Nested types
+	/**
+	 * A task executed on the Lua state of an actor.
+	 */
+	public interface Task<T> {
+		/**
+		 * Executes the task.
+		 *
+		 * @param luaState
+		 *            the Lua state
+		 * @return the result
+		 * @throws Exception
+		 *             if the task fails
+		 */
+		public T execute(LuaState luaState) throws Exception;
+	}
+
+	/**
+	 * A submitted task and its future.
+	 */
+	private static class Message<T> {
+		private final Task<T> task;
+		private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		public Message(Task<T> task) {
+			this.task = task;
+		}
+
+		public void execute(LuaState luaState) {
+			try {
+				future.complete(task.execute(luaState));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.terasology.jnlua.LuaRuntimeException;
+import org.terasology.jnlua.LuaState;
+import org.terasology.jnlua.NamedJavaFunction;
+
+/**
+ * Multiplexes many Lua threads (coroutines) on a single Lua state.
+ *
+ * <p>
+ * Coroutines are spawned from Lua functions and driven by
+ * {@link #tick(long)}, which resumes each ready coroutine once. Coroutines of
+ * a higher priority are resumed before those of a lower priority, and
+ * coroutines of the same priority are resumed round-robin. A coroutine
+ * yielding by means of <code>coroutine.yield()</code> remains ready. The
+ * scheduler registers a Lua module with the following functions for
+ * coroutines to suspend themselves:
+ * </p>
+ *
+ * <ul>
+ * <li><code>sleep(ms)</code> suspends the coroutine until the specified
+ * number of milliseconds has elapsed.</li>
+ * <li><code>wait(condition)</code> suspends the coroutine until the specified
+ * condition is signaled from Java by means of {@link #signal(String)}.</li>
+ * </ul>
+ *
+ * <p>
+ * The bookkeeping of the scheduler is kept in integer arrays indexed by
+ * coroutine identifier, with the ready coroutines of each priority in a ring
+ * buffer and the sleeping coroutines in a binary heap ordered by wake-up
+ * time. The class is not thread-safe; it must be used by the thread driving
+ * its Lua state.
+ * </p>
+ *
+ * @since JNLua 1.1.0
+ */
+public class LuaCoroutineScheduler {
+	// -- Static
+	private static final int FREE = 0;
+	private static final int READY = 1;
+	private static final int SLEEPING = 2;
+	private static final int WAITING = 3;
+	private static final int RUNNING = 4;
+	private static final int INITIAL_CAPACITY = 16;
+
+	// -- State
+	private final LuaState luaState;
+	private final IntRing[] ready;
+
+	/*
+	 * Per-coroutine data, indexed by coroutine identifier.
+	 */
+	private int[] states = new int[INITIAL_CAPACITY];
+	private int[] references = new int[INITIAL_CAPACITY];
+	private int[] priorities = new int[INITIAL_CAPACITY];
+	private long[] wakeTimes = new long[INITIAL_CAPACITY];
+	private String[] conditions = new String[INITIAL_CAPACITY];
+	private boolean[] queued = new boolean[INITIAL_CAPACITY];
+	private final IntRing free = new IntRing();
+	private int next;
+	private int count;
+
+	/*
+	 * Binary heap of sleeping coroutines, ordered by wake-up time.
+	 */
+	private long[] heapTimes = new long[INITIAL_CAPACITY];
+	private int[] heapIds = new int[INITIAL_CAPACITY];
+	private int heapSize;
+
+	private final Map<String, IntRing> waiters = new HashMap<String, IntRing>();
+	private int current = -1;
+	private long now;
+
+	// -- Construction
+	/**
+	 * Creates a new instance with a single priority and registers the Lua
+	 * module globally as <code>scheduler</code>.
+	 *
+	 * @param luaState
+	 *            the Lua state
+	 */
+	public LuaCoroutineScheduler(LuaState luaState) {
+		this(luaState, 1, "scheduler");
+	}
+
+	/**
+	 * Creates a new instance and registers the Lua module globally.
+	 *
+	 * @param luaState
+	 *            the Lua state
+	 * @param priorityCount
+	 *            the number of priorities, ranging from <code>0</code>
+	 *            (lowest) to <code>priorityCount - 1</code> (highest)
+	 * @param moduleName
+	 *            the name of the Lua module
+	 */
+	public LuaCoroutineScheduler(LuaState luaState, int priorityCount,
+			String moduleName) {
+		if (luaState == null || moduleName == null) {
+			throw new NullPointerException();
+		}
+		if (priorityCount < 1) {
+			throw new IllegalArgumentException("illegal priority count");
+		}
+		this.luaState = luaState;
+		ready = new IntRing[priorityCount];
+		for (int i = 0; i < priorityCount; i++) {
+			ready[i] = new IntRing();
+		}
+		luaState.register(moduleName, new NamedJavaFunction[] {
+				new Sleep(), new Wait() }, true);
+		luaState.pop(1);
+	}
+
+	// -- Properties
+	/**
+	 * Returns the number of coroutines managed by this scheduler.
+	 *
+	 * @return the coroutine count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the earliest wake-up time of the sleeping coroutines.
+	 *
+	 * @return the wake-up time, or {@link Long#MAX_VALUE} if no coroutine is
+	 *         sleeping
+	 */
+	public long getNextWakeTime() {
+		while (heapSize > 0 && !isValidTimer(0)) {
+			heapPoll();
+		}
+		return heapSize > 0 ? heapTimes[0] : Long.MAX_VALUE;
+	}
+
+	// -- Operations
+	/**
+	 * Pops a function from the stack and spawns a ready coroutine running the
+	 * function.
+	 *
+	 * @param priority
+	 *            the priority
+	 * @return the identifier of the coroutine
+	 */
+	public int spawn(int priority) {
+		if (priority < 0 || priority >= ready.length) {
+			throw new IllegalArgumentException("illegal priority");
+		}
+		luaState.newThread();
+		int reference = luaState.ref(luaState.REGISTRYINDEX);
+		int id;
+		if (free.size() > 0) {
+			id = free.poll();
+		} else {
+			if (next == states.length) {
+				grow();
+			}
+			id = next++;
+		}
+		references[id] = reference;
+		priorities[id] = priority;
+		count++;
+		makeReady(id);
+		return id;
+	}
+
+	/**
+	 * Returns whether a coroutine is managed by this scheduler.
+	 *
+	 * @param id
+	 *            the identifier of the coroutine
+	 * @return whether the coroutine is alive
+	 */
+	public boolean isAlive(int id) {
+		return id >= 0 && id < next && states[id] != FREE;
+	}
+
+	/**
+	 * Makes a sleeping or waiting coroutine ready.
+	 *
+	 * @param id
+	 *            the identifier of the coroutine
+	 */
+	public void wake(int id) {
+		if (isAlive(id) && (states[id] == SLEEPING || states[id] == WAITING)) {
+			makeReady(id);
+		}
+	}
+
+	/**
+	 * Makes all coroutines waiting for a condition ready.
+	 *
+	 * @param condition
+	 *            the condition
+	 * @return the number of coroutines made ready
+	 */
+	public int signal(String condition) {
+		IntRing ring = waiters.remove(condition);
+		if (ring == null) {
+			return 0;
+		}
+		int woken = 0;
+		while (ring.size() > 0) {
+			int id = ring.poll();
+			if (states[id] == WAITING && condition.equals(conditions[id])) {
+				makeReady(id);
+				woken++;
+			}
+		}
+		return woken;
+	}
+
+	/**
+	 * Removes a coroutine from this scheduler.
+	 *
+	 * @param id
+	 *            the identifier of the coroutine
+	 */
+	public void kill(int id) {
+		if (!isAlive(id) || id == current) {
+			return;
+		}
+		remove(id);
+	}
+
+	/**
+	 * Wakes the sleeping coroutines whose wake-up time has been reached and
+	 * resumes each ready coroutine once, in order of priority. Coroutines
+	 * becoming ready during the tick are resumed in the next tick. If a
+	 * coroutine fails, it is removed, and the exception is thrown after the
+	 * state of the scheduler has been updated.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the number of coroutines resumed
+	 */
+	public int tick(long now) {
+		this.now = now;
+		while (heapSize > 0 && heapTimes[0] <= now) {
+			boolean valid = isValidTimer(0);
+			int id = heapPoll();
+			if (valid) {
+				makeReady(id);
+			}
+		}
+		int resumed = 0;
+		for (int priority = ready.length - 1; priority >= 0; priority--) {
+			IntRing ring = ready[priority];
+			for (int n = ring.size(); n > 0; n--) {
+				int id = ring.poll();
+				queued[id] = false;
+				if (states[id] != READY) {
+					continue;
+				}
+				if (priorities[id] != priority) {
+					makeReady(id);
+					continue;
+				}
+				resume(id);
+				resumed++;
+			}
+		}
+		return resumed;
+	}
+
+	// -- Private methods
+	/**
+	 * Resumes a coroutine and updates its state.
+	 */
+	private void resume(int id) {
+		int top = luaState.getTop();
+		states[id] = RUNNING;
+		current = id;
+		boolean alive = false;
+		try {
+			luaState.rawGet(luaState.REGISTRYINDEX, references[id]);
+			luaState.resume(top + 1, 0);
+			alive = luaState.status(top + 1) == LuaState.YIELD;
+		} finally {
+			current = -1;
+			luaState.setTop(top);
+			if (!alive) {
+				remove(id);
+			} else if (states[id] == RUNNING) {
+				makeReady(id);
+			}
+		}
+	}
+
+	/**
+	 * Adds a coroutine to the ready ring of its priority unless it is queued
+	 * already.
+	 */
+	private void makeReady(int id) {
+		states[id] = READY;
+		conditions[id] = null;
+		if (!queued[id]) {
+			queued[id] = true;
+			ready[priorities[id]].add(id);
+		}
+	}
+
+	/**
+	 * Releases a coroutine.
+	 */
+	private void remove(int id) {
+		luaState.unref(luaState.REGISTRYINDEX, references[id]);
+		states[id] = FREE;
+		conditions[id] = null;
+		free.add(id);
+		count--;
+	}
+
+	/**
+	 * Grows the per-coroutine arrays.
+	 */
+	private void grow() {
+		int capacity = states.length * 2;
+		states = Arrays.copyOf(states, capacity);
+		references = Arrays.copyOf(references, capacity);
+		priorities = Arrays.copyOf(priorities, capacity);
+		wakeTimes = Arrays.copyOf(wakeTimes, capacity);
+		conditions = Arrays.copyOf(conditions, capacity);
+		queued = Arrays.copyOf(queued, capacity);
+	}
+
+	/**
+	 * Returns whether a heap entry still refers to a sleeping coroutine.
+	 */
+	private boolean isValidTimer(int index) {
+		int id = heapIds[index];
+		return states[id] == SLEEPING && wakeTimes[id] == heapTimes[index];
+	}
+
+	/**
+	 * Adds a sleeping coroutine to the heap.
+	 */
+	private void heapAdd(long time, int id) {
+		if (heapSize == heapTimes.length) {
+			heapTimes = Arrays.copyOf(heapTimes, heapSize * 2);
+			heapIds = Arrays.copyOf(heapIds, heapSize * 2);
+		}
+		int index = heapSize++;
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (heapTimes[parent] <= time) {
+				break;
+			}
+			heapTimes[index] = heapTimes[parent];
+			heapIds[index] = heapIds[parent];
+			index = parent;
+		}
+		heapTimes[index] = time;
+		heapIds[index] = id;
+	}
+
+	/**
+	 * Removes the heap entry with the earliest wake-up time and returns its
+	 * coroutine identifier.
+	 */
+	private int heapPoll() {
+		int result = heapIds[0];
+		heapSize--;
+		long time = heapTimes[heapSize];
+		int id = heapIds[heapSize];
+		int index = 0;
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && heapTimes[child + 1] < heapTimes[child]) {
+				child++;
+			}
+			if (time <= heapTimes[child]) {
+				break;
+			}
+			heapTimes[index] = heapTimes[child];
+			heapIds[index] = heapIds[child];
+			index = child;
+		}
+		heapTimes[index] = time;
+		heapIds[index] = id;
+		return result;
+	}
+
+	/**
+	 * Returns the running coroutine, checking that there is one.
+	 */
+	private int checkCurrent() {
+		if (current < 0) {
+			throw new LuaRuntimeException("not in a scheduled coroutine");
+		}
+		return current;
+	}
+
+	// -- Nested types
+	/**
+	 * A growable ring buffer of integers.
+	 */
+	private static class IntRing {
+		private int[] elements = new int[INITIAL_CAPACITY];
+		private int head;
+		private int size;
+
+		public int size() {
+			return size;
+		}
+
+		public void add(int element) {
+			if (size == elements.length) {
+				int[] newElements = new int[size * 2];
+				for (int i = 0; i < size; i++) {
+					newElements[i] = elements[(head + i) % elements.length];
+				}
+				elements = newElements;
+				head = 0;
+			}
+			elements[(head + size) % elements.length] = element;
+			size++;
+		}
+
+		public int poll() {
+			int element = elements[head];
+			head = (head + 1) % elements.length;
+			size--;
+			return element;
+		}
+	}
+
+	/**
+	 * Suspends the running coroutine for a number of milliseconds.
+	 */
+	private class Sleep implements NamedJavaFunction {
+		@Override
+		public int invoke(LuaState luaState) {
+			long ms = luaState.checkInteger(1);
+			int id = checkCurrent();
+			states[id] = SLEEPING;
+			wakeTimes[id] = now + Math.max(ms, 0L);
+			heapAdd(wakeTimes[id], id);
+			return luaState.yield(0);
+		}
+
+		@Override
+		public String getName() {
+			return "sleep";
+		}
+	}
+
+	/**
+	 * Suspends the running coroutine until a condition is signaled.
+	 */
+	private class Wait implements NamedJavaFunction {
+		@Override
+		public int invoke(LuaState luaState) {
+			String condition = luaState.checkString(1);
+			int id = checkCurrent();
+			states[id] = WAITING;
+			conditions[id] = condition;
+			IntRing ring = waiters.get(condition);
+			if (ring == null) {
+				ring = new IntRing();
+				waiters.put(condition, ring);
+			}
+			ring.add(id);
+			return luaState.yield(0);
+		}
+
+		@Override
+		public String getName() {
+			return "wait";
+		}
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.terasology.jnlua.LuaState;
+
+/**
+ * Applies a Lua function to the elements of a collection in parallel.
+ *
+ * <p>
+ * The elements are split into ranges which are processed by the threads of
+ * a fork/join pool with work stealing. Each thread uses its own Lua state,
+ * lent from a {@link LuaStatePool} on first use, and compiles each chunk
+ * only once per Lua state. The Lua states are kept across invocations and
+ * returned to the state pool when this object is closed, or when their
+ * thread has terminated.
+ * </p>
+ *
+ * <p>
+ * The class is thread-safe.
+ * </p>
+ *
+ * @since JNLua 1.1.0
+ */
+public class LuaParallel {
+	// -- Static
+	private static final int SPLITS_PER_THREAD = 4;
+
+	// -- State
+	private final LuaStatePool statePool;
+	private final ForkJoinPool forkJoinPool;
+	private final ConcurrentHashMap<Thread, Worker> workers = new ConcurrentHashMap<Thread, Worker>();
+	private volatile boolean closed;
+
+	// -- Construction
+	/**
+	 * Creates a new instance using the common fork/join pool.
+	 *
+	 * @param statePool
+	 *            the pool lending the Lua states
+	 */
+	public LuaParallel(LuaStatePool statePool) {
+		this(statePool, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param statePool
+	 *            the pool lending the Lua states
+	 * @param forkJoinPool
+	 *            the fork/join pool processing the elements
+	 */
+	public LuaParallel(LuaStatePool statePool, ForkJoinPool forkJoinPool) {
+		if (statePool == null || forkJoinPool == null) {
+			throw new NullPointerException();
+		}
+		this.statePool = statePool;
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	// -- Operations
+	/**
+	 * Applies a function to each element of a collection and returns the
+	 * results in the order of the elements. The function is defined by
+	 * running a chunk and taking the global variable of the specified name.
+	 * Elements are passed by means of {@link LuaState#pushJavaObject(Object)}.
+	 * Results are copied out of the Lua states of the threads: booleans,
+	 * numbers and strings are converted by means of
+	 * {@link LuaState#toJavaObject(int, Class)}, Java objects are returned as
+	 * is, and tables are copied deeply into lists, for tables whose keys are
+	 * the integers from 1 to their size, or maps. Lua functions and userdata
+	 * cannot be returned.
+	 *
+	 * @param elements
+	 *            the elements
+	 * @param chunk
+	 *            the Lua chunk defining the function
+	 * @param functionName
+	 *            the name of the global variable holding the function
+	 * @return the results
+	 * @throws IllegalArgumentException
+	 *             if a result cannot be copied
+	 * @throws IllegalStateException
+	 *             if this object is closed
+	 */
+	public List<Object> map(Collection<?> elements, String chunk,
+			String functionName) {
+		if (elements == null || chunk == null || functionName == null) {
+			throw new NullPointerException();
+		}
+		if (closed) {
+			throw new IllegalStateException("closed");
+		}
+		releaseTerminated();
+		Object[] items = elements.toArray();
+		Object[] results = new Object[items.length];
+		if (items.length > 0) {
+			int threshold = Math.max(1, items.length
+					/ (forkJoinPool.getParallelism() * SPLITS_PER_THREAD));
+			forkJoinPool.invoke(new MapAction(items, results, 0, items.length,
+					threshold, chunk, functionName));
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Closes this object and returns its Lua states to the state pool. The
+	 * method must not be invoked while elements are being mapped.
+	 */
+	public void close() {
+		closed = true;
+		for (Iterator<Worker> i = workers.values().iterator(); i.hasNext();) {
+			Worker worker = i.next();
+			i.remove();
+			worker.release();
+		}
+	}
+
+	// -- Private methods
+	/**
+	 * Returns the Lua states of terminated threads to the state pool.
+	 */
+	private void releaseTerminated() {
+		for (Iterator<Map.Entry<Thread, Worker>> i = workers.entrySet()
+				.iterator(); i.hasNext();) {
+			Map.Entry<Thread, Worker> entry = i.next();
+			if (!entry.getKey().isAlive()) {
+				i.remove();
+				entry.getValue().release();
+			}
+		}
+	}
+
+	/**
+	 * Returns the worker of the current thread, creating it as needed.
+	 */
+	private Worker getWorker() {
+		Thread thread = Thread.currentThread();
+		Worker worker = workers.get(thread);
+		if (worker == null) {
+			worker = new Worker(statePool.acquire());
+			workers.put(thread, worker);
+		}
+		return worker;
+	}
+
+	// -- Nested types
+	/**
+	 * The Lua state of a thread and its compiled functions.
+	 */
+	private class Worker {
+		private final LuaState luaState;
+		private final Map<String, Integer> functions = new HashMap<String, Integer>();
+
+		public Worker(LuaState luaState) {
+			this.luaState = luaState;
+		}
+
+		/**
+		 * Pushes a function, compiling its chunk on first use.
+		 */
+		public void pushFunction(String chunk, String functionName) {
+			String key = functionName + '\0' + chunk;
+			Integer reference = functions.get(key);
+			if (reference == null) {
+				luaState.load(chunk, "=" + functionName);
+				luaState.call(0, 0);
+				luaState.getGlobal(functionName);
+				reference = Integer.valueOf(luaState.ref(luaState.REGISTRYINDEX));
+				functions.put(key, reference);
+			}
+			luaState.rawGet(luaState.REGISTRYINDEX, reference.intValue());
+		}
+
+		/**
+		 * Releases the compiled functions and returns the Lua state.
+		 */
+		public void release() {
+			try {
+				for (Integer reference : functions.values()) {
+					luaState.unref(luaState.REGISTRYINDEX, reference.intValue());
+				}
+			} finally {
+				statePool.release(luaState);
+			}
+		}
+	}
+
+	/**
+	 * Maps a range of elements, splitting it as long as it exceeds the
+	 * threshold.
+	 */
+	private class MapAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Object[] items;
+		private final Object[] results;
+		private final int from;
+		private final int to;
+		private final int threshold;
+		private final String chunk;
+		private final String functionName;
+
+		public MapAction(Object[] items, Object[] results, int from, int to,
+				int threshold, String chunk, String functionName) {
+			this.items = items;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+			this.chunk = chunk;
+			this.functionName = functionName;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > threshold) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new MapAction(items, results, from, middle,
+						threshold, chunk, functionName), new MapAction(items,
+						results, middle, to, threshold, chunk, functionName));
+				return;
+			}
+			Worker worker = getWorker();
+			LuaState luaState = worker.luaState;
+			luaState.lock();
+			try {
+				int top = luaState.getTop();
+				try {
+					for (int i = from; i < to; i++) {
+						worker.pushFunction(chunk, functionName);
+						luaState.pushJavaObject(items[i]);
+						luaState.call(1, 1);
+						results[i] = LuaValueCopier.copy(luaState, -1);
+						luaState.pop(1);
+					}
+				} finally {
+					luaState.setTop(top);
+				}
+			} finally {
+				luaState.unlock();
+			}
+		}
+	}
+}
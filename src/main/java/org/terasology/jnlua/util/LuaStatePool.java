@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua.util;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+import org.terasology.jnlua.Converter;
+import org.terasology.jnlua.JavaReflector;
+import org.terasology.jnlua.LuaState;
+import org.terasology.jnlua.LuaState53;
+import org.terasology.jnlua.LuaType;
+
+/**
+ * Lends out pre-initialized Lua states.
+ *
+ * <p>
+ * Creating and initializing a Lua state is expensive. The pool creates its
+ * Lua states as {@link LuaState53} instances, initializes them with an
+ * {@link Initializer} and records a baseline of each state after
+ * initialization. States are lent out by {@link #acquire()} and
+ * returned by {@link #release(LuaState)}, which restores the baseline: the
+ * stack is cleared, and the globals, the loaded modules and the named
+ * registry entries are reset to their values at the time of the baseline.
+ * Values reachable from the baseline, such as the contents of library
+ * tables, are not restored. Neither are the integer registry references
+ * created while a state is lent out, such as those of Lua value proxies and
+ * class metatables. Borrowers should release the references they create;
+ * references that are kept count toward the used memory of the state.
+ * </p>
+ *
+ * <p>
+ * A returned state is evicted and closed if it is no longer open, if it has
+ * been confined to a thread, if its lock, converter, Java reflector or
+ * caching of Java objects has been changed, if its baseline cannot be
+ * restored, if its used memory exceeds the memory threshold of the pool, or
+ * if it has been lent out as many times as the use threshold of the pool. The pool keeps at most its size in idle states, and
+ * creates additional states if all of them are lent out.
+ * </p>
+ *
+ * <p>
+ * The class is thread-safe.
+ * </p>
+ *
+ * @since JNLua 1.1.0
+ */
+public class LuaStatePool {
+	// -- Static
+	/**
+	 * Marks an absent baseline. Matches <code>LUA_NOREF</code>.
+	 */
+	private static final int NOREF = -2;
+
+	// -- State
+	private final int size;
+	private final Initializer initializer;
+	private final long maxMemory;
+	private final int maxUses;
+	private final ArrayDeque<Entry> idle = new ArrayDeque<Entry>();
+	private final Map<LuaState, Entry> lent = new IdentityHashMap<LuaState, Entry>();
+	private boolean closed;
+
+	// -- Construction
+	/**
+	 * Creates a new instance without memory and use thresholds.
+	 *
+	 * @param size
+	 *            the number of idle states to keep
+	 * @param initializer
+	 *            the initializer of new states, or <code>null</code>
+	 */
+	public LuaStatePool(int size, Initializer initializer) {
+		this(size, initializer, 0L, 0);
+	}
+
+	/**
+	 * Creates a new instance. The pool is pre-warmed with the specified
+	 * number of states.
+	 *
+	 * @param size
+	 *            the number of idle states to keep
+	 * @param initializer
+	 *            the initializer of new states, or <code>null</code>
+	 * @param maxMemory
+	 *            the used memory above which a returned state is evicted, or
+	 *            <code>0</code> for no threshold
+	 * @param maxUses
+	 *            the number of uses after which a returned state is evicted,
+	 *            or <code>0</code> for no threshold
+	 */
+	public LuaStatePool(int size, Initializer initializer, long maxMemory,
+			int maxUses) {
+		if (size < 0 || maxMemory < 0 || maxUses < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.size = size;
+		this.initializer = initializer;
+		this.maxMemory = maxMemory;
+		this.maxUses = maxUses;
+		for (int i = 0; i < size; i++) {
+			idle.add(newEntry());
+		}
+	}
+
+	// -- Properties
+	/**
+	 * Returns the number of idle states to keep.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of states that are currently idle.
+	 *
+	 * @return the idle count
+	 */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Returns the number of states that are currently lent out.
+	 *
+	 * @return the lent count
+	 */
+	public synchronized int getLentCount() {
+		return lent.size();
+	}
+
+	// -- Operations
+	/**
+	 * Lends out a state. The state is taken from the idle states of the pool,
+	 * or created if there is no idle state.
+	 *
+	 * @return the state
+	 * @throws IllegalStateException
+	 *             if the pool is closed
+	 */
+	public LuaState acquire() {
+		Entry entry;
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("pool is closed");
+			}
+			entry = idle.poll();
+		}
+		if (entry == null) {
+			entry = newEntry();
+		}
+		entry.uses++;
+		synchronized (this) {
+			if (!closed) {
+				lent.put(entry.luaState, entry);
+				return entry.luaState;
+			}
+		}
+		entry.luaState.close();
+		throw new IllegalStateException("pool is closed");
+	}
+
+	/**
+	 * Returns a state to the pool. The state must not be used by the caller
+	 * afterwards.
+	 *
+	 * @param luaState
+	 *            the state
+	 * @throws IllegalArgumentException
+	 *             if the state has not been lent out by this pool
+	 * @throws IllegalStateException
+	 *             if the state is confined to another thread
+	 */
+	public void release(LuaState luaState) {
+		Entry entry;
+		synchronized (this) {
+			entry = lent.get(luaState);
+			if (entry == null) {
+				throw new IllegalArgumentException("state not lent out by pool");
+			}
+			Thread owner = luaState.getOwner();
+			if (owner != null && owner != Thread.currentThread()) {
+				throw new IllegalStateException(
+						"state confined to another thread");
+			}
+			lent.remove(luaState);
+		}
+		if (!restore(entry)) {
+			luaState.close();
+			return;
+		}
+		synchronized (this) {
+			if (!closed && idle.size() < size) {
+				idle.push(entry);
+				return;
+			}
+		}
+		luaState.close();
+	}
+
+	/**
+	 * Closes the pool and all idle states. States that are lent out are
+	 * closed when they are returned.
+	 */
+	public void close() {
+		ArrayDeque<Entry> entries;
+		synchronized (this) {
+			closed = true;
+			entries = new ArrayDeque<Entry>(idle);
+			idle.clear();
+		}
+		for (Entry entry : entries) {
+			entry.luaState.close();
+		}
+	}
+
+	// -- Private methods
+	/**
+	 * Creates, initializes and records the baseline of a new state.
+	 */
+	private Entry newEntry() {
+		LuaState luaState = new LuaState53();
+		try {
+			if (initializer != null) {
+				initializer.initialize(luaState);
+			}
+			luaState.lock();
+			try {
+				luaState.setTop(0);
+				Entry entry = new Entry(luaState);
+				entry.lock = luaState.getLock();
+				entry.converter = luaState.getConverter();
+				entry.javaReflector = luaState.getJavaReflector();
+				entry.cacheJavaObjects = luaState.isCacheJavaObjects();
+				entry.registryRef = baseline(luaState, luaState.REGISTRYINDEX,
+						true);
+				luaState.rawGet(luaState.REGISTRYINDEX, LuaState.RIDX_GLOBALS);
+				entry.globalsRef = baseline(luaState, 1, false);
+				luaState.pop(1);
+				luaState.getField(luaState.REGISTRYINDEX, "_LOADED");
+				if (luaState.isTable(1)) {
+					entry.loadedRef = baseline(luaState, 1, false);
+				}
+				luaState.pop(1);
+				return entry;
+			} finally {
+				luaState.unlock();
+			}
+		} catch (RuntimeException e) {
+			luaState.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Restores the baseline of a returned state. Returns whether the state is
+	 * to be kept.
+	 */
+	private boolean restore(Entry entry) {
+		LuaState luaState = entry.luaState;
+		if (luaState.getOwner() != null || luaState.getLock() != entry.lock) {
+			return false;
+		}
+		try {
+			if (!luaState.isOpen()
+					|| luaState.getConverter() != entry.converter
+					|| luaState.getJavaReflector() != entry.javaReflector
+					|| luaState.isCacheJavaObjects() != entry.cacheJavaObjects) {
+				return false;
+			}
+			luaState.lock();
+			try {
+				luaState.setTop(0);
+				restore(luaState, luaState.REGISTRYINDEX, entry.registryRef,
+						true);
+				luaState.rawGet(luaState.REGISTRYINDEX, LuaState.RIDX_GLOBALS);
+				restore(luaState, 1, entry.globalsRef, false);
+				luaState.pop(1);
+				if (entry.loadedRef != NOREF) {
+					luaState.getField(luaState.REGISTRYINDEX, "_LOADED");
+					restore(luaState, 1, entry.loadedRef, false);
+					luaState.pop(1);
+				}
+			} finally {
+				luaState.unlock();
+			}
+		} catch (RuntimeException e) {
+			return false;
+		}
+		if (maxMemory > 0 && luaState.getUsedMemory() > maxMemory) {
+			return false;
+		}
+		if (maxUses > 0 && entry.uses >= maxUses) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies the entries of a table into a new table and returns a registry
+	 * reference to the copy. The index must be absolute or a pseudo-index.
+	 */
+	private static int baseline(LuaState luaState, int index,
+			boolean stringKeys) {
+		luaState.newTable();
+		luaState.pushNil();
+		while (luaState.next(index)) {
+			if (stringKeys && luaState.type(-2) != LuaType.STRING) {
+				luaState.pop(1);
+				continue;
+			}
+			luaState.pushValue(-2);
+			luaState.insert(-2);
+			luaState.rawSet(-4);
+		}
+		return luaState.ref(luaState.REGISTRYINDEX);
+	}
+
+	/**
+	 * Restores the entries of a table from a copy. Entries not present in the
+	 * copy are cleared. The index must be absolute or a pseudo-index.
+	 */
+	private static void restore(LuaState luaState, int index, int reference,
+			boolean stringKeys) {
+		luaState.rawGet(luaState.REGISTRYINDEX, reference);
+		int baseline = luaState.getTop();
+		luaState.pushNil();
+		while (luaState.next(index)) {
+			luaState.pop(1);
+			if (stringKeys && luaState.type(-1) != LuaType.STRING) {
+				continue;
+			}
+			luaState.pushValue(-1);
+			luaState.rawGet(baseline);
+			if (luaState.isNil(-1)) {
+				luaState.pushValue(-2);
+				luaState.pushNil();
+				luaState.rawSet(index);
+			}
+			luaState.pop(1);
+		}
+		luaState.pushNil();
+		while (luaState.next(baseline)) {
+			luaState.pushValue(-2);
+			luaState.insert(-2);
+			luaState.rawSet(index);
+		}
+		luaState.pop(1);
+	}
+
+	// -- Nested types
+	/**
+	 * Initializes new states of a pool.
+	 */
+	public interface Initializer {
+		/**
+		 * Initializes a new state, such as by opening libraries and loading
+		 * modules. Values left on the stack are discarded.
+		 *
+		 * @param luaState
+		 *            the state
+		 */
+		public void initialize(LuaState luaState);
+	}
+
+	/**
+	 * A pooled state and its baseline.
+	 */
+	private static class Entry {
+		private final LuaState luaState;
+		private int registryRef = NOREF;
+		private int globalsRef = NOREF;
+		private int loadedRef = NOREF;
+		private Lock lock;
+		private Converter converter;
+		private JavaReflector javaReflector;
+		private boolean cacheJavaObjects;
+		private int uses;
+
+		public Entry(LuaState luaState) {
+			this.luaState = luaState;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.terasology.jnlua.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.terasology.jnlua.LuaState;
+import org.terasology.jnlua.LuaType;
+
+/**
+ * Copies Lua values into Java objects that do not refer to their Lua state
+ * and can therefore be used by any thread.
+ *
+ * <p>
+ * Booleans, numbers and strings are converted by means of
+ * {@link LuaState#toJavaObject(int, Class)}, and Java objects are returned as
+ * is. Tables are copied deeply: a table whose keys are the integers from 1 to
+ * its size is copied into an {@link ArrayList}, and any other table into a
+ * {@link HashMap}. Lua functions, userdata, threads and cyclic tables cannot
+ * be copied.
+ * </p>
+ */
+final class LuaValueCopier {
+	// -- Construction
+	/**
+	 * Prevents instantiation.
+	 */
+	private LuaValueCopier() {
+	}
+
+	// -- Operations
+	/**
+	 * Copies a Lua value. The caller must have access to the Lua state.
+	 *
+	 * @param luaState
+	 *            the Lua state
+	 * @param index
+	 *            the stack index containing the value
+	 * @return the copy
+	 * @throws IllegalArgumentException
+	 *             if the value cannot be copied
+	 */
+	public static Object copy(LuaState luaState, int index) {
+		return copy(luaState, luaState.absIndex(index), new HashSet<Long>());
+	}
+
+	// -- Private methods
+	/**
+	 * Copies a Lua value. The index must be absolute.
+	 */
+	private static Object copy(LuaState luaState, int index, Set<Long> tables) {
+		switch (luaState.type(index)) {
+		case NIL:
+			return null;
+		case BOOLEAN:
+		case NUMBER:
+		case STRING:
+			return luaState.toJavaObject(index, Object.class);
+		case TABLE:
+			return copyTable(luaState, index, tables);
+		case USERDATA:
+			if (luaState.isJavaObjectRaw(index)) {
+				return luaState.toJavaObjectRaw(index);
+			}
+			break;
+		default:
+			break;
+		}
+		throw new IllegalArgumentException(String.format(
+				"cannot copy %s out of its Lua state",
+				luaState.typeName(index)));
+	}
+
+	/**
+	 * Copies a table into a list or a map. The index must be absolute.
+	 */
+	private static Object copyTable(LuaState luaState, int index,
+			Set<Long> tables) {
+		Long pointer = Long.valueOf(luaState.toPointer(index));
+		if (!tables.add(pointer)) {
+			throw new IllegalArgumentException("cannot copy cyclic table");
+		}
+		try {
+			int size = luaState.tableSize(index);
+			boolean sequence = size > 0;
+			luaState.pushNil();
+			while (sequence && luaState.next(index)) {
+				luaState.pop(1);
+				if (luaState.type(-1) != LuaType.NUMBER) {
+					sequence = false;
+				} else {
+					double key = luaState.toNumber(-1);
+					sequence = key >= 1 && key <= size && key == Math.floor(key);
+				}
+				if (!sequence) {
+					luaState.pop(1);
+				}
+			}
+			if (sequence) {
+				List<Object> list = new ArrayList<Object>(size);
+				for (int i = 1; i <= size; i++) {
+					luaState.rawGet(index, i);
+					list.add(copy(luaState, luaState.getTop(), tables));
+					luaState.pop(1);
+				}
+				return list;
+			}
+			Map<Object, Object> map = new HashMap<Object, Object>();
+			luaState.pushNil();
+			while (luaState.next(index)) {
+				int top = luaState.getTop();
+				Object key = copy(luaState, top - 1, tables);
+				map.put(key, copy(luaState, top, tables));
+				luaState.pop(1);
+			}
+			return map;
+		} finally {
+			tables.remove(pointer);
+		}
+	}
+}
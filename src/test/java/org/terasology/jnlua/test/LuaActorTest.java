@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.terasology.jnlua.LuaRuntimeException;
+import org.terasology.jnlua.LuaState;
+import org.terasology.jnlua.LuaState53;
+import org.terasology.jnlua.util.LuaActor;
+
+/**
+ * Contains unit tests for the Lua actor.
+ */
+public class LuaActorTest {
+	// -- State
+	private LuaState luaState;
+	private LuaActor actor;
+
+	// -- Setup
+	/**
+	 * Performs setup.
+	 */
+	@Before
+	public void before() throws Exception {
+		luaState = new LuaState53();
+		luaState.openLibs();
+		luaState.load("function add(a, b) return a + b, \"sum\" end", "=LuaActorTest");
+		luaState.call(0, 0);
+		luaState.load("function pair(a, b) return { a, b }, { first = a } end\n"
+				+ "function getadd() return add end", "=LuaActorTest");
+		luaState.call(0, 0);
+		actor = new LuaActor(luaState);
+	}
+
+	/**
+	 * Performs cleanup.
+	 */
+	@After
+	public void after() throws Exception {
+		actor.close();
+	}
+
+	// -- Test cases
+	/**
+	 * Tests calling a function.
+	 */
+	@Test
+	public void testCall() throws Exception {
+		Object[] results = actor.call("add", 1, 2).get();
+		assertEquals(2, results.length);
+		assertEquals(3.0, ((Number) results[0]).doubleValue(), 0.0);
+		assertEquals("sum", results[1]);
+	}
+
+	/**
+	 * Tests calling a function returning tables.
+	 */
+	@Test
+	public void testCallTable() throws Exception {
+		Object[] results = actor.call("pair", "x", "y").get();
+		assertEquals(2, results.length);
+		assertEquals(Arrays.asList("x", "y"), results[0]);
+		assertEquals(Collections.singletonMap("first", "x"), results[1]);
+
+		// Function
+		try {
+			actor.call("getadd").get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+
+	/**
+	 * Tests submitting tasks.
+	 */
+	@Test
+	public void testSubmit() throws Exception {
+		CompletableFuture<Long> last = null;
+		for (int i = 0; i < 100; i++) {
+			last = actor.submit(new LuaActor.Task<Long>() {
+				@Override
+				public Long execute(LuaState luaState) {
+					luaState.getGlobal("n");
+					long n = luaState.toInteger(-1) + 1;
+					luaState.pop(1);
+					luaState.pushInteger(n);
+					luaState.setGlobal("n");
+					return n;
+				}
+			});
+		}
+		assertEquals(Long.valueOf(100), last.get());
+
+		// Confined
+		try {
+			luaState.getTop();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Tests a failing call.
+	 */
+	@Test
+	public void testError() throws Exception {
+		try {
+			actor.call("add", "a", null).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof LuaRuntimeException);
+		}
+	}
+
+	/**
+	 * Tests closing the actor.
+	 */
+	@Test
+	public void testClose() throws Exception {
+		CompletableFuture<Object[]> future = actor.call("add", 1, 2);
+		actor.close();
+		assertTrue(actor.isClosed());
+		assertEquals(2, future.get().length);
+		try {
+			actor.call("add", 1, 2).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.terasology.jnlua.LuaBatch;
+import org.terasology.jnlua.LuaRuntimeException;
+import org.terasology.jnlua.LuaType;
+
+/**
+ * Contains unit tests for Lua batches.
+ */
+public class LuaBatchTest extends AbstractLuaTest {
+	// -- Test cases
+	/**
+	 * Tests pushing values and reading them back.
+	 */
+	@Test
+	public void testPushAndConvert() throws Exception {
+		LuaBatch batch = new LuaBatch(luaState);
+		batch.pushNil().pushBoolean(true).pushInteger(1).pushNumber(2.5)
+				.pushString("test");
+		batch.getTop().type(1).toBoolean(2).toInteger(3).toNumber(4)
+				.toString(5).toString(1);
+		assertEquals(7, batch.getResultCount());
+		luaState.execute(batch);
+		assertEquals(5, batch.nextInteger());
+		assertEquals(LuaType.NIL, batch.nextType());
+		assertTrue(batch.nextBoolean());
+		assertEquals(1, batch.nextInteger());
+		assertEquals(2.5, batch.nextNumber(), 0.0);
+		assertEquals("test", batch.nextString());
+		assertNull(batch.nextString());
+		assertFalse(batch.hasNext());
+		assertEquals(5, luaState.getTop());
+
+		// Finish
+		luaState.setTop(0);
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests table and global operations.
+	 */
+	@Test
+	public void testTable() throws Exception {
+		LuaBatch batch = new LuaBatch(luaState);
+		batch.newTable().pushString("value").setField(-2, "key")
+				.pushInteger(10).rawSet(-2, 1).setGlobal("t");
+		batch.getGlobal("t").getField(-1, "key").rawGet(-2, 1).toString(-2)
+				.toInteger(-1).pop(3);
+		batch.execute();
+		assertEquals("value", batch.nextString());
+		assertEquals(10, batch.nextInteger());
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests calling a function.
+	 */
+	@Test
+	public void testCall() throws Exception {
+		luaState.openLibs();
+		LuaBatch batch = new LuaBatch(luaState);
+		batch.getGlobal("string").getField(-1, "rep").pushString("ab")
+				.pushInteger(3).call(2, 1).toString(-1).pop(2);
+		batch.execute();
+		assertEquals("ababab", batch.nextString());
+
+		// Repeat
+		batch.execute();
+		assertEquals("ababab", batch.nextString());
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests growing the buffers of a batch.
+	 */
+	@Test
+	public void testGrow() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("abcdefghij");
+		}
+		String s = sb.toString();
+		LuaBatch batch = new LuaBatch(luaState, 16);
+		for (int i = 0; i < 10; i++) {
+			batch.pushString(s).toString(-1);
+		}
+		batch.pop(10);
+		batch.execute();
+		for (int i = 0; i < 10; i++) {
+			assertEquals(s, batch.nextString());
+		}
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests an error in a batch.
+	 */
+	@Test(expected = LuaRuntimeException.class)
+	public void testError() throws Exception {
+		LuaBatch batch = new LuaBatch(luaState);
+		batch.pushNil().call(0, 0);
+		batch.execute();
+	}
+
+	/**
+	 * Tests an illegal argument in a batch.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalIndex() throws Exception {
+		new LuaBatch(luaState).pushValue(1).execute();
+	}
+}
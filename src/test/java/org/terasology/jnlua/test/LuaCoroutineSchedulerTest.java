@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.terasology.jnlua.LuaRuntimeException;
+import org.terasology.jnlua.util.LuaCoroutineScheduler;
+
+/**
+ * Contains unit tests for the Lua coroutine scheduler.
+ */
+public class LuaCoroutineSchedulerTest extends AbstractLuaTest {
+	// -- Test cases
+	/**
+	 * Tests round-robin and priority scheduling.
+	 */
+	@Test
+	public void testPriority() throws Exception {
+		luaState.openLibs();
+		LuaCoroutineScheduler scheduler = new LuaCoroutineScheduler(luaState,
+				2, "scheduler");
+		luaState.load("log = \"\"\n"
+				+ "function task(name) return function()\n"
+				+ "  for i = 1, 2 do log = log .. name; coroutine.yield() end\n"
+				+ "end end", "=testPriority");
+		luaState.call(0, 0);
+		spawn(scheduler, "a", 0);
+		spawn(scheduler, "b", 0);
+		spawn(scheduler, "c", 1);
+		assertEquals(3, scheduler.getCount());
+
+		// Run
+		assertEquals(3, scheduler.tick(0));
+		assertEquals(3, scheduler.tick(0));
+		assertEquals(3, scheduler.tick(0));
+		assertEquals(0, scheduler.tick(0));
+		assertEquals(0, scheduler.getCount());
+		luaState.getGlobal("log");
+		assertEquals("cabcab", luaState.toString(-1));
+		luaState.pop(1);
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests sleeping and waiting coroutines.
+	 */
+	@Test
+	public void testSleepAndWait() throws Exception {
+		luaState.openLibs();
+		LuaCoroutineScheduler scheduler = new LuaCoroutineScheduler(luaState);
+		luaState.load("log = \"\"\n"
+				+ "function sleeper() scheduler.sleep(100); log = log .. \"s\" end\n"
+				+ "function waiter() scheduler.wait(\"go\"); log = log .. \"w\" end",
+				"=testSleepAndWait");
+		luaState.call(0, 0);
+		luaState.getGlobal("sleeper");
+		int sleeper = scheduler.spawn(0);
+		luaState.getGlobal("waiter");
+		int waiter = scheduler.spawn(0);
+
+		// Suspend
+		assertEquals(2, scheduler.tick(0));
+		assertEquals(100, scheduler.getNextWakeTime());
+		assertEquals(0, scheduler.tick(50));
+		assertTrue(scheduler.isAlive(sleeper));
+		assertTrue(scheduler.isAlive(waiter));
+
+		// Wake
+		assertEquals(1, scheduler.tick(100));
+		assertFalse(scheduler.isAlive(sleeper));
+		assertEquals(0, scheduler.signal("other"));
+		assertEquals(1, scheduler.signal("go"));
+		assertEquals(1, scheduler.tick(100));
+		assertFalse(scheduler.isAlive(waiter));
+		luaState.getGlobal("log");
+		assertEquals("sw", luaState.toString(-1));
+		luaState.pop(1);
+
+		// Outside of a coroutine
+		luaState.load("scheduler.sleep(1)", "=testSleepAndWait");
+		try {
+			luaState.call(0, 0);
+			fail();
+		} catch (LuaRuntimeException e) {
+			// expected
+		}
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests a failing coroutine.
+	 */
+	@Test
+	public void testError() throws Exception {
+		luaState.openLibs();
+		LuaCoroutineScheduler scheduler = new LuaCoroutineScheduler(luaState);
+		luaState.load("error(\"failed\")", "=testError");
+		int id = scheduler.spawn(0);
+		try {
+			scheduler.tick(0);
+			fail();
+		} catch (LuaRuntimeException e) {
+			// expected
+		}
+		assertFalse(scheduler.isAlive(id));
+		assertEquals(0, scheduler.getCount());
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	// -- Private methods
+	/**
+	 * Spawns a logging task.
+	 */
+	private void spawn(LuaCoroutineScheduler scheduler, String name,
+			int priority) {
+		luaState.getGlobal("task");
+		luaState.pushString(name);
+		luaState.call(1, 1);
+		scheduler.spawn(priority);
+	}
+}
@@ -84,6 +84,46 @@ public class LuaExceptionTest extends AbstractLuaTest {
 				luaStackTrace[4]);
 	}
 
+	/**
+	 * Tests limiting the depth of the Lua stack trace.
+	 */
+	@Test
+	public void testStackTraceDepth() throws Exception {
+		// Load program
+		luaState.openLibs();
+		luaState.load("function A ()\n    error(\"msg\")\nend\nA()\n",
+				"=testStackTraceDepth");
+		luaState.pushValue(-1);
+
+		// Limited
+		assertEquals(Integer.MAX_VALUE, luaState.getStackTraceDepth());
+		luaState.setStackTraceDepth(2);
+		LuaRuntimeException luaRuntimeException = null;
+		try {
+			luaState.call(0, 0);
+		} catch (LuaRuntimeException e) {
+			luaRuntimeException = e;
+		}
+		LuaStackTraceElement[] luaStackTrace = luaRuntimeException
+				.getLuaStackTrace();
+		assertEquals(2, luaStackTrace.length);
+		assertEquals(new LuaStackTraceElement("error", null, -1),
+				luaStackTrace[0]);
+		assertEquals(new LuaStackTraceElement("A", "testStackTraceDepth", 2),
+				luaStackTrace[1]);
+
+		// Disabled
+		luaState.setStackTraceDepth(0);
+		luaRuntimeException = null;
+		try {
+			luaState.call(0, 0);
+		} catch (LuaRuntimeException e) {
+			luaRuntimeException = e;
+		}
+		assertTrue(luaRuntimeException.getMessage().endsWith("msg"));
+		assertEquals(0, luaRuntimeException.getLuaStackTrace().length);
+	}
+
 	/**
 	 * Tests the call of a Java function which throws a Java runtime exception.
 	 */
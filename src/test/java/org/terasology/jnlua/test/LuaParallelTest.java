@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.terasology.jnlua.LuaRuntimeException;
+import org.terasology.jnlua.util.LuaParallel;
+import org.terasology.jnlua.util.LuaStatePool;
+
+/**
+ * Contains unit tests for parallel mapping with Lua.
+ */
+public class LuaParallelTest {
+	// -- State
+	private LuaStatePool statePool = new LuaStatePool(0, null);
+	private ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+	private LuaParallel parallel = new LuaParallel(statePool, forkJoinPool);
+
+	// -- Setup
+	/**
+	 * Performs cleanup.
+	 */
+	@After
+	public void after() throws Exception {
+		parallel.close();
+		forkJoinPool.shutdown();
+		statePool.close();
+	}
+
+	// -- Test cases
+	/**
+	 * Tests mapping elements in order.
+	 */
+	@Test
+	public void testMap() throws Exception {
+		List<Integer> elements = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			elements.add(Integer.valueOf(i));
+		}
+		String chunk = "function square(x) return x * x end";
+		for (int n = 0; n < 2; n++) {
+			List<Object> results = parallel.map(elements, chunk, "square");
+			assertEquals(elements.size(), results.size());
+			for (int i = 0; i < elements.size(); i++) {
+				assertEquals((double) i * i,
+						((Number) results.get(i)).doubleValue(), 0.0);
+			}
+		}
+		assertEquals(0, parallel.map(new ArrayList<Object>(), chunk, "square")
+				.size());
+	}
+
+	/**
+	 * Tests returning tables.
+	 */
+	@Test
+	public void testMapTable() throws Exception {
+		List<Object> elements = new ArrayList<Object>();
+		elements.add("a");
+		elements.add("b");
+		List<Object> results = parallel.map(elements,
+				"function f(x) return { name = x, list = { x, x .. x } } end",
+				"f");
+		assertEquals(2, results.size());
+		for (int i = 0; i < results.size(); i++) {
+			Map<?, ?> map = (Map<?, ?>) results.get(i);
+			assertTrue(map instanceof HashMap);
+			assertEquals(2, map.size());
+			String element = (String) elements.get(i);
+			assertEquals(element, map.get("name"));
+			assertEquals(Arrays.asList(element, element + element),
+					map.get("list"));
+		}
+	}
+
+	/**
+	 * Tests returning a function.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testMapFunction() throws Exception {
+		List<Object> elements = new ArrayList<Object>();
+		elements.add("a");
+		parallel.map(elements, "function f(x) return f end", "f");
+	}
+
+	/**
+	 * Tests a failing function.
+	 */
+	@Test(expected = LuaRuntimeException.class)
+	public void testError() throws Exception {
+		List<Object> elements = new ArrayList<Object>();
+		elements.add("a");
+		parallel.map(elements, "function f(x) return x + {} end", "f");
+	}
+}
@@ -436,6 +436,22 @@ public class LuaStateErrorTest extends AbstractLuaTest {
 		luaState.toString(getIllegalIndex());
 	}
 
+	/**
+	 * types(int, int, int[]) with null array.
+	 */
+	@Test(expected = NullPointerException.class)
+	public void testNullTypes() {
+		luaState.types(1, 1, null);
+	}
+
+	/**
+	 * types(int, int, int[]) with short array.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testShortTypes() {
+		luaState.types(1, 3, new int[2]);
+	}
+
 	// -- Stack operation test
 	/**
 	 * arith(ArithOperator) with two missing arguments for addition.
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2008,2012 Andre Naef
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.terasology.jnlua.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.terasology.jnlua.LuaState;
+import org.terasology.jnlua.util.LuaStatePool;
+
+/**
+ * Contains unit tests for the Lua state pool.
+ */
+public class LuaStatePoolTest {
+	// -- State
+	private LuaStatePool pool;
+
+	// -- Setup
+	/**
+	 * Performs cleanup.
+	 */
+	@After
+	public void after() throws Exception {
+		if (pool != null) {
+			pool.close();
+		}
+	}
+
+	// -- Test cases
+	/**
+	 * Tests restoring the baseline of a returned state.
+	 */
+	@Test
+	public void testRestore() throws Exception {
+		pool = new LuaStatePool(1, new Initializer());
+		assertEquals(1, pool.getIdleCount());
+
+		// Modify
+		LuaState luaState = pool.acquire();
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, pool.getLentCount());
+		luaState.load("x = 2\ny = 3\nprint = nil\npackage.loaded.m = {}\n"
+				+ "debug.getregistry().name = true", "=testRestore");
+		luaState.call(0, 0);
+		luaState.pushInteger(1);
+		pool.release(luaState);
+		assertEquals(1, pool.getIdleCount());
+
+		// Restored
+		assertSame(luaState, pool.acquire());
+		assertEquals(0, luaState.getTop());
+		luaState.getGlobal("x");
+		assertEquals(1, luaState.toInteger(-1));
+		luaState.getGlobal("y");
+		assertTrue(luaState.isNil(-1));
+		luaState.getGlobal("print");
+		assertTrue(luaState.isFunction(-1));
+		luaState.pop(3);
+		luaState.load("return package.loaded.m, debug.getregistry().name",
+				"=testRestore");
+		luaState.call(0, 2);
+		assertTrue(luaState.isNil(-1));
+		assertTrue(luaState.isNil(-2));
+		luaState.pop(2);
+
+		// Finish
+		pool.release(luaState);
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests evicting states by use count.
+	 */
+	@Test
+	public void testEvict() throws Exception {
+		pool = new LuaStatePool(1, new Initializer(), 0L, 2);
+		LuaState luaState = pool.acquire();
+		pool.release(luaState);
+		assertSame(luaState, pool.acquire());
+		pool.release(luaState);
+		assertFalse(luaState.isOpen());
+		assertEquals(0, pool.getIdleCount());
+		LuaState other = pool.acquire();
+		assertNotSame(luaState, other);
+		pool.release(other);
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	/**
+	 * Tests evicting states by used memory.
+	 */
+	@Test
+	public void testEvictMemory() throws Exception {
+		pool = new LuaStatePool(1, new Initializer(), 1L << 20, 0);
+
+		// Below threshold
+		LuaState luaState = pool.acquire();
+		assertTrue(luaState.getUsedMemory() < 1L << 20);
+		pool.release(luaState);
+		assertTrue(luaState.isOpen());
+		assertEquals(1, pool.getIdleCount());
+
+		// Above threshold, in a library table that is not restored
+		assertSame(luaState, pool.acquire());
+		luaState.load("local t = {}\nfor i = 1, 200000 do t[i] = i end\n"
+				+ "string.data = t", "=testEvictMemory");
+		luaState.call(0, 0);
+		assertTrue(luaState.getUsedMemory() > 1L << 20);
+		pool.release(luaState);
+		assertFalse(luaState.isOpen());
+		assertEquals(0, pool.getIdleCount());
+		LuaState other = pool.acquire();
+		assertNotSame(luaState, other);
+		pool.release(other);
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	/**
+	 * Tests evicting states whose configuration has been changed.
+	 */
+	@Test
+	public void testEvictConfigured() throws Exception {
+		pool = new LuaStatePool(1, new Initializer());
+
+		// Confined
+		LuaState luaState = pool.acquire();
+		luaState.confineTo(Thread.currentThread());
+		pool.release(luaState);
+		assertFalse(luaState.isOpen());
+		assertEquals(0, pool.getIdleCount());
+
+		// Java object caching
+		luaState = pool.acquire();
+		luaState.setCacheJavaObjects(!luaState.isCacheJavaObjects());
+		pool.release(luaState);
+		assertFalse(luaState.isOpen());
+		assertEquals(0, pool.getIdleCount());
+
+		// Lock
+		luaState = pool.acquire();
+		luaState.setLock(new ReentrantLock());
+		pool.release(luaState);
+		assertFalse(luaState.isOpen());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	/**
+	 * Tests returning a state confined to another thread.
+	 */
+	@Test
+	public void testReleaseConfined() throws Exception {
+		pool = new LuaStatePool(1, new Initializer());
+		final LuaState luaState = pool.acquire();
+		final Throwable[] result = new Throwable[1];
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					pool.release(luaState);
+				} catch (Throwable e) {
+					result[0] = e;
+				}
+			}
+		});
+		luaState.confineTo(thread);
+		try {
+			pool.release(luaState);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(1, pool.getLentCount());
+
+		// Owner
+		thread.start();
+		thread.join();
+		assertNull(result[0]);
+		assertEquals(0, pool.getLentCount());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	/**
+	 * Tests many threads sharing a small pool.
+	 */
+	@Test
+	public void testConcurrent() throws Exception {
+		pool = new LuaStatePool(2, new Initializer());
+		Thread[] threads = new Thread[16];
+		final Throwable[] result = new Throwable[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int j = 0; j < 20; j++) {
+							LuaState luaState = pool.acquire();
+							try {
+								luaState.load("x = x + 1\nreturn x", "=testConcurrent");
+								luaState.call(0, 1);
+								assertEquals(2, luaState.toInteger(-1));
+							} finally {
+								pool.release(luaState);
+							}
+						}
+					} catch (Throwable e) {
+						result[index] = e;
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			assertNull(result[i]);
+		}
+		assertEquals(0, pool.getLentCount());
+		assertTrue(pool.getIdleCount() <= 2);
+	}
+
+	/**
+	 * Tests returning a state not lent out by the pool.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalRelease() throws Exception {
+		pool = new LuaStatePool(0, null);
+		LuaState luaState = pool.acquire();
+		pool.release(luaState);
+		pool.release(luaState);
+	}
+
+	// -- Private classes
+	/**
+	 * Initializes pooled states.
+	 */
+	private static class Initializer implements LuaStatePool.Initializer {
+		public void initialize(LuaState luaState) {
+			luaState.openLibs();
+			luaState.pushInteger(1);
+			luaState.setGlobal("x");
+		}
+	}
+}
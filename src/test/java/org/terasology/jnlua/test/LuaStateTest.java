@@ -29,13 +29,21 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.Test;
 
@@ -180,6 +188,35 @@ public class LuaStateTest extends AbstractLuaTest {
 		assertFalse(luaState.isOpen());
 	}
 
+	/**
+	 * Tests the release of collected proxies.
+	 */
+	@Test
+	public void testProxyRelease() throws Exception {
+		luaState.openLibs();
+		luaState.load("weak = setmetatable({}, { __mode = \"v\" })\n"
+				+ "weak[1] = {}\n" + "return weak[1]", "=testProxyRelease");
+		luaState.call(0, 1);
+		luaState.getProxy(-1);
+		luaState.pop(1);
+
+		// Collect
+		boolean released = false;
+		for (int i = 0; i < 100 && !released; i++) {
+			System.gc();
+			Thread.sleep(10);
+			luaState.gc(GcAction.COLLECT, 0);
+			luaState.getGlobal("weak");
+			luaState.rawGet(-1, 1);
+			released = luaState.isNil(-1);
+			luaState.pop(2);
+		}
+		assertTrue(released);
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
 	// -- Registration tests
 	/**
 	 * Tests the openLib method.
@@ -226,6 +263,222 @@ public class LuaStateTest extends AbstractLuaTest {
 		assertEquals(0, luaState.getTop());
 	}
 
+	/**
+	 * Tests the memory methods.
+	 */
+	@Test
+	public void testMemory() throws Exception {
+		// Unlimited
+		assertEquals(0, luaState.getTotalMemory());
+		assertEquals(0, luaState.getFreeMemory());
+
+		// Limited
+		LuaState newLuaState = new LuaState53(1 << 20);
+		assertEquals(1 << 20, newLuaState.getTotalMemory());
+		int free = newLuaState.getFreeMemory();
+		assertTrue(free > 0 && free < 1 << 20);
+		newLuaState.load("t = {} for i = 1, 1000 do t[i] = i end", "=testMemory");
+		newLuaState.call(0, 0);
+		assertTrue(newLuaState.getFreeMemory() < free);
+		newLuaState.setTotalMemory(1 << 21);
+		assertEquals(1 << 21, newLuaState.getTotalMemory());
+		assertTrue(newLuaState.getFreeMemory() > 1 << 20);
+
+		// Exceeded
+		try {
+			newLuaState.load("t = {} for i = 1, 1000000 do t[i] = i end",
+					"=testMemory");
+			newLuaState.call(0, 0);
+			fail();
+		} catch (LuaMemoryAllocationException e) {
+		}
+		newLuaState.close();
+		assertEquals(1 << 21, newLuaState.getFreeMemory());
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests the arena allocator.
+	 */
+	@Test
+	public void testArenaAllocator() throws Exception {
+		// System
+		assertEquals(LuaState.Allocator.SYSTEM, luaState.getAllocator());
+		assertTrue(luaState.getUsedMemory() > 0);
+		assertEquals(0L, luaState.getReservedMemory());
+
+		// Arena
+		LuaState newLuaState = new LuaState53(LuaState.Allocator.ARENA);
+		assertEquals(LuaState.Allocator.ARENA, newLuaState.getAllocator());
+		newLuaState.openLibs();
+		long allocationCount = newLuaState.getAllocationCount();
+		assertTrue(allocationCount > 0);
+		newLuaState.load("local t = {} for i = 1, 10000 do t[i] = { tostring(i) } end "
+				+ "return #table.concat(t[10000])", "=testArenaAllocator");
+		newLuaState.call(0, 1);
+		assertEquals(5, newLuaState.toInteger(-1));
+		newLuaState.pop(1);
+		assertTrue(newLuaState.getAllocationCount() > allocationCount);
+		assertTrue(newLuaState.getReservedMemory() > 0);
+		long used = newLuaState.getUsedMemory();
+		newLuaState.gc(GcAction.COLLECT, 0);
+		assertTrue(newLuaState.getUsedMemory() < used);
+		newLuaState.close();
+		assertEquals(0L, newLuaState.getReservedMemory());
+
+		// Arena with maximum memory
+		newLuaState = new LuaState53(1 << 20, LuaState.Allocator.ARENA);
+		try {
+			newLuaState.load("t = {} for i = 1, 1000000 do t[i] = { i } end",
+					"=testArenaAllocator");
+			newLuaState.call(0, 0);
+			fail();
+		} catch (LuaMemoryAllocationException e) {
+		}
+		assertTrue(newLuaState.getFreeMemory() < 1 << 20);
+		newLuaState.close();
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests referencing Java objects by handles.
+	 */
+	@Test
+	public void testHandleJavaObjects() throws Exception {
+		// Push by global reference
+		Object object = new Object();
+		luaState.pushJavaObject(object);
+
+		// Push by handle
+		assertFalse(luaState.isHandleJavaObjects());
+		luaState.setHandleJavaObjects(true);
+		assertTrue(luaState.isHandleJavaObjects());
+		for (int i = 0; i < 1000; i++) {
+			luaState.pushJavaObject(Integer.valueOf(i));
+			assertTrue(luaState.isJavaObjectRaw(-1));
+			assertEquals(Integer.valueOf(i), luaState.toJavaObjectRaw(-1));
+			luaState.pop(1);
+		}
+		luaState.gc(GcAction.COLLECT, 0);
+		luaState.pushJavaObject(new StringBuilder("test"));
+		assertTrue(luaState.isJavaObject(-1, CharSequence.class));
+		assertFalse(luaState.isJavaObject(-1, Number.class));
+		assertEquals("test", luaState.toJavaObject(-1, CharSequence.class).toString());
+
+		// Call a Java function pushed by handle
+		luaState.pushJavaFunction(new JavaFunction() {
+			@Override
+			public int invoke(LuaState luaState) {
+				luaState.pushInteger(luaState.getTop());
+				return 1;
+			}
+		});
+		luaState.pushInteger(1);
+		luaState.pushInteger(2);
+		luaState.call(2, 1);
+		assertEquals(2, luaState.toInteger(-1));
+		luaState.pop(1);
+
+		// Mixed
+		luaState.setHandleJavaObjects(false);
+		assertSame(object, luaState.toJavaObjectRaw(-2));
+		assertEquals("test", luaState.toJavaObjectRaw(-1).toString());
+		luaState.pop(2);
+		luaState.gc(GcAction.COLLECT, 0);
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests caching Java objects by identity.
+	 */
+	@Test
+	public void testCacheJavaObjects() throws Exception {
+		Object object = new Object();
+
+		// Uncached
+		assertFalse(luaState.isCacheJavaObjects());
+		luaState.pushJavaObjectRaw(object);
+		luaState.pushJavaObjectRaw(object);
+		assertFalse(luaState.rawEqual(-1, -2));
+		luaState.pop(2);
+
+		// Cached
+		luaState.setCacheJavaObjects(true);
+		assertTrue(luaState.isCacheJavaObjects());
+		luaState.pushJavaObjectRaw(object);
+		luaState.pushJavaObjectRaw(object);
+		assertTrue(luaState.rawEqual(-1, -2));
+		luaState.pushJavaObjectRaw(new Object());
+		assertFalse(luaState.rawEqual(-1, -2));
+		assertSame(object, luaState.toJavaObjectRaw(-2));
+		luaState.pop(3);
+
+		// Collected
+		luaState.gc(GcAction.COLLECT, 0);
+		luaState.pushJavaObjectRaw(object);
+		assertSame(object, luaState.toJavaObjectRaw(-1));
+		luaState.pop(1);
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests resolving methods from class metatables.
+	 */
+	@Test
+	public void testClassMetatables() throws Exception {
+		// Methods and properties
+		List<String> list = new ArrayList<String>();
+		luaState.pushJavaObject(list);
+		luaState.setGlobal("list");
+		luaState.load("list:add(\"a\")\n"
+				+ "return list:size(), list.add == list.add, list.empty",
+				"=testClassMetatables");
+		luaState.call(0, 3);
+		assertEquals(1, luaState.toInteger(1));
+		assertTrue(luaState.toBoolean(2));
+		assertFalse(luaState.toBoolean(3));
+		luaState.pop(3);
+		assertEquals(1, list.size());
+		luaState.getGlobal("list");
+		assertTrue(luaState.isJavaObjectRaw(-1));
+		assertSame(list, luaState.toJavaObjectRaw(-1));
+		luaState.pop(1);
+
+		// Java reflector
+		final JavaFunction index = new JavaFunction() {
+			@Override
+			public int invoke(LuaState luaState) {
+				luaState.pushString("index");
+				return 1;
+			}
+		};
+		luaState.setJavaReflector(new JavaReflector() {
+			@Override
+			public JavaFunction getMetamethod(Metamethod metamethod) {
+				if (metamethod == Metamethod.INDEX) {
+					return index;
+				}
+				return DefaultJavaReflector.getInstance().getMetamethod(
+						metamethod);
+			}
+		});
+		luaState.load("return list.size", "=testClassMetatables");
+		luaState.call(0, 1);
+		assertEquals("index", luaState.toString(-1));
+		luaState.pop(1);
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
 	/**
 	 * Tests the register methods.
 	 */
@@ -273,6 +526,41 @@ public class LuaStateTest extends AbstractLuaTest {
 		assertEquals(LuaType.NUMBER, luaState.type(-1));
 		luaState.pop(1);
 
+		// load(ByteBuffer), heap
+		ByteBuffer buffer = ByteBuffer.wrap("c = 3".getBytes("UTF-8"));
+		luaState.load(buffer, "=testLoad", "t");
+		assertFalse(buffer.hasRemaining());
+		luaState.call(0, 0);
+		luaState.getGlobal("c");
+		assertEquals(3, luaState.toInteger(-1));
+		luaState.pop(1);
+
+		// load(ByteBuffer), direct
+		buffer = ByteBuffer.allocateDirect(16);
+		buffer.put("xd = 4".getBytes("UTF-8"));
+		((Buffer) buffer).flip();
+		buffer.get();
+		luaState.load(buffer, "=testLoad", "t");
+		luaState.call(0, 0);
+		luaState.getGlobal("d");
+		assertEquals(4, luaState.toInteger(-1));
+		luaState.pop(1);
+
+		// load(Path)
+		File file = File.createTempFile("testLoad", ".lua");
+		try {
+			FileOutputStream fileOut = new FileOutputStream(file);
+			fileOut.write("e = 5".getBytes("UTF-8"));
+			fileOut.close();
+			luaState.load(file.toPath(), "=testLoad", "t");
+		} finally {
+			file.delete();
+		}
+		luaState.call(0, 0);
+		luaState.getGlobal("e");
+		assertEquals(5, luaState.toInteger(-1));
+		luaState.pop(1);
+
 		// Finish
 		assertEquals(0, luaState.getTop());
 	}
@@ -292,12 +580,84 @@ public class LuaStateTest extends AbstractLuaTest {
 		assertEquals((byte) 'L', bytes[1]);
 		assertEquals((byte) 'u', bytes[2]);
 		assertEquals((byte) 'a', bytes[3]);
+
+		// dump(boolean)
+		ByteBuffer buffer = luaState.dump(false);
+		assertEquals(0, buffer.position());
+		byte[] dumped = new byte[buffer.remaining()];
+		buffer.get(dumped);
+		assertArrayEquals(bytes, dumped);
+		luaState.pop(1);
+		luaState.load(ByteBuffer.wrap(dumped), "=testDump", "b");
+		luaState.call(0, 0);
+		luaState.getGlobal("c");
+		assertEquals(3, luaState.toInteger(-1));
+		luaState.pop(1);
+
+		// dumpTo(WritableByteChannel, boolean)
+		luaState.load("c = 3", "=testDump");
+		out = new ByteArrayOutputStream();
+		luaState.dumpTo(Channels.newChannel(out), false);
+		assertArrayEquals(bytes, out.toByteArray());
 		luaState.pop(1);
 
 		// Finish
 		assertEquals(0, luaState.getTop());
 	}
 
+	/**
+	 * Tests the snapshot methods.
+	 */
+	@Test
+	public void testSnapshot() throws Exception {
+		// Without Eris
+		luaState.openLibs();
+		try {
+			luaState.openLib(LuaState.Library.ERIS);
+			luaState.pop(1);
+		} catch (IllegalArgumentException e) {
+			try {
+				luaState.snapshot();
+				fail();
+			} catch (IllegalStateException e2) {
+				// expected
+			}
+			return;
+		}
+
+		// snapshot()
+		luaState.load("t = { n = 1 }\n"
+				+ "function f() return string.rep(\"a\", t.n + 1) end",
+				"=testSnapshot");
+		luaState.call(0, 0);
+		byte[] image = luaState.snapshot();
+		assertTrue(image.length > 0);
+
+		// fromSnapshot()
+		LuaState newLuaState = LuaState.fromSnapshot(image);
+		try {
+			newLuaState.getGlobal("f");
+			newLuaState.call(0, 1);
+			assertEquals("aa", newLuaState.toString(-1));
+			newLuaState.pop(1);
+		} finally {
+			newLuaState.close();
+		}
+
+		// Java object
+		luaState.pushJavaObject(new Object());
+		luaState.setGlobal("o");
+		try {
+			luaState.snapshot();
+			fail();
+		} catch (LuaRuntimeException e) {
+			// expected
+		}
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
 	// -- Call tests
 	/**
 	 * Tests the call method.
@@ -366,6 +726,25 @@ public class LuaStateTest extends AbstractLuaTest {
 		assertEquals(0, luaState.getTop());
 	}
 
+	/**
+	 * Tests the pushByteBuffer method.
+	 */
+	@Test
+	public void testPushByteBuffer() throws Exception {
+		ByteBuffer direct = ByteBuffer.allocateDirect(4);
+		direct.put(new byte[] { 't', 'e', 's', 't' });
+		((Buffer) direct).flip();
+		luaState.pushByteBuffer(direct);
+		assertEquals(4, direct.position());
+		luaState.pushByteBuffer(ByteBuffer.wrap(new byte[] { 'a', 'b', 'c' }, 1, 2));
+		assertEquals("test", luaState.toString(1));
+		assertEquals("bc", luaState.toString(2));
+		luaState.pop(2);
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
 	/**
 	 * Tests the stack push methods.
 	 */
@@ -970,6 +1349,44 @@ public class LuaStateTest extends AbstractLuaTest {
 		assertEquals(0, luaState.getTop());
 	}
 
+	/**
+	 * Tests the toByteBuffer method.
+	 */
+	@Test
+	public void testToByteBuffer() throws Exception {
+		// Setup stack
+		luaState.openLibs();
+		makeStack();
+
+		// Test
+		ByteBuffer direct = ByteBuffer.allocateDirect(8);
+		assertEquals(-1, luaState.toByteBuffer(1, direct));
+		assertEquals(-1, luaState.toByteBuffer(2, direct));
+		assertEquals(4, luaState.toByteBuffer(4, direct));
+		assertEquals(4, direct.position());
+		assertEquals(1, luaState.toByteBuffer(5, direct));
+		((Buffer) direct).flip();
+		byte[] bytes = new byte[direct.remaining()];
+		direct.get(bytes);
+		assertArrayEquals(new byte[] { 't', 'e', 's', 't', '1' }, bytes);
+		ByteBuffer heap = ByteBuffer.allocate(4);
+		assertEquals(4, luaState.toByteBuffer(4, heap));
+		assertArrayEquals(new byte[] { 't', 'e', 's', 't' }, heap.array());
+		assertEquals(-1, luaState.toByteBuffer(6, heap));
+
+		// Overflow
+		try {
+			luaState.toByteBuffer(4, ByteBuffer.allocateDirect(2));
+			fail();
+		} catch (BufferOverflowException e) {
+			// expected
+		}
+
+		// Finish
+		luaState.pop(10);
+		assertEquals(0, luaState.getTop());
+	}
+
 	/**
 	 * Tests the toInteger method.
 	 */
@@ -1237,6 +1654,44 @@ public class LuaStateTest extends AbstractLuaTest {
 		assertEquals(0, luaState.getTop());
 	}
 
+	/**
+	 * Tests the types method.
+	 */
+	@Test
+	public void testTypes() throws Exception {
+		// Setup stack
+		luaState.openLibs();
+		makeStack();
+
+		// Test
+		int[] types = new int[12];
+		luaState.types(1, 11, types);
+		assertEquals(LuaType.NIL.ordinal(), types[0]);
+		assertEquals(LuaType.BOOLEAN.ordinal(), types[1]);
+		assertEquals(LuaType.NUMBER.ordinal(), types[2]);
+		assertEquals(LuaType.STRING.ordinal(), types[3]);
+		assertEquals(LuaType.TABLE.ordinal(), types[5]);
+		assertEquals(LuaType.FUNCTION.ordinal() | LuaState.JAVA_TYPE_FLAG,
+				types[6]);
+		assertEquals(LuaType.USERDATA.ordinal() | LuaState.JAVA_TYPE_FLAG,
+				types[7]);
+		assertEquals(LuaType.FUNCTION.ordinal(), types[8]);
+		assertEquals(LuaType.FUNCTION.ordinal(), types[9]);
+		assertEquals(-1, types[10]);
+		assertEquals(LuaType.FUNCTION, LuaType.fromTypeCode(types[6]));
+		assertEquals(LuaType.USERDATA, LuaType.fromTypeCode(types[7]));
+		assertNull(LuaType.fromTypeCode(types[10]));
+
+		// Relative indexes
+		luaState.types(-2, -1, types);
+		assertEquals(LuaType.FUNCTION.ordinal(), types[0]);
+		assertEquals(LuaType.FUNCTION.ordinal(), types[1]);
+
+		// Finish
+		luaState.pop(10);
+		assertEquals(0, luaState.getTop());
+	}
+
 	/**
 	 * Tests the typeName method.
 	 */
@@ -1370,9 +1825,21 @@ public class LuaStateTest extends AbstractLuaTest {
 		luaState.pushString("abc");
 		luaState.len(-1);
 		assertEquals(3, luaState.toInteger(-1));
+		luaState.pop(2);
+
+		// Table with and without metatable
+		luaState.openLibs();
+		luaState.load("local t = { 1, 2 }\n"
+				+ "return t, setmetatable({}, { __len = function() return 5 end })",
+				"=testLen");
+		luaState.call(0, 2);
+		luaState.len(1);
+		assertEquals(2, luaState.toInteger(-1));
+		luaState.len(2);
+		assertEquals(5, luaState.toInteger(-1));
 
 		// Finish
-		luaState.pop(2);
+		luaState.pop(4);
 		assertEquals(0, luaState.getTop());
 	}
 
@@ -1637,6 +2104,105 @@ public class LuaStateTest extends AbstractLuaTest {
 		assertEquals(0, luaState.getTop());
 	}
 
+	/**
+	 * Tests confining a Lua state to a thread.
+	 */
+	@Test
+	public void testConfineTo() throws Exception {
+		// Unconfined
+		assertNull(luaState.getOwner());
+		luaState.lock();
+		try {
+			luaState.pushInteger(1);
+		} finally {
+			luaState.unlock();
+		}
+
+		// Confined
+		luaState.confineTo(Thread.currentThread());
+		assertSame(Thread.currentThread(), luaState.getOwner());
+		luaState.pushInteger(2);
+		assertEquals(2, luaState.getTop());
+
+		// Other thread
+		final Throwable[] result = new Throwable[1];
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					luaState.pushInteger(3);
+				} catch (Throwable e) {
+					result[0] = e;
+				}
+			}
+		});
+		thread.start();
+		thread.join();
+		assertTrue(result[0] instanceof IllegalStateException);
+		assertEquals(2, luaState.getTop());
+
+		// Finish
+		luaState.pop(2);
+		assertEquals(0, luaState.getTop());
+	}
+
+	/**
+	 * Tests replacing the lock of a Lua state.
+	 */
+	@Test
+	public void testSetLock() throws Exception {
+		luaState.setLock(new ReentrantLock(true));
+		luaState.pushInteger(0);
+		luaState.setGlobal("n");
+
+		// Contend
+		Thread[] threads = new Thread[8];
+		final Throwable[] result = new Throwable[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int j = 0; j < 100; j++) {
+							luaState.lock();
+							try {
+								luaState.getGlobal("n");
+								luaState.pushInteger(luaState.toInteger(-1) + 1);
+								luaState.setGlobal("n");
+								luaState.pop(1);
+							} finally {
+								luaState.unlock();
+							}
+						}
+					} catch (Throwable e) {
+						result[index] = e;
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			assertNull(result[i]);
+		}
+		luaState.getGlobal("n");
+		assertEquals(800, luaState.toInteger(-1));
+		luaState.pop(1);
+
+		// Locked
+		luaState.lock();
+		try {
+			luaState.setLock(new ReentrantLock());
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		} finally {
+			luaState.unlock();
+		}
+
+		// Finish
+		assertEquals(0, luaState.getTop());
+	}
+
 	// -- Reference tests
 	/**
 	 * Tests the reference functions.
@@ -97,6 +97,13 @@ public class TestObject implements Comparable<TestObject> {
 		return "test";
 	}
 
+	/**
+	 * A public method throwing an exception.
+	 */
+	public void fail() {
+		throw new IllegalStateException("failed");
+	}
+
 	// -- Properties
 	/**
 	 * A property reader.
@@ -151,6 +151,39 @@ function m.testMethodDispatch ()
 	assert(testObject:overloadedParentChild(bc) == "b")
 end
 
+-- Exception test
+function m.testExceptions ()
+	local TestObject = java.require("org.terasology.jnlua.test.fixture.TestObject")
+	local testObject = TestObject:new()
+	local status, msg = pcall(testObject.fail, testObject)
+	assert(not status)
+	assert(string.find(tostring(msg), "failed"))
+end
+
+-- Repeated dispatch test
+function m.testDispatchCache ()
+	local TestObject = java.require("org.terasology.jnlua.test.fixture.TestObject")
+	local testObject = TestObject:new()
+	local Sub = java.require("org.terasology.jnlua.test.fixture.TestObject$Sub")
+	local sub = Sub:new()
+	local AB = java.require("org.terasology.jnlua.test.fixture.TestObject$AB")
+	local ab = AB:new()
+	for i = 1, 10 do
+		assert(testObject:overloadedSub(testObject) == "super")
+		assert(testObject:overloadedSub(sub) == "sub")
+		assert(testObject:overloadedParentChild(ab) == "b")
+		assert(testObject:test() == "test")
+	end
+	
+	-- Non-overloaded method with a mismatching call
+	local status, msg = pcall(testObject.test, testObject, 1)
+	assert(not status)
+	assert(string.find(tostring(msg), "matches"))
+	status, msg = pcall(TestObject.test, TestObject)
+	assert(not status)
+	assert(string.find(tostring(msg), "matches"))
+end
+
 -- VarArgs method test
 function m.testVarargs ()
 	local String = java.require("java.lang.String")